@@ -0,0 +1,84 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch lookups against lookups one by one.
+ * Queries are taken from pool much bigger
+ * than batch, so filter memory is not cached
+ * between invocations.
+ *
+ * @author Alexey Ponkin
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+  static final int BATCH = 1024;
+
+  static final int POOL = 1 << 20;
+
+  @State(Scope.Thread)
+  public static class Queries {
+
+    final byte[][] pool = new byte[POOL][];
+
+    final byte[][] batch = new byte[BATCH][];
+
+    final boolean[] result = new boolean[BATCH];
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(FilterState state) {
+      long rnd = 0x9E3779B97F4A7C15L;
+      for (int i = 0; i < POOL; i++) {
+        // xorshift64
+        rnd ^= rnd << 13;
+        rnd ^= rnd >>> 7;
+        rnd ^= rnd << 17;
+        pool[i] = BenchmarkFilters.key(new byte[BenchmarkFilters.KEY_LENGTH], 0L,
+          (rnd & Long.MAX_VALUE) % state.capacity);
+      }
+    }
+
+    byte[][] nextBatch() {
+      System.arraycopy(pool, next, batch, 0, BATCH);
+      next = (next + BATCH) & (POOL - 1);
+      return batch;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public boolean[] mightContainAll(FilterState state, Queries queries) {
+    state.filter.mightContainAll(queries.nextBatch(), queries.result);
+    return queries.result;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public boolean[] mightContainLoop(FilterState state, Queries queries) {
+    byte[][] batch = queries.nextBatch();
+    for (int i = 0; i < BATCH; i++) {
+      queries.result[i] = state.filter.mightContain(batch[i]);
+    }
+    return queries.result;
+  }
+}
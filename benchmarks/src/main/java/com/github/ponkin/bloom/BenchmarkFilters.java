@@ -0,0 +1,123 @@
+package com.github.ponkin.bloom;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Factory for filters under benchmark.
+ * Benchmarks live in the same package as filters
+ * to reach package private implementations
+ * like {@link PartitionedBloomFilter}.
+ *
+ * @author Alexey Ponkin
+ */
+final class BenchmarkFilters {
+
+  /**
+   * Length of every generated key in bytes
+   */
+  static final int KEY_LENGTH = 16;
+
+  /*
+   * /dev/shm is what bloom server uses for
+   * file mapped filters, fallback to tmp dir
+   * on systems without shared memory fs
+   */
+  private static final File SHARED_MEM = new File("/dev/shm");
+
+  private BenchmarkFilters() {
+  }
+
+  /**
+   * Create new empty filter.
+   * Files created for {@link MemoryMode#FILE_MAPPED} filters
+   * are added to <code>files</code>, caller must delete them.
+   *
+   * @param kind filter implementation
+   * @param hasher hash function
+   * @param reduction hash to index reduction
+   * @param memory memory mode
+   * @param capacity expected number of items
+   * @param fpp target false positive rate
+   * @param files list to collect created files
+   * @return new filter
+   */
+  static Filter create(FilterKind kind, HasherKind hasher, IndexReduction reduction, MemoryMode memory,
+                       long capacity, double fpp, List<File> files) throws IOException {
+    if ((kind == FilterKind.SCALABLE || kind == FilterKind.SCALABLE_CUCKOO) && memory == MemoryMode.FILE_MAPPED) {
+      // every new filter is mapped to its own file
+      throw new UnsupportedOperationException(kind + " benchmark does not map files");
+    }
+    FilterBuilder<? extends Filter> builder;
+    switch (kind) {
+      case BLOOM:
+        builder = BloomFilter.builder();
+        break;
+      case BLOCKED:
+        builder = BlockedBloomFilter.builder();
+        break;
+      case SPLIT_BLOCK:
+        builder = SplitBlockBloomFilter.builder();
+        break;
+      case PARTITIONED:
+        builder = PartitionedBloomFilter.builder();
+        break;
+      case SCALABLE:
+        builder = ScalableBloomFilter.builder();
+        break;
+      case STABLE:
+        builder = StableBloomFilter.builder();
+        break;
+      case COUNTING:
+        builder = CountingBloomFilter.builder();
+        break;
+      case CUCKOO:
+        builder = CuckooFilter.builder();
+        break;
+      case SCALABLE_CUCKOO:
+        builder = ScalableCuckooFilter.builder();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown filter kind " + kind);
+    }
+    builder.withExpectedNumberOfItems(capacity)
+      .withFalsePositiveRate(fpp)
+      .useOffHeapMemory(memory != MemoryMode.ON_HEAP)
+      .withHasher(hasher.hasher())
+      .withIndexReduction(reduction);
+    if (memory == MemoryMode.FILE_MAPPED) {
+      File dir = SHARED_MEM.isDirectory() ? SHARED_MEM : null;
+      File file = File.createTempFile("bloom-bench-" + kind.name().toLowerCase(), ".data", dir);
+      files.add(file);
+      builder.withFileMapped(file);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Create new empty filter with default
+   * {@link HasherKind#MURMUR3_128} hash function
+   * and {@link IndexReduction#MODULO} reduction.
+   */
+  static Filter create(FilterKind kind, MemoryMode memory, long capacity, double fpp, List<File> files) throws IOException {
+    return create(kind, HasherKind.MURMUR3_128, IndexReduction.MODULO, memory, capacity, fpp, files);
+  }
+
+  /**
+   * Write key with sequence number <code>seq</code>
+   * into <code>key</code> buffer. Keys with different
+   * <code>salt</code> never collide, so every thread can
+   * generate its own key space without allocation.
+   *
+   * @param key buffer of {@link #KEY_LENGTH} bytes
+   * @param salt key space identifier
+   * @param seq sequence number inside key space
+   * @return <code>key</code> buffer
+   */
+  static byte[] key(byte[] key, long salt, long seq) {
+    Platform.putLong(key, Platform.BYTE_ARRAY_OFFSET, seq);
+    Platform.putLong(key, Platform.BYTE_ARRAY_OFFSET + 8, salt);
+    return key;
+  }
+}
@@ -0,0 +1,55 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contended hot path: all threads share one filter.
+ * Number of threads can be changed with <code>-t</code>,
+ * reader/writer ratio of <code>readWrite</code> group with <code>-tg</code>.
+ *
+ * @author Alexey Ponkin
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentFilterBenchmark {
+
+  @Benchmark
+  @Threads(8)
+  public boolean put(FilterState state, KeyStream keys) {
+    return state.filter.put(keys.nextNew(state.capacity));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean mightContain(FilterState state, KeyStream keys) {
+    return state.filter.mightContain(keys.nextQuery(state.capacity));
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(2)
+  public boolean writer(FilterState state, KeyStream keys) {
+    return state.filter.put(keys.nextNew(state.capacity));
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(6)
+  public boolean reader(FilterState state, KeyStream keys) {
+    return state.filter.mightContain(keys.nextQuery(state.capacity));
+  }
+}
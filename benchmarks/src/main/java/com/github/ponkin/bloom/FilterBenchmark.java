@@ -0,0 +1,44 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded hot path of every filter.
+ * Throughput mode gives ops/us, sample mode gives
+ * latency percentiles. Run with <code>-prof gc</code>
+ * to get allocation rate per operation.
+ *
+ * @author Alexey Ponkin
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+  @Benchmark
+  public boolean put(FilterState state, KeyStream keys) {
+    return state.filter.put(keys.nextNew(state.capacity));
+  }
+
+  @Benchmark
+  public boolean mightContain(FilterState state, KeyStream keys) {
+    return state.filter.mightContain(keys.nextQuery(state.capacity));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void clear(FilterState state) {
+    state.filter.clear();
+  }
+}
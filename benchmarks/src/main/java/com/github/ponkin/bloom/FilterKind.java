@@ -0,0 +1,18 @@
+package com.github.ponkin.bloom;
+
+/**
+ * Filter implementations under benchmark
+ *
+ * @author Alexey Ponkin
+ */
+public enum FilterKind {
+  BLOOM,
+  BLOCKED,
+  SPLIT_BLOCK,
+  PARTITIONED,
+  SCALABLE,
+  STABLE,
+  COUNTING,
+  CUCKOO,
+  SCALABLE_CUCKOO
+}
@@ -0,0 +1,66 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter shared between all benchmark threads.
+ * Filter is half full after setup - it contains keys
+ * with salt 0 and sequence numbers in <code>[0, capacity/2)</code>.
+ *
+ * @author Alexey Ponkin
+ */
+@State(Scope.Benchmark)
+public class FilterState {
+
+  @Param({"BLOOM", "BLOCKED", "SPLIT_BLOCK", "PARTITIONED", "SCALABLE", "STABLE", "COUNTING", "CUCKOO", "SCALABLE_CUCKOO"})
+  public FilterKind kind;
+
+  @Param({"MURMUR3_128"})
+  public HasherKind hasher;
+
+  @Param({"MODULO"})
+  public IndexReduction reduction;
+
+  @Param({"ON_HEAP", "OFF_HEAP", "FILE_MAPPED"})
+  public MemoryMode memory;
+
+  @Param({"1000000", "50000000"})
+  public long capacity;
+
+  @Param({"0.01"})
+  public double fpp;
+
+  Filter filter;
+
+  private final List<File> files = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    filter = BenchmarkFilters.create(kind, hasher, reduction, memory, capacity, fpp, files);
+    byte[] key = new byte[BenchmarkFilters.KEY_LENGTH];
+    for (long seq = 0; seq < capacity / 2; seq++) {
+      filter.put(BenchmarkFilters.key(key, 0L, seq));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (filter != null) {
+      filter.close();
+    }
+    for (File file : files) {
+      file.delete();
+    }
+    files.clear();
+  }
+}
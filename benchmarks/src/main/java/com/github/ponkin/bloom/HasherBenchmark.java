@@ -0,0 +1,65 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of hashing one key into
+ * the number of hashes typical bloom filter
+ * with 1% false positive rate uses.
+ *
+ * @author Alexey Ponkin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HasherBenchmark {
+
+  @Param({"MURMUR3_32", "MURMUR3_128", "XXHASH64", "XXH3", "WYHASH"})
+  public HasherKind hasher;
+
+  @Param({"8", "16", "32", "64"})
+  public int keyLength;
+
+  private HashFunction strategy;
+
+  private byte[] key;
+
+  private long seq;
+
+  private final long[] hashes = new long[7];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    strategy = hasher.hasher();
+    key = new byte[keyLength];
+  }
+
+  @Benchmark
+  public long[] hashBytes() {
+    Platform.putLong(key, Platform.BYTE_ARRAY_OFFSET, seq++);
+    strategy.hashes(key, hashes);
+    return hashes;
+  }
+
+  @Benchmark
+  public long[] hashLong() {
+    strategy.hashes(seq++, hashes);
+    return hashes;
+  }
+}
@@ -0,0 +1,24 @@
+package com.github.ponkin.bloom;
+
+/**
+ * Hash functions under benchmark
+ *
+ * @author Alexey Ponkin
+ */
+public enum HasherKind {
+  MURMUR3_32(Hashers.MURMUR3_32),
+  MURMUR3_128(Hashers.MURMUR3_128),
+  XXHASH64(Hashers.XXHASH64),
+  XXH3(Hashers.XXH3),
+  WYHASH(Hashers.WYHASH);
+
+  private final HashFunction hasher;
+
+  HasherKind(HashFunction hasher) {
+    this.hasher = hasher;
+  }
+
+  HashFunction hasher() {
+    return hasher;
+  }
+}
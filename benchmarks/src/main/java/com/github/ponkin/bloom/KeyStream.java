@@ -0,0 +1,67 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Per thread key generator.
+ * Generates keys in place, so benchmarks
+ * measure only allocations made by filters.
+ *
+ * @author Alexey Ponkin
+ */
+@State(Scope.Thread)
+public class KeyStream {
+
+  private final byte[] key = new byte[BenchmarkFilters.KEY_LENGTH];
+
+  private long salt;
+
+  private long seq;
+
+  private long rnd;
+
+  private int numThreads;
+
+  @Setup
+  public void setUp(ThreadParams params) {
+    // salt 0 is reserved for keys put during filter setup
+    salt = params.getThreadIndex() + 1;
+    numThreads = params.getThreadCount();
+    seq = 0L;
+    rnd = 0x9E3779B97F4A7C15L * salt;
+  }
+
+  /**
+   * Next key, that was not put in filter
+   * by this thread. All threads together put at most
+   * <code>capacity/2</code> distinct keys, after that
+   * sequence wraps, to not overflow filters with fixed capacity.
+   *
+   * @param capacity filter capacity
+   * @return key buffer
+   */
+  byte[] nextNew(long capacity) {
+    if (++seq >= capacity / 2 / numThreads) {
+      seq = 0L;
+    }
+    return BenchmarkFilters.key(key, salt, seq);
+  }
+
+  /**
+   * Random key, which is inside filter with
+   * probability 0.5
+   *
+   * @param capacity filter capacity
+   * @return key buffer
+   */
+  byte[] nextQuery(long capacity) {
+    // xorshift64
+    rnd ^= rnd << 13;
+    rnd ^= rnd >>> 7;
+    rnd ^= rnd << 17;
+    return BenchmarkFilters.key(key, 0L, (rnd & Long.MAX_VALUE) % capacity);
+  }
+}
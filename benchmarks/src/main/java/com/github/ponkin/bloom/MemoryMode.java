@@ -0,0 +1,12 @@
+package com.github.ponkin.bloom;
+
+/**
+ * Where filter under benchmark keeps its bits
+ *
+ * @author Alexey Ponkin
+ */
+public enum MemoryMode {
+  ON_HEAP,
+  OFF_HEAP,
+  FILE_MAPPED
+}
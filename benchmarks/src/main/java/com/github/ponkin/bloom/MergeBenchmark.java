@@ -0,0 +1,80 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of two filters of the same size.
+ * Only filters that support {@link Filter#mergeInPlace(Filter)}
+ * are benchmarked.
+ *
+ * @author Alexey Ponkin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+  @Param({"BLOOM", "BLOCKED", "SPLIT_BLOCK", "PARTITIONED", "STABLE"})
+  public FilterKind kind;
+
+  @Param({"ON_HEAP", "OFF_HEAP", "FILE_MAPPED"})
+  public MemoryMode memory;
+
+  @Param({"1000000", "50000000"})
+  public long capacity;
+
+  @Param({"0.01"})
+  public double fpp;
+
+  private Filter target;
+
+  private Filter source;
+
+  private final List<File> files = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    target = BenchmarkFilters.create(kind, memory, capacity, fpp, files);
+    source = BenchmarkFilters.create(kind, memory, capacity, fpp, files);
+    byte[] key = new byte[BenchmarkFilters.KEY_LENGTH];
+    for (long seq = 0; seq < capacity / 2; seq++) {
+      source.put(BenchmarkFilters.key(key, 0L, seq));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    target.close();
+    source.close();
+    for (File file : files) {
+      file.delete();
+    }
+    files.clear();
+  }
+
+  @Benchmark
+  public Filter mergeInPlace() throws Exception {
+    return target.mergeInPlace(source);
+  }
+}
@@ -0,0 +1,94 @@
+package com.github.ponkin.bloom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write filter snapshot to file and read it back,
+ * see {@link Filter#writeTo(java.nio.channels.WritableByteChannel)}.
+ *
+ * @author Alexey Ponkin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+  @Param({"BLOOM", "STABLE", "CUCKOO"})
+  public FilterKind kind;
+
+  @Param({"ON_HEAP", "OFF_HEAP"})
+  public MemoryMode memory;
+
+  @Param({"1000000", "50000000"})
+  public long capacity;
+
+  @Param({"0.01"})
+  public double fpp;
+
+  private Filter filter;
+
+  private File snapshot;
+
+  private final List<File> files = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    filter = BenchmarkFilters.create(kind, memory, capacity, fpp, files);
+    byte[] key = new byte[BenchmarkFilters.KEY_LENGTH];
+    for (long seq = 0; seq < capacity / 2; seq++) {
+      filter.put(BenchmarkFilters.key(key, 0L, seq));
+    }
+    snapshot = File.createTempFile("bloom-snapshot", ".bin");
+    writeTo();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    filter.close();
+    snapshot.delete();
+    for (File file : files) {
+      file.delete();
+    }
+    files.clear();
+  }
+
+  @Benchmark
+  public void writeTo() throws IOException {
+    try (FileChannel out = FileChannel.open(snapshot.toPath(),
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      filter.writeTo(out);
+    }
+  }
+
+  @Benchmark
+  public Filter readFrom() throws IOException {
+    try (FileChannel in = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+      Filter restored = Filters.readFrom(in, memory != MemoryMode.ON_HEAP);
+      restored.close();
+      return restored;
+    }
+  }
+}
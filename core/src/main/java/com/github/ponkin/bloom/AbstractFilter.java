@@ -0,0 +1,366 @@
+package com.github.ponkin.bloom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for filters that map items
+ * to positions with {@link HashFunction}.
+ * Every entry point hashes item into reusable
+ * per thread buffer and passes hashes to filter
+ * specific method, so put/query path does not allocate.
+ * Batch methods hash up to {@link #BATCH_SIZE} items first
+ * and then probe filter for all of them, see
+ * {@link #mightContainBatch(long[][], int, boolean[], int)}.
+ *
+ * @author Alexey Ponkin
+ */
+abstract class AbstractFilter implements Filter {
+
+  /**
+   * Number of items hashed at once by batch methods
+   */
+  static final int BATCH_SIZE = 64;
+
+  protected final HashFunction strategy;
+
+  /*
+   * Hashes buffer is reused between calls of
+   * the same thread, it is safe since hashes are
+   * never kept after method returns
+   */
+  private final ThreadLocal<long[]> hashBuffer;
+
+  /*
+   * Hashes of items in one batch,
+   * reused the same way as hashBuffer
+   */
+  private final ThreadLocal<long[][]> batchBuffer;
+
+  /**
+   * @param strategy hash function
+   * @param numHashes number of hashes filter needs per item
+   */
+  AbstractFilter(HashFunction strategy, int numHashes) {
+    this.strategy = strategy;
+    this.hashBuffer = ThreadLocal.withInitial(() -> new long[numHashes]);
+    this.batchBuffer = ThreadLocal.withInitial(() -> new long[BATCH_SIZE][numHashes]);
+  }
+
+  /**
+   * Hash item into per thread buffer.
+   * Returned array is overwritten by next
+   * call in the same thread.
+   *
+   * @param item to hash
+   * @return hashes of item
+   */
+  final long[] hashes(byte[] item) {
+    long[] hashes = hashBuffer.get();
+    strategy.hashes(item, hashes);
+    return hashes;
+  }
+
+  /**
+   * Hash <code>long</code> item into per thread buffer,
+   * see {@link #hashes(byte[])}
+   *
+   * @param item to hash
+   * @return hashes of item
+   */
+  final long[] hashes(long item) {
+    long[] hashes = hashBuffer.get();
+    strategy.hashes(item, hashes);
+    return hashes;
+  }
+
+  /**
+   * Hash slice of <code>data</code> into per thread buffer,
+   * see {@link #hashes(byte[])}
+   */
+  final long[] hashes(byte[] data, int offset, int length) {
+    long[] hashes = hashBuffer.get();
+    strategy.hashes(data, offset, length, hashes);
+    return hashes;
+  }
+
+  /**
+   * Hash remaining bytes of <code>buffer</code> into per thread buffer,
+   * see {@link #hashes(byte[])}
+   */
+  final long[] hashes(ByteBuffer buffer) {
+    long[] hashes = hashBuffer.get();
+    strategy.hashes(buffer, hashes);
+    return hashes;
+  }
+
+  /**
+   * Hash UTF-16LE representation of <code>chars</code>
+   * into per thread buffer, see {@link #hashes(byte[])}
+   */
+  final long[] hashChars(CharSequence chars) {
+    long[] hashes = hashBuffer.get();
+    strategy.hashChars(chars, hashes);
+    return hashes;
+  }
+
+  @Override
+  public boolean put(byte[] item) {
+    return putHashes(hashes(item));
+  }
+
+  @Override
+  public boolean mightContain(byte[] item) {
+    return mightContainHashes(hashes(item));
+  }
+
+  @Override
+  public boolean remove(byte[] item) {
+    return removeHashes(hashes(item));
+  }
+
+  @Override
+  public boolean put(byte[] data, int offset, int length) {
+    return putHashes(hashes(data, offset, length));
+  }
+
+  @Override
+  public boolean mightContain(byte[] data, int offset, int length) {
+    return mightContainHashes(hashes(data, offset, length));
+  }
+
+  @Override
+  public boolean remove(byte[] data, int offset, int length) {
+    return removeHashes(hashes(data, offset, length));
+  }
+
+  @Override
+  public boolean put(ByteBuffer buffer) {
+    return putHashes(hashes(buffer));
+  }
+
+  @Override
+  public boolean mightContain(ByteBuffer buffer) {
+    return mightContainHashes(hashes(buffer));
+  }
+
+  @Override
+  public boolean remove(ByteBuffer buffer) {
+    return removeHashes(hashes(buffer));
+  }
+
+  @Override
+  public boolean putChars(CharSequence chars) {
+    return putHashes(hashChars(chars));
+  }
+
+  @Override
+  public boolean mightContainChars(CharSequence chars) {
+    return mightContainHashes(hashChars(chars));
+  }
+
+  @Override
+  public boolean removeChars(CharSequence chars) {
+    return removeHashes(hashChars(chars));
+  }
+
+  @Override
+  public boolean put(long item) {
+    return putHashes(hashes(item));
+  }
+
+  @Override
+  public boolean mightContain(long item) {
+    return mightContainHashes(hashes(item));
+  }
+
+  @Override
+  public boolean remove(long item) {
+    return removeHashes(hashes(item));
+  }
+
+  @Override
+  public int putAll(long[] items) {
+    long[][] batch = batchBuffer.get();
+    int added = 0;
+    for (int from = 0; from < items.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, items.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(items[from + i], batch[i]);
+      }
+      added += putBatch(batch, count);
+    }
+    return added;
+  }
+
+  @Override
+  public void mightContainAll(long[] items, boolean[] result) {
+    Utils.checkArgument(result.length >= items.length,
+      "Result array is smaller than number of items");
+    long[][] batch = batchBuffer.get();
+    for (int from = 0; from < items.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, items.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(items[from + i], batch[i]);
+      }
+      mightContainBatch(batch, count, result, from);
+    }
+  }
+
+  @Override
+  public int putAll(byte[][] items) {
+    long[][] batch = batchBuffer.get();
+    int added = 0;
+    for (int from = 0; from < items.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, items.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(items[from + i], batch[i]);
+      }
+      added += putBatch(batch, count);
+    }
+    return added;
+  }
+
+  @Override
+  public int putAll(byte[] data, int[] offsets, int[] lengths) {
+    Utils.checkArgument(offsets.length == lengths.length,
+      "Offsets and lengths must have the same size");
+    long[][] batch = batchBuffer.get();
+    int added = 0;
+    for (int from = 0; from < offsets.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, offsets.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(data, offsets[from + i], lengths[from + i], batch[i]);
+      }
+      added += putBatch(batch, count);
+    }
+    return added;
+  }
+
+  @Override
+  public void mightContainAll(byte[][] items, boolean[] result) {
+    Utils.checkArgument(result.length >= items.length,
+      "Result array is smaller than number of items");
+    long[][] batch = batchBuffer.get();
+    for (int from = 0; from < items.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, items.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(items[from + i], batch[i]);
+      }
+      mightContainBatch(batch, count, result, from);
+    }
+  }
+
+  @Override
+  public void mightContainAll(byte[] data, int[] offsets, int[] lengths, boolean[] result) {
+    Utils.checkArgument(offsets.length == lengths.length,
+      "Offsets and lengths must have the same size");
+    Utils.checkArgument(result.length >= offsets.length,
+      "Result array is smaller than number of items");
+    long[][] batch = batchBuffer.get();
+    for (int from = 0; from < offsets.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, offsets.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(data, offsets[from + i], lengths[from + i], batch[i]);
+      }
+      mightContainBatch(batch, count, result, from);
+    }
+  }
+
+  @Override
+  public int putAll(ByteBuffer[] buffers) {
+    long[][] batch = batchBuffer.get();
+    int added = 0;
+    for (int from = 0; from < buffers.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, buffers.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(buffers[from + i], batch[i]);
+      }
+      added += putBatch(batch, count);
+    }
+    return added;
+  }
+
+  @Override
+  public void mightContainAll(ByteBuffer[] buffers, boolean[] result) {
+    Utils.checkArgument(result.length >= buffers.length,
+      "Result array is smaller than number of items");
+    long[][] batch = batchBuffer.get();
+    for (int from = 0; from < buffers.length; from += BATCH_SIZE) {
+      int count = Math.min(BATCH_SIZE, buffers.length - from);
+      for (int i = 0; i < count; i++) {
+        strategy.hashes(buffers[from + i], batch[i]);
+      }
+      mightContainBatch(batch, count, result, from);
+    }
+  }
+
+  /**
+   * Put batch of items represented by their hashes
+   *
+   * @param hashes hashes of items, only first <code>count</code> are valid
+   * @param count number of items in batch
+   * @return number of items that changed filter
+   */
+  int putBatch(long[][] hashes, int count) {
+    int added = 0;
+    for (int i = 0; i < count; i++) {
+      if (putHashes(hashes[i])) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Check batch of items represented by their hashes.
+   * Filters override it to probe several items at once
+   * instead of one item after another, default implementation
+   * checks items one by one.
+   *
+   * @param hashes hashes of items, only first <code>count</code> are valid
+   * @param count number of items in batch
+   * @param result array for results
+   * @param offset index in <code>result</code> for first item in batch
+   */
+  void mightContainBatch(long[][] hashes, int count, boolean[] result, int offset) {
+    for (int i = 0; i < count; i++) {
+      result[offset + i] = mightContainHashes(hashes[i]);
+    }
+  }
+
+  /**
+   * Header of filter snapshot with all
+   * parameters needed to create the same filter,
+   * see {@link Snapshot}
+   */
+  abstract Snapshot snapshot();
+
+  /**
+   * Put item represented by its hashes
+   *
+   * @param hashes item hashes
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  abstract boolean putHashes(long[] hashes);
+
+  /**
+   * Check item represented by its hashes
+   *
+   * @param hashes item hashes
+   * @return false if item is not inside filter(100% sure),
+   * true - item might be inside filter with
+   * some probability
+   */
+  abstract boolean mightContainHashes(long[] hashes);
+
+  /**
+   * Remove item represented by its hashes
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param hashes item hashes
+   * @return true if item was removed, false otherwise
+   */
+  abstract boolean removeHashes(long[] hashes);
+}
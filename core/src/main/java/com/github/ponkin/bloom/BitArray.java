@@ -1,18 +1,24 @@
 package com.github.ponkin.bloom;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * On heap Bit array implementation
  * Bit array is implemented as
  * array of longs - <code>long[]</code>
+ * Bits are changed with CAS on underlying
+ * words, so implementation is lock free.
  * 
  * @author Alexey Ponkin
  */
 final class BitArray implements BitSet {
 
   private final long[] data;
-  private long bitCount;
+  private final LongAdder bitCount = new LongAdder();
   private static final long ZERO = 0L;
 
   static int numWords(long numBits) {
@@ -52,27 +58,45 @@ final class BitArray implements BitSet {
     for (long word : data) {
       bitCount += Long.bitCount(word);
     }
-    this.bitCount = bitCount;
+    this.bitCount.add(bitCount);
+  }
+
+  /**
+   * Offset of word with index <code>idx</code>
+   * to use in CAS operations
+   */
+  private static long wordOffset(int idx) {
+    return Platform.LONG_ARRAY_OFFSET + ((long) idx << 3);
   }
 
   @Override
   public boolean set(long index) {
-    if (!get(index)) {
-      data[(int) (index >>> 6)] |= (1L << index);
-      bitCount++;
-      return true;
-    }
-    return false;
+    int idx = (int) (index >>> 6);
+    long bit = 1L << index;
+    long word;
+    do {
+      word = data[idx];
+      if ((word & bit) != 0L) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(data, wordOffset(idx), word, word | bit));
+    bitCount.increment();
+    return true;
   }
 
   @Override
   public boolean unset(long index) {
-    if (get(index)) {
-      data[(int) (index >>> 6)] &= ~(1L << index);
-      bitCount--;
-      return true;
-    }
-    return false;
+    int idx = (int) (index >>> 6);
+    long bit = 1L << index;
+    long word;
+    do {
+      word = data[idx];
+      if ((word & bit) == 0L) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(data, wordOffset(idx), word, word & ~bit));
+    bitCount.decrement();
+    return true;
   }
 
   @Override
@@ -80,6 +104,67 @@ final class BitArray implements BitSet {
     return (data[(int) (index >>> 6)] & (1L << index)) != 0;
   }
 
+  @Override
+  public long getWord(long wordIndex) {
+    return data[(int) wordIndex];
+  }
+
+  @Override
+  public boolean setBits(long wordIndex, long mask) {
+    int idx = (int) wordIndex;
+    long word;
+    do {
+      word = data[idx];
+      if ((word | mask) == word) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(data, wordOffset(idx), word, word | mask));
+    bitCount.add(Long.bitCount(word | mask) - Long.bitCount(word));
+    return true;
+  }
+
+  @Override
+  public long replaceBits(long wordIndex, long mask, long value) {
+    int idx = (int) wordIndex;
+    long word;
+    long update;
+    do {
+      word = data[idx];
+      update = (word & ~mask) | (value & mask);
+      if (update == word) {
+        return word;
+      }
+    } while (!Platform.compareAndSwapLong(data, wordOffset(idx), word, update));
+    bitCount.add(Long.bitCount(update) - Long.bitCount(word));
+    return word;
+  }
+
+  @Override
+  public boolean compareAndSetWord(long wordIndex, long expected, long update) {
+    int idx = (int) wordIndex;
+    if (!Platform.compareAndSwapLong(data, wordOffset(idx), expected, update)) {
+      return false;
+    }
+    bitCount.add(Long.bitCount(update) - Long.bitCount(expected));
+    return true;
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    Snapshot.writeWords(data, Platform.LONG_ARRAY_OFFSET, (long) data.length << 3, out);
+  }
+
+  @Override
+  public void readFrom(ReadableByteChannel in) throws IOException {
+    Snapshot.readWords(data, Platform.LONG_ARRAY_OFFSET, (long) data.length << 3, in);
+    long bitCount = 0;
+    for (long word : data) {
+      bitCount += Long.bitCount(word);
+    }
+    this.bitCount.reset();
+    this.bitCount.add(bitCount);
+  }
+
   @Override
   public long bitSize() {
     return (long) data.length * Long.SIZE;
@@ -87,12 +172,13 @@ final class BitArray implements BitSet {
 
   @Override
   public long cardinality() {
-    return bitCount;
+    return bitCount.sum();
   }
 
   @Override
   public void clear() {
     Arrays.fill(data, ZERO);
+    bitCount.reset();
   }
 
   @Override
@@ -104,12 +190,16 @@ final class BitArray implements BitSet {
     if (data.length != other.data.length) {
       throw new IncompatibleMergeException("BitArrays must be of equal length when merging");
     }
-    long bitCount = 0;
+    // OR every word atomically, concurrent set() calls are not lost
     for (int i = 0; i < data.length; i++) {
-      data[i] |= other.data[i];
-      bitCount += Long.bitCount(data[i]);
+      long otherWord = other.data[i];
+      long word;
+      do {
+        word = data[i];
+      } while ((word | otherWord) != word
+          && !Platform.compareAndSwapLong(data, wordOffset(i), word, word | otherWord));
+      bitCount.add(Long.bitCount(word | otherWord) - Long.bitCount(word));
     }
-    this.bitCount = bitCount;
   }
 
   @Override
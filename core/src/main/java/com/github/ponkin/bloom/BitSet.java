@@ -1,12 +1,17 @@
 package com.github.ponkin.bloom;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Common interface for all bit vector
  * implementations. Must be Closeable
  * because some filters can be mapped on
  * files.
+ * Single bit operations {@link #set(long)} and {@link #unset(long)}
+ * must be atomic, so filters can call them without locks.
  *
  * @author Alexey Ponkin
  * @see <a href="https://en.wikipedia.org/wiki/Bit_array">Bit array</a>
@@ -40,6 +45,52 @@ interface BitSet extends Closeable {
    */
   boolean unset(long index);
 
+  /**
+   * Get 64 bit word with index <code>wordIndex</code>.
+   * Bit <code>i</code> of the word is bit
+   * <code>wordIndex * 64 + i</code> of bit array.
+   *
+   * @param wordIndex index of word in underlying bit array
+   * @return word value
+   */
+  long getWord(long wordIndex);
+
+  /**
+   * Atomically set all bits of <code>mask</code>
+   * in word with index <code>wordIndex</code>.
+   *
+   * @param wordIndex index of word in underlying bit array
+   * @param mask bits to set
+   * @return true if at least one bit was changed from 0 to 1
+   * false - otherwise
+   */
+  boolean setBits(long wordIndex, long mask);
+
+  /**
+   * Atomically replace bits of <code>mask</code>
+   * in word with index <code>wordIndex</code>
+   * with the same bits of <code>value</code>,
+   * other bits of word are not changed.
+   *
+   * @param wordIndex index of word in underlying bit array
+   * @param mask bits to replace
+   * @param value new bits
+   * @return word value before replacement
+   */
+  long replaceBits(long wordIndex, long mask, long value);
+
+  /**
+   * Atomically set word with index <code>wordIndex</code>
+   * to <code>update</code> if it still equals to <code>expected</code>.
+   *
+   * @param wordIndex index of word in underlying bit array
+   * @param expected word value read before
+   * @param update new word value
+   * @return true if word was replaced,
+   * false - if word was changed concurrently
+   */
+  boolean compareAndSetWord(long wordIndex, long expected, long update);
+
   /**
    * Return number of bits in underlying array
    * that are set to <code>1</code>
@@ -62,6 +113,23 @@ interface BitSet extends Closeable {
    */
   void clear();
 
+  /**
+   * Write all words of bit array to <code>out</code>
+   * followed by their checksum, see {@link Snapshot}
+   *
+   * @param out channel to write words
+   */
+  void writeTo(WritableByteChannel out) throws IOException;
+
+  /**
+   * Replace all words of bit array with
+   * words read from <code>in</code>, see {@link #writeTo(WritableByteChannel)}
+   *
+   * @param in channel to read words
+   * @throws IOException if words can not be read or checksum does not match
+   */
+  void readFrom(ReadableByteChannel in) throws IOException;
+
   /**
    * Put all elements of <code>array</code>
    * inside this bitset if applicable in other words
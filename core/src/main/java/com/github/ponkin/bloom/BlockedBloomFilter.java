@@ -0,0 +1,345 @@
+package com.github.ponkin.bloom;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Cache line blocked bloom filter as
+ * described by Putze, Sanders and Singler in
+ * Cache-, Hash- and Space-Efficient Bloom Filters:
+ *
+ * http://algo2.iti.kit.edu/documents/cacheefficientbloomfilters-jea.pdf
+ *
+ * Bit vector is split into blocks of 512 bits(one 64 byte cache line).
+ * First hash selects block, the rest k hashes select bits
+ * inside this block, so every put or lookup touches only one cache line
+ * instead of k random lines of classic {@link BloomFilter}.
+ * Blocks are not equally loaded, so blocked filter needs a bit more memory
+ * for the same false positive rate, builder takes it into account.
+ *
+ * @author Alexey Ponkin
+ */
+public class BlockedBloomFilter extends AbstractFilter {
+
+  private static final Logger log = Logger.getLogger(BlockedBloomFilter.class.getName());
+
+  /**
+   * Number of bits in one block(64 byte cache line)
+   */
+  static final int BLOCK_BITS = 512;
+
+  /*
+   * log2(BLOCK_BITS), used to take
+   * upper bits of multiplicative hash
+   */
+  private static final int BLOCK_SHIFT = 9;
+
+  /*
+   * 2^64 / golden ratio, multiplication spreads
+   * all bits of hash into upper bits of result
+   */
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private final BitSet bits;
+
+  private final int numHashFunctions;
+
+  private final long numBlocks;
+
+  private final IndexRange blocks;
+
+  BlockedBloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy) {
+    this(bits, numHashFunctions, strategy, IndexReduction.MODULO);
+  }
+
+  BlockedBloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy, IndexReduction reduction) {
+    // one hash for block and k hashes for bits inside block
+    super(strategy, numHashFunctions + 1);
+    this.bits = bits;
+    this.numHashFunctions = numHashFunctions;
+    this.numBlocks = bits.bitSize() / BLOCK_BITS;
+    this.blocks = new IndexRange(numBlocks, reduction);
+    log.log(Level.FINE,
+      String.format(
+        "Blocked bloom filter: %1$d hash functions, %2$d blocks",
+          numHashFunctions, numBlocks));
+  }
+
+  /**
+   * Bit position inside block,
+   * upper bits of multiplicative hash are used
+   * because lower bits of combined hashes
+   * are poorly distributed.
+   */
+  private static long bitInBlock(long hash) {
+    return (hash * GOLDEN_GAMMA) >>> (Long.SIZE - BLOCK_SHIFT);
+  }
+
+  @Override
+  boolean putHashes(long[] hashes) {
+    long blockStart = blocks.index(hashes[0]) * BLOCK_BITS;
+    boolean bitsChanged = false;
+    for (int i = 1; i <= numHashFunctions; i++) {
+      bitsChanged |= bits.set(blockStart + bitInBlock(hashes[i]));
+    }
+    return bitsChanged;
+  }
+
+  @Override
+  boolean mightContainHashes(long[] hashes) {
+    long blockStart = blocks.index(hashes[0]) * BLOCK_BITS;
+    boolean mightContain = true;
+    for (int i = 1; i <= numHashFunctions && mightContain; i++) {
+      if (!bits.get(blockStart + bitInBlock(hashes[i]))) {
+        mightContain = false;
+      }
+    }
+    return mightContain;
+  }
+
+  /**
+   * First pass reads first probe of every item,
+   * so block of every item is in cache
+   * when second pass checks the rest.
+   */
+  @Override
+  void mightContainBatch(long[][] hashes, int count, boolean[] result, int offset) {
+    for (int j = 0; j < count; j++) {
+      long blockStart = blocks.index(hashes[j][0]) * BLOCK_BITS;
+      result[offset + j] = bits.get(blockStart + bitInBlock(hashes[j][1]));
+    }
+    for (int j = 0; j < count; j++) {
+      if (result[offset + j]) {
+        result[offset + j] = mightContainHashes(hashes[j]);
+      }
+    }
+  }
+
+  @Override
+  boolean removeHashes(long[] hashes) {
+    throw new UnsupportedOperationException("Blocked bloom filter does not support removal");
+  }
+
+  @Override
+  public double expectedFpp() {
+    return Math.pow((double) bits.cardinality() / bits.bitSize(), numHashFunctions);
+  }
+
+  public int getNumOfHashFunctions(){
+    return this.numHashFunctions;
+  }
+
+  public long bitSize() {
+    return bits.bitSize();
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+  }
+
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.BLOCKED, strategy, blocks.reduction(), 0,
+        numHashFunctions, 0, 0, bits.bitSize());
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bits.writeTo(out);
+  }
+
+  static BlockedBloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    return new BlockedBloomFilter(bits, header.numHashFunctions, header.hasher, header.reduction);
+  }
+
+  @Override
+  public void close(){
+    try{
+      bits.close();
+    } catch (Exception err) {
+      log.log(Level.SEVERE, "Can not close BlockedBloomFilter", err);
+    }
+  }
+
+  @Override
+  public Filter mergeInPlace(Filter other) throws Exception {
+    if (other == null) {
+      throw new IncompatibleMergeException("Cannot merge null bloom filter");
+    }
+
+    if (!(other instanceof BlockedBloomFilter)) {
+      throw new IncompatibleMergeException(
+          String.format("Cannot merge bloom filter of class %1$s", other.getClass().getName()));
+    }
+
+    BlockedBloomFilter that = (BlockedBloomFilter) other;
+
+    if (this.bitSize() != that.bitSize()) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different bit size");
+    }
+
+    if (!this.blocks.equals(that.blocks)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
+    }
+
+    if (this.numHashFunctions != that.numHashFunctions) {
+      throw new IncompatibleMergeException(
+          "Cannot merge bloom filters with different number of hash functions");
+    }
+
+    this.bits.putAll(that.bits);
+    return this;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null || !(other instanceof BlockedBloomFilter)) {
+      return false;
+    }
+    BlockedBloomFilter that = (BlockedBloomFilter) other;
+    return this.numHashFunctions == that.numHashFunctions
+      && this.blocks.equals(that.blocks) && this.bits.equals(that.bits);
+  }
+
+  @Override
+  public int hashCode() {
+    return bits.hashCode() * 31 + numHashFunctions;
+  }
+
+  /**
+   * Expected false positive rate of blocked bloom filter.
+   * Number of items in one block is Poisson distributed
+   * with mean n/numBlocks, so fpp is weighted sum
+   * of fpp of small classic bloom filters with 512 bits.
+   *
+   * @param n number of items
+   * @param numBlocks number of blocks
+   * @param k number of hash functions
+   * @return false positive rate
+   */
+  static double blockedFpp(long n, long numBlocks, int k) {
+    double lambda = (double) n / numBlocks;
+    if (lambda > 700D) {
+      // exp(-lambda) underflows, filter is overloaded anyway
+      return 1D;
+    }
+    double oneBitZero = 1D - 1D / BLOCK_BITS;
+    long upper = (long) (lambda + 10 * Math.sqrt(lambda) + 10);
+    double poisson = Math.exp(-lambda); // P(0 items in block)
+    double fpp = 0D;
+    for (long i = 0; i <= upper; i++) {
+      if (i > 0) {
+        poisson *= lambda / i;
+      }
+      fpp += poisson * Math.pow(1D - Math.pow(oneBitZero, (double) k * i), k);
+    }
+    return fpp;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for BlockedBloomFilter
+   */
+  public static class Builder implements FilterBuilder<BlockedBloomFilter> {
+    private double fpp = Utils.DEFAULT_FPP;
+    private long capacity = 0L;
+    private File file = null;
+    private boolean useOffHeapMemory = false;
+    private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+
+    /*
+     * Maximum number of steps to
+     * compensate blocking penalty
+     */
+    private static final int MAX_GROW_STEPS = 100;
+
+    private Builder() {
+      super();
+    }
+
+    @Override
+    public Builder withFalsePositiveRate(double fpp) {
+      Utils.checkArgument(fpp > 0.0 && fpp < 1.0,
+         String.format("False positive rate(%s) must be in range (0, 1)", fpp));
+      this.fpp = fpp;
+      return this;
+    }
+
+    @Override
+    public Builder withExpectedNumberOfItems(long expected) {
+      Utils.checkArgument(expected > 0,
+         String.format("Expected number of insertions (%s) must be > 0", expected ));
+      this.capacity = expected;
+      return this;
+    }
+
+    @Override
+    public Builder useOffHeapMemory(boolean useOffHeapMemory) {
+      this.useOffHeapMemory = useOffHeapMemory;
+      return this;
+    }
+
+    @Override
+    public Builder withFileMapped(File file) {
+      this.file = file;
+      return this;
+    }
+
+    @Override
+    public FilterBuilder withHasher(HashFunction hasher) {
+      this.hasher = hasher;
+      return this;
+    }
+
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
+    @Override
+    public BlockedBloomFilter build() throws IOException {
+      if(!useOffHeapMemory) {
+        Utils.checkArgument(file == null,
+           String.format("Can not map file(%s) to on-heap bit vector", file));
+      }
+
+      long numBits = Utils.optimalNumOfBits(capacity, fpp);
+      int numHashFunctions = Utils.optimalNumOfHashFunctions(capacity, numBits);
+      long numBlocks = Math.max(1L, (numBits + BLOCK_BITS - 1) / BLOCK_BITS);
+      // compensate blocking penalty - grow filter by 5% until target fpp is reached
+      for (int step = 0; step < MAX_GROW_STEPS && blockedFpp(capacity, numBlocks, numHashFunctions) > fpp; step++) {
+        numBlocks += Math.max(1L, numBlocks / 20);
+      }
+      numBlocks = reduction.size(numBlocks);
+      numBits = numBlocks * BLOCK_BITS;
+      log.log(Level.FINE, String.format("Optimal num bits are %d", numBits));
+
+      BitSet bitset = null;
+      if(file != null) {
+        bitset = new OffHeapBitArray(file, numBits);
+      } else {
+        if(useOffHeapMemory) {
+          bitset = new OffHeapBitArray(numBits);
+        } else {
+          bitset = new BitArray(numBits);
+        }
+      }
+      BlockedBloomFilter filter = new BlockedBloomFilter(bitset, numHashFunctions, hasher, reduction);
+      return Snapshot.describe(filter, bitset);
+    }
+  }
+}
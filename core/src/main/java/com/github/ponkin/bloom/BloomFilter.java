@@ -1,23 +1,22 @@
 package com.github.ponkin.bloom;
 
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Lock;
-
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Classic bloom filter implementation
  * To calculate hash by default Murmur3 hash is used (128 bit) but this can
- * be changed in builder. Implementation is thread safe and fast.
+ * be changed in builder. Implementation is thread safe and lock free:
+ * bits are set with CAS on words of underlying bit array.
  *
  * @author Alexey Ponkin
  * @see <a href="http://llimllib.github.io/bloomfilter-tutorial/">Tutorial</a>
  */
-public class BloomFilter implements Filter {
+public class BloomFilter extends AbstractFilter {
 
   private static final Logger log = Logger.getLogger(BloomFilter.class.getName());
 
@@ -28,34 +27,21 @@ public class BloomFilter implements Filter {
    */
   private final BitSet bits;
 
-  /**
-   * Mask for fast division by 32
-   * since we have default parallelism = 32
-   * https://graphics.stanford.edu/~seander/bithacks.html#ModulusDivision
-   */
-  private static final long FAST_MOD_32 = 0x1FL;
-
-  private final HashFunction strategy;
-
-  /**
-   * Number of memory segments
-   * Clients can put items in each segment concurrently
-   */
-  private static final int DEFAULT_CONCURRENCY_LEVEL = 32; // parallelism
-
-  private final Lock[] segments = new Lock[DEFAULT_CONCURRENCY_LEVEL];
+  private final IndexRange range;
 
   BloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy) {
+    this(bits, numHashFunctions, strategy, IndexReduction.MODULO);
+  }
+
+  BloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy, IndexReduction reduction) {
+    super(strategy, numHashFunctions);
     log.log(Level.FINE,
       String.format(
         "Bloom filter: %1$d hash functions, %2$d bits",
           numHashFunctions, bits.bitSize()));
     this.bits = bits;
     this.numHashFunctions = numHashFunctions;
-    this.strategy = strategy;
-    for(int i=0;i<DEFAULT_CONCURRENCY_LEVEL;i++) {
-      segments[i] = new ReentrantLock();
-    }
+    this.range = new IndexRange(bits.bitSize(), reduction);
   }
 
   @Override
@@ -67,7 +53,8 @@ public class BloomFilter implements Filter {
       return false;
     }
     BloomFilter that = (BloomFilter) other;
-    return this.numHashFunctions == that.numHashFunctions && this.bits.equals(that.bits);
+    return this.numHashFunctions == that.numHashFunctions
+      && this.range.equals(that.range) && this.bits.equals(that.bits);
   }
 
   @Override
@@ -89,40 +76,25 @@ public class BloomFilter implements Filter {
   }
 
   @Override
-  public boolean put(byte[] item) {
-    long bitSize = bits.bitSize();
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(item, hashes);
-
+  boolean putHashes(long[] hashes) {
     boolean bitsChanged = false;
-    for (int i = 0; i < hashes.length; i++) {
-      // x mod n = x & (n-1) if n equals power of 2
+    for (int i = 0; i < numHashFunctions; i++) {
       // hashes[i] is always positive
-      Lock currentLock = segments[(int)(hashes[i] & FAST_MOD_32)];
-      currentLock.lock();
-      try { // just in case something goes wrong
-        bitsChanged |= bits.set(hashes[i] % bitSize);
-      } finally {
-        currentLock.unlock();
-      }
+      bitsChanged |= bits.set(range.index(hashes[i]));
     }
     return bitsChanged;
   }
 
   @Override
-  public boolean remove(byte[] item) {
+  boolean removeHashes(long[] hashes) {
     throw new UnsupportedOperationException("Bloom filter does not support removal");
   }
 
   @Override
-  public boolean mightContain(byte[] item) {
-    long bitSize = bits.bitSize();
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(item, hashes);
-
+  boolean mightContainHashes(long[] hashes) {
     boolean mightContain = true;
-    for(int i = 0; i < hashes.length && mightContain; i++) {
-      if (!bits.get(hashes[i] % bitSize)) {
+    for(int i = 0; i < numHashFunctions && mightContain; i++) {
+      if (!bits.get(range.index(hashes[i]))) {
         mightContain = false;
       }
     }
@@ -130,22 +102,48 @@ public class BloomFilter implements Filter {
   }
 
   /**
-   * Fill underlying bit vector with all 0
+   * Probe i-th bit of every item still alive
+   * before (i+1)-th bit of any, so loads for different
+   * items do not wait for each other.
    */
   @Override
-  public void clear() {
-    for (Lock seg : segments) {
-      seg.lock();
+  void mightContainBatch(long[][] hashes, int count, boolean[] result, int offset) {
+    for (int j = 0; j < count; j++) {
+      result[offset + j] = true;
     }
-    try { // just in case something goes wrong
-      bits.clear();
-    } finally {
-      for (Lock seg : segments) {
-        seg.unlock();
+    for (int i = 0; i < numHashFunctions; i++) {
+      for (int j = 0; j < count; j++) {
+        if (result[offset + j] && !bits.get(range.index(hashes[j][i]))) {
+          result[offset + j] = false;
+        }
       }
     }
   }
+
+  /**
+   * Fill underlying bit vector with all 0
+   */
+  @Override
+  public void clear() {
+    bits.clear();
+  }
   
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.BLOOM, strategy, range.reduction(), 0,
+        numHashFunctions, 0, 0, bits.bitSize());
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bits.writeTo(out);
+  }
+
+  static BloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    return new BloomFilter(bits, header.numHashFunctions, header.hasher, header.reduction);
+  }
+
   @Override
   public void close(){
     try{
@@ -177,16 +175,11 @@ public class BloomFilter implements Filter {
           "Cannot merge bloom filters with different number of hash functions");
     }
 
-    for (Lock seg : segments) {
-      seg.lock();
-    }
-    try { // just in case something goes wrong
-      this.bits.putAll(that.bits);
-    } finally {
-      for (Lock seg : segments) {
-        seg.unlock();
-      }
+    if (!this.range.equals(that.range)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
     }
+
+    this.bits.putAll(that.bits);
     return this;
   }
 
@@ -203,6 +196,7 @@ public class BloomFilter implements Filter {
     private File file = null;
     private boolean useOffHeapMemory = false;
     private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
 
     private Builder() {
       super();
@@ -242,6 +236,12 @@ public class BloomFilter implements Filter {
       return this;
     }
 
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
     @Override
     public BloomFilter build() throws IOException {
       if(!useOffHeapMemory) {
@@ -250,8 +250,10 @@ public class BloomFilter implements Filter {
       }
 
       long numBits = Utils.optimalNumOfBits(capacity, fpp);
-      log.log(Level.FINE, String.format("Optimal num bits are %d", numBits));
       int numHashFunctions = Utils.optimalNumOfHashFunctions(capacity, numBits);
+      // at least one word, bit vector is allocated by words
+      numBits = reduction.size(Math.max(Long.SIZE, numBits));
+      log.log(Level.FINE, String.format("Optimal num bits are %d", numBits));
 
       BitSet bitset = null;
       if(file != null) {
@@ -263,7 +265,8 @@ public class BloomFilter implements Filter {
           bitset = new BitArray(numBits);
         }
       }
-      return new BloomFilter(bitset, numHashFunctions, hasher);
+      BloomFilter filter = new BloomFilter(bitset, numHashFunctions, hasher, reduction);
+      return Snapshot.describe(filter, bitset);
     }
   }
 }
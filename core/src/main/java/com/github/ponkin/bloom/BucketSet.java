@@ -1,6 +1,8 @@
 package com.github.ponkin.bloom;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,27 +23,35 @@ class BucketSet implements Closeable {
 
   private static final Logger log = Logger.getLogger(BucketSet.class.getName());
 
-  /*
-   * masks for tags - masks[i]
-   * where MASKS[i] - long with all zeros except 1 in i position
-   */
-  private static final long[] MASKS = {
-    0L, 1L, 1L << 1, 1L << 2, 1L << 3, 1L << 4, 1L << 5, 1L << 6, 1L << 7, 1L << 8,
-    1L << 9,  1L << 10, 1L << 11, 1L << 12, 1L << 13, 1L << 14, 1L << 15, 1L << 16,
-    1L << 17, 1L << 18, 1L << 19, 1L << 20, 1L << 21, 1L << 22, 1L << 23, 1L << 24,
-    1L << 25, 1L << 26, 1L << 27, 1L << 28, 1L << 29, 1L << 30, 1L << 31, 1L << 32,
-    1L << 33, 1L << 34, 1L << 35, 1L << 36, 1L << 37, 1L << 38, 1L << 39, 1L << 40,
-    1L << 41, 1L << 42, 1L << 43, 1L << 44, 1L << 45, 1L << 46, 1L << 47, 1L << 48,
-    1L << 49, 1L << 50, 1L << 51, 1L << 52, 1L << 53, 1L << 54, 1L << 55, 1L << 56,
-    1L << 57, 1L << 58, 1L << 59, 1L << 60, 1L << 61, 1L << 62, 1L << 63, 1L << 64,
-  };
-
   private final int tagsPerBucket;
   private final int bytesPerBucket;
   private final long numBuckets;
   private final int bitsPerTag;
   private final BitSet bitset;
 
+  /*
+   * Tags are stored with most significant
+   * bit first, so stored bits of tag are
+   * its bit reversed value
+   */
+  private final int reverseShift;
+
+  /*
+   * Number of tags compared at once,
+   * as many as fit in 64 bit word
+   */
+  private final int tagsPerChunk;
+
+  /*
+   * Lowest bit of every tag in chunk
+   */
+  private final long lanesLow;
+
+  /*
+   * Highest bit of every tag in chunk
+   */
+  private final long lanesHigh;
+
   /**
    * Constructor will not check that underlying
    * bitset length is enough to keep that many items
@@ -51,11 +61,21 @@ class BucketSet implements Closeable {
    * @param numBuckets number of buckets
    */
   public BucketSet(int bitsPerTag, int tagsPerBucket, long numBuckets, BitSet bitset) {
+    Utils.checkArgument(bitsPerTag > 0 && bitsPerTag <= Long.SIZE,
+       String.format("Bits per tag(%d) must be in range [1, 64]", bitsPerTag));
     this.bitset = bitset;
     this.bitsPerTag = bitsPerTag;
     this.tagsPerBucket = tagsPerBucket;
     bytesPerBucket = (bitsPerTag * tagsPerBucket + 7) >> 3;
     this.numBuckets = numBuckets;
+    this.reverseShift = Long.SIZE - bitsPerTag;
+    this.tagsPerChunk = Math.min(tagsPerBucket, Long.SIZE / bitsPerTag);
+    long low = 0L;
+    for (int i = 0; i < tagsPerChunk; i++) {
+      low |= 1L << (i * bitsPerTag);
+    }
+    this.lanesLow = low;
+    this.lanesHigh = low << (bitsPerTag - 1);
     log.log(Level.FINE,
       String.format(
         "Bucket set: %1$d buckets, %2$d tags per bucket, %3$d bits per tag, %4$d total bits",
@@ -98,6 +118,44 @@ class BucketSet implements Closeable {
     return bucketIdx*tagsPerBucket*bitsPerTag + posInBucket*bitsPerTag;
   }
 
+  /**
+   * Bit reversed value of <code>bitsPerTag</code> bits,
+   * converts tag to stored bits and back
+   */
+  private long reverse(long bits) {
+    return Long.reverse(bits) >>> reverseShift;
+  }
+
+  /**
+   * Read <code>length</code> bits starting
+   * from bit <code>from</code>, at most two words are read.
+   * Bit <code>from</code> is the lowest bit of result.
+   */
+  long readBits(long from, int length) {
+    long wordIdx = from >>> 6;
+    int shift = (int) (from & 63);
+    long bits = bitset.getWord(wordIdx) >>> shift;
+    if (shift + length > Long.SIZE) {
+      bits |= bitset.getWord(wordIdx + 1) << (Long.SIZE - shift);
+    }
+    return bits & Utils.MASKS[length];
+  }
+
+  /**
+   * Write <code>length</code> lowest bits of <code>bits</code>
+   * starting from bit <code>from</code>, at most two words are written.
+   */
+  void writeBits(long from, int length, long bits) {
+    long wordIdx = from >>> 6;
+    int shift = (int) (from & 63);
+    long mask = Utils.MASKS[length];
+    bitset.replaceBits(wordIdx, mask << shift, bits << shift);
+    if (shift + length > Long.SIZE) {
+      int written = Long.SIZE - shift;
+      bitset.replaceBits(wordIdx + 1, mask >>> written, bits >>> written);
+    }
+  }
+
   /**
    * Overwrite tag with zeros inside underlying bit vector
    * which is basically a delete operation.
@@ -118,16 +176,7 @@ class BucketSet implements Closeable {
    * @param tag value
    */
   public void writeTag(long bucketIdx, int posInBucket, long tag) {
-    long tagIdx = startPos(bucketIdx, posInBucket);
-    long mask = MASKS[bitsPerTag];
-    for(long i=tagIdx; i<tagIdx+bitsPerTag; i++) {
-      if((mask & tag) == 0L) {
-        bitset.unset(i);
-      } else {
-        bitset.set(i);
-      }
-      mask = mask >> 1;
-    }
+    writeBits(startPos(bucketIdx, posInBucket), bitsPerTag, reverse(tag));
   }
 
   /**
@@ -137,17 +186,8 @@ class BucketSet implements Closeable {
    * @param posInBucket concrete tag position in bucket
    * @return tag in given position inside bucket
    */
-  public final long readTag(long bucketIdx, int posInBucket) {
-    long tagIdx = startPos(bucketIdx, posInBucket);
-    long tag = 0L;
-    long mask = MASKS[bitsPerTag];
-    for(long i=tagIdx; i<tagIdx+bitsPerTag; i++) {
-      if(bitset.get(i)) {
-        tag |= mask;
-      }
-      mask = mask >> 1;
-    }
-    return tag;
+  public long readTag(long bucketIdx, int posInBucket) {
+    return reverse(readBits(startPos(bucketIdx, posInBucket), bitsPerTag));
   }
 
   /**
@@ -163,16 +203,28 @@ class BucketSet implements Closeable {
 
   /**
    * Check whether given tag exists
-   * in the bucket
+   * in the bucket. Tags are compared word at a time:
+   * tag is repeated in every lane of chunk, so equal
+   * tags become zero lanes after xor, lowest zero
+   * lane is found with borrow trick
+   * https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
    *
    * @param tag - tag to check
    * @return index of given tag or -1 if none
    */
   public int checkTag(long bucketIdx, long tag) {
-    for(int pos=0; pos<tagsPerBucket; pos++) {
-      if(tag == readTag(bucketIdx, pos)) {
-        return pos;
+    long pattern = reverse(tag) * lanesLow;
+    long from = startPos(bucketIdx, 0);
+    for (int pos = 0; pos < tagsPerBucket; pos += tagsPerChunk) {
+      int tags = Math.min(tagsPerChunk, tagsPerBucket - pos);
+      int length = tags * bitsPerTag;
+      long diff = readBits(from, length) ^ pattern;
+      // borrow only moves up, lowest marked lane is exact
+      long zeroLanes = (diff - lanesLow) & ~diff & lanesHigh & Utils.MASKS[length];
+      if (zeroLanes != 0L) {
+        return pos + Long.numberOfTrailingZeros(zeroLanes) / bitsPerTag;
       }
+      from += length;
     }
     return -1;
   }
@@ -184,6 +236,13 @@ class BucketSet implements Closeable {
   public void putAll(BucketSet other) throws Exception {
     this.bitset.putAll(other.bitset);
   }
+
+  /**
+   * @see BitSet#writeTo(WritableByteChannel)
+   */
+  void writeTo(WritableByteChannel out) throws IOException {
+    bitset.writeTo(out);
+  }
   
   @Override
   public void close() {
@@ -0,0 +1,415 @@
+package com.github.ponkin.bloom;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import static java.lang.Math.pow;
+
+/**
+ * Counting bloom filter implementation as described by
+ * Fan, Cao, Almeida and Broder in Summary Cache:
+ * A Scalable Wide-Area Web Cache Sharing Protocol:
+ *
+ *    http://pages.cs.wisc.edu/~jussara/papers/00ton.pdf
+ *
+ * Every bit of classic bloom filter is replaced with 4 or 8 bit
+ * counter, so items can be removed. Counters saturate: counter
+ * that reached its maximum is never changed by put or remove,
+ * otherwise overflow would lead to false negatives.
+ * Counters are kept in {@link BucketSet} with one counter per bucket
+ * and never cross word boundary, so lookups read them without locks.
+ *
+ * @author Alexey Ponkin
+ */
+public class CountingBloomFilter extends AbstractFilter {
+
+  private static final Logger log = Logger.getLogger(CountingBloomFilter.class.getName());
+
+  /*
+   * Number of memory segments
+   * Clients can update counters in each segment concurrently
+   */
+  private static final int DEFAULT_CONCURRENCY_LEVEL = 32; // parallelism
+
+  private final ReentrantReadWriteLock[] segments = new ReentrantReadWriteLock[DEFAULT_CONCURRENCY_LEVEL];
+
+  private final BucketSet counters;
+
+  /**
+   * Underlying bit array of counters
+   */
+  private final BitSet bits;
+
+  private final int numHashFunctions;
+
+  private final long numCounters;
+
+  private final int bitsPerCounter;
+
+  private final long maxCount;
+
+  /*
+   * Lowest and highest bit of every counter in word
+   */
+  private final long lanesLow;
+  private final long lanesHigh;
+
+  /*
+   * Number of counters above zero
+   */
+  private final LongAdder nonZero = new LongAdder();
+
+  private final IndexRange range;
+
+  CountingBloomFilter(BitSet bits, long numCounters, int bitsPerCounter, int numHashFunctions, HashFunction strategy) {
+    this(bits, numCounters, bitsPerCounter, numHashFunctions, strategy, IndexReduction.MODULO);
+  }
+
+  CountingBloomFilter(BitSet bits, long numCounters, int bitsPerCounter, int numHashFunctions,
+                      HashFunction strategy, IndexReduction reduction) {
+    super(strategy, numHashFunctions);
+    Utils.checkArgument(bitsPerCounter == 4 || bitsPerCounter == 8,
+       String.format("Counter must have 4 or 8 bits, but got %d", bitsPerCounter));
+    // one counter per bucket
+    this.counters = new BucketSet(bitsPerCounter, 1, numCounters, bits);
+    this.bits = bits;
+    this.numCounters = numCounters;
+    this.bitsPerCounter = bitsPerCounter;
+    this.numHashFunctions = numHashFunctions;
+    this.maxCount = Utils.MASKS[bitsPerCounter];
+    this.lanesLow = Long.divideUnsigned(-1L, maxCount);
+    this.lanesHigh = lanesLow << (bitsPerCounter - 1);
+    this.range = new IndexRange(numCounters, reduction);
+    for(int i=0;i<DEFAULT_CONCURRENCY_LEVEL;i++) {
+      segments[i] = new ReentrantReadWriteLock();
+    }
+    // mapped file may already have counters
+    nonZero.add(countNonZero());
+    log.log(
+        Level.FINE,
+        String.format(
+          "Counting Bloom filter: %1$d hash functions, %2$d counters, %3$d bits per counter",
+          numHashFunctions,
+          numCounters,
+          bitsPerCounter)
+        );
+  }
+
+  private ReentrantReadWriteLock.WriteLock lockFor(long idx) {
+    return segments[(int)(idx & (DEFAULT_CONCURRENCY_LEVEL - 1))].writeLock();
+  }
+
+  @Override
+  boolean putHashes(long[] hashes) {
+    boolean countersChanged = false;
+    for (int i = 0; i < numHashFunctions; i++) {
+      long idx = range.index(hashes[i]);
+      ReentrantReadWriteLock.WriteLock currentLock = lockFor(idx);
+      currentLock.lock();
+      try {
+        long count = counters.readTag(idx, 0);
+        if (count < maxCount) { // saturated counter stays
+          counters.writeTag(idx, 0, count + 1);
+          if (count == 0L) {
+            nonZero.increment();
+          }
+          countersChanged = true;
+        }
+      } finally {
+        currentLock.unlock();
+      }
+    }
+    return countersChanged;
+  }
+
+  @Override
+  boolean mightContainHashes(long[] hashes) {
+    boolean mightContain = true;
+    for(int i = 0; i < numHashFunctions && mightContain; i++) {
+      // counter is inside one word, read is atomic
+      if (counters.readTag(range.index(hashes[i]), 0) == 0L) {
+        mightContain = false;
+      }
+    }
+    return mightContain;
+  }
+
+  /**
+   * Decrement counters of item if all of them
+   * are above zero. Removing item which was not
+   * put in filter can lead to false negatives.
+   */
+  @Override
+  boolean removeHashes(long[] hashes) {
+    if (!mightContainHashes(hashes)) {
+      return false;
+    }
+    for (int i = 0; i < numHashFunctions; i++) {
+      long idx = range.index(hashes[i]);
+      ReentrantReadWriteLock.WriteLock currentLock = lockFor(idx);
+      currentLock.lock();
+      try {
+        long count = counters.readTag(idx, 0);
+        if (count != 0L && count < maxCount) { // saturated counter stays
+          counters.writeTag(idx, 0, count - 1);
+          if (count == 1L) {
+            nonZero.decrement();
+          }
+        }
+      } finally {
+        currentLock.unlock();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public double expectedFpp() {
+    return pow((double) nonZero.sum() / numCounters, numHashFunctions);
+  }
+
+  public int getNumOfHashFunctions(){
+    return this.numHashFunctions;
+  }
+
+  public int getBitsPerCounter() {
+    return this.bitsPerCounter;
+  }
+
+  @Override
+  public void clear() {
+    lockAll();
+    try {
+      counters.clear();
+      nonZero.reset();
+    } finally {
+      unlockAll();
+    }
+  }
+
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.COUNTING, strategy, range.reduction(), 0,
+        numHashFunctions, bitsPerCounter, 1, bits.bitSize(), numCounters);
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bits.writeTo(out);
+  }
+
+  static CountingBloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    long numCounters = header.param(0);
+    return new CountingBloomFilter(bits, numCounters, header.bitsPerBucket,
+        header.numHashFunctions, header.hasher, header.reduction);
+  }
+
+  @Override
+  public void close() {
+    log.log(Level.FINE, "Closing CountingBloomFilter");
+    counters.close();
+  }
+
+  /**
+   * Merge is addition of counters,
+   * sum saturates at maximum counter value
+   */
+  @Override
+  public Filter mergeInPlace(Filter other) throws Exception {
+    if (other == null) {
+      throw new IncompatibleMergeException("Cannot merge null counting bloom filter");
+    }
+
+    if (!(other instanceof CountingBloomFilter)) {
+      throw new IncompatibleMergeException(
+          String.format("Cannot merge bloom filter of class %1$s", other.getClass().getName()));
+    }
+
+    CountingBloomFilter that = (CountingBloomFilter) other;
+
+    if (this.numCounters != that.numCounters) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different number of counters");
+    }
+
+    if (this.bitsPerCounter != that.bitsPerCounter) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different counter size");
+    }
+
+    if (this.numHashFunctions != that.numHashFunctions) {
+      throw new IncompatibleMergeException(
+          "Cannot merge bloom filters with different number of hash functions");
+    }
+
+    if (!this.range.equals(that.range)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
+    }
+
+    lockAll();
+    try {
+      long numWords = (bits.bitSize() + Long.SIZE - 1) >>> 6;
+      for (long i = 0; i < numWords; i++) {
+        // counters are stored most significant bit first,
+        // reversed word has plain counters in reversed order
+        long sum = saturatingAdd(Long.reverse(bits.getWord(i)), Long.reverse(that.bits.getWord(i)));
+        bits.replaceBits(i, -1L, Long.reverse(sum));
+      }
+      nonZero.reset();
+      nonZero.add(countNonZero());
+    } finally {
+      unlockAll();
+    }
+    return this;
+  }
+
+  /**
+   * Add every counter of <code>a</code> to the same
+   * counter of <code>b</code>, sum saturates at maximum
+   * counter value.
+   * Lanes are added without highest bit, so carry never
+   * crosses counter boundary, then highest bit and
+   * carry out of counter are restored.
+   */
+  long saturatingAdd(long a, long b) {
+    long sum = ((a & ~lanesHigh) + (b & ~lanesHigh)) ^ ((a ^ b) & lanesHigh);
+    long carry = ((a & b) | ((a | b) & ~sum)) & lanesHigh;
+    // fill overflowed counters with ones
+    long overflow = (carry >>> (bitsPerCounter - 1)) * maxCount;
+    return sum | overflow;
+  }
+
+  /**
+   * Number of counters above zero in <code>word</code>,
+   * lowest bits of counter carry into highest one
+   * if any of them is set
+   */
+  int nonZeroCounters(long word) {
+    return Long.bitCount((((word & ~lanesHigh) + ~lanesHigh) | word) & lanesHigh);
+  }
+
+  private long countNonZero() {
+    long total = 0L;
+    long numWords = (bits.bitSize() + Long.SIZE - 1) >>> 6;
+    for (long i = 0; i < numWords; i++) {
+      total += nonZeroCounters(bits.getWord(i));
+    }
+    return total;
+  }
+
+  private void lockAll() {
+    for (ReentrantReadWriteLock seg : segments) {
+      seg.writeLock().lock();
+    }
+  }
+
+  private void unlockAll() {
+    for (ReentrantReadWriteLock seg : segments) {
+      seg.writeLock().unlock();
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for CountingBloomFilter
+   */
+  public static class Builder implements FilterBuilder<CountingBloomFilter> {
+    private double fpp = Utils.DEFAULT_FPP;
+    private long capacity = 0L;
+    private File file = null;
+    private boolean useOffHeapMemory = false;
+    private int bitsPerCounter = 4;
+    private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+
+    private Builder() {
+      super();
+    }
+
+    @Override
+    public Builder withFalsePositiveRate(double fpp) {
+      Utils.checkArgument(fpp > 0.0 && fpp < 1.0,
+         String.format("False positive rate(%s) must be in range (0, 1)", fpp));
+      this.fpp = fpp;
+      return this;
+    }
+
+    @Override
+    public Builder withExpectedNumberOfItems(long expected) {
+      Utils.checkArgument(expected > 0,
+         String.format("Expected number of insertions (%s) must be > 0", expected));
+      this.capacity = expected;
+      return this;
+    }
+
+    @Override
+    public Builder useOffHeapMemory(boolean useOffHeapMemory) {
+      this.useOffHeapMemory = useOffHeapMemory;
+      return this;
+    }
+
+    @Override
+    public Builder withFileMapped(File file) {
+      this.file = file;
+      return this;
+    }
+
+    @Override
+    public FilterBuilder withHasher(HashFunction hasher) {
+      this.hasher = hasher;
+      return this;
+    }
+
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
+    /**
+     * 4 bit counters by default, 8 bit counters
+     * saturate only after 255 items share one counter
+     */
+    public Builder withBitsPerCounter(int bitsPerCounter) {
+      Utils.checkArgument(bitsPerCounter == 4 || bitsPerCounter == 8,
+         String.format("Number of bits(%d) for each counter must be 4 or 8", bitsPerCounter));
+      this.bitsPerCounter = bitsPerCounter;
+      return this;
+    }
+
+    @Override
+    public CountingBloomFilter build() throws IOException {
+      if(!useOffHeapMemory) {
+        Utils.checkArgument(file == null,
+           String.format("Can not map file(%s) to on-heap bit vector", file));
+      }
+
+      long numCounters = Utils.optimalNumOfBits(capacity, fpp);
+      int numHashFunctions = Utils.optimalNumOfHashFunctions(capacity, numCounters);
+      // at least one word of counters
+      numCounters = reduction.size(Math.max(Long.SIZE / bitsPerCounter, numCounters));
+      log.log(Level.FINE, String.format("Optimal num of counters are %d", numCounters));
+
+      BitSet bitset = null;
+      if(file != null) {
+        bitset = new OffHeapBitArray(file, numCounters * bitsPerCounter);
+      } else {
+        if(useOffHeapMemory) {
+          bitset = new OffHeapBitArray(numCounters * bitsPerCounter);
+        } else {
+          bitset = new BitArray(numCounters * bitsPerCounter);
+        }
+      }
+      CountingBloomFilter filter =
+        new CountingBloomFilter(bitset, numCounters, bitsPerCounter, numHashFunctions, hasher, reduction);
+      return Snapshot.describe(filter, bitset);
+    }
+  }
+}
@@ -2,11 +2,11 @@ package com.github.ponkin.bloom;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.concurrent.atomic.AtomicLong;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 import static java.lang.Math.ceil;
 import static java.math.RoundingMode.CEILING;
@@ -21,15 +21,28 @@ import static java.lang.Math.pow;
  * Some parts were taken from 
  * https://github.com/bdupras/guava-probably
  *
+ * Buckets are guarded by striped locks. Lookups read
+ * both buckets optimistically and take locks only if
+ * a writer changed them meanwhile. When both buckets are full,
+ * insert searches breadth first for the shortest chain of moves
+ * to free slot, as in libcuckoo:
+ * https://www.cs.princeton.edu/~mfreed/docs/cuckoo-eurosys14.pdf
+ *
  * @author Alexey Ponkin
  */
-public class CuckooFilter implements Filter {
+public class CuckooFilter extends AbstractFilter {
+
+  /**
+   * Maximum number of buckets visited
+   * while searching for path to free slot
+   */
+  private static final int MAX_BFS_NODES = 512;
 
   /**
-   * Maximum number of tries
-   * to find alternative position for tag
+   * Maximum number of insert attempts,
+   * concurrent writers may take slot freed for us
    */
-  private static final int MAX_KICK_NUM = 500;
+  private static final int MAX_INSERT_ATTEMPTS = 16;
 
   private static final int MAX_ENTRIES_PER_BUCKET = 8;
   private static final int MIN_ENTRIES_PER_BUCKET = 2;
@@ -38,30 +51,30 @@ public class CuckooFilter implements Filter {
   private static double MAX_FPP = 0.99D;
 
   /**
-   * Mask for fast division by 32
-   * since we have default parallelism = 32
-   * https://graphics.stanford.edu/~seander/bithacks.html#ModulusDivision
+   * Number of locks guarding buckets,
+   * power of two so stripe of bucket is mask of index
    */
-  private static final long FAST_MOD_32 = 0x1FL;
-
-  /**
-   * Number of memory segments that can be
-   * concurrently proccessed
-   */
-  private static final int DEFAULT_CONCURRENCY_LEVEL = 32; // parallelism
+  private static final int NUM_STRIPES = 64;
 
   private static final Logger log = Logger.getLogger(CuckooFilter.class.getName());
 
   private final BucketSet table;
 
-  private final HashFunction strategy;
+  private final BitSet bitset;
 
-  private final ReentrantReadWriteLock[] segments = new ReentrantReadWriteLock[DEFAULT_CONCURRENCY_LEVEL];
+  private final StampedLock[] stripes = new StampedLock[NUM_STRIPES];
 
   private final int bitsPerTag;
   private final long numBuckets;
   private final int tagsPerBucket;
   private final AtomicLong count;
+  private final IndexRange range;
+
+  /*
+   * Layer of scalable filter, chain grows
+   * when insert fails, so it is not a warning
+   */
+  private volatile boolean chained = false;
 
   /**
    * Optimal number of
@@ -117,6 +130,23 @@ public class CuckooFilter implements Filter {
     return (int) ceil(Utils.log2((1 / e) + 3) / optimalLoadFactor(b));
   }
 
+  /**
+   * Bits per tag of semi-sorted bucket. Tag of <code>f</code> bits
+   * in buckets of <code>b</code> tags gives false positive rate
+   * <code>2b / 2^f</code>, so 4 tags per bucket take
+   * <code>log2(4 / b)</code> more bits than layout picked without
+   * semi-sorting for about the same rate, semi-sorting then
+   * saves one bit of every tag
+   *
+   * @param e false positive rate
+   */
+  private static int semiSortedBitsPerTag(double e) {
+    int b = optimalEntriesPerBucket(e);
+    int shift = Integer.numberOfTrailingZeros(SemiSortedBucketSet.TAGS_PER_BUCKET)
+      - Integer.numberOfTrailingZeros(b);
+    return optimalBitsPerEntry(e, b) + shift;
+  }
+
   /**
    * Optilmal number of buckets
    *
@@ -148,14 +178,37 @@ public class CuckooFilter implements Filter {
   }
 
   CuckooFilter(int bitsPerTag, int tagsPerBucket, long numBuckets, BitSet bitset, HashFunction strategy) {
-    this.strategy = strategy;
-    this.table = new BucketSet(bitsPerTag, tagsPerBucket, numBuckets, bitset);
+    this(bitsPerTag, tagsPerBucket, numBuckets, bitset, strategy, IndexReduction.MODULO);
+  }
+
+  CuckooFilter(int bitsPerTag, int tagsPerBucket, long numBuckets, BitSet bitset, HashFunction strategy,
+               IndexReduction reduction) {
+    this(bitsPerTag, tagsPerBucket, numBuckets, bitset, strategy, reduction, false);
+  }
+
+  /**
+   * @param semiSorted keep tags of bucket sorted and
+   * compress them with {@link SemiSortedBucketSet},
+   * needs 4 tags per bucket
+   */
+  CuckooFilter(int bitsPerTag, int tagsPerBucket, long numBuckets, BitSet bitset, HashFunction strategy,
+               IndexReduction reduction, boolean semiSorted) {
+    super(strategy, 2); // bucket index and fingerprint
+    if (semiSorted) {
+      Utils.checkArgument(tagsPerBucket == SemiSortedBucketSet.TAGS_PER_BUCKET,
+         String.format("Semi-sorted buckets hold 4 tags, but got %d", tagsPerBucket));
+      this.table = new SemiSortedBucketSet(bitsPerTag, numBuckets, bitset);
+    } else {
+      this.table = new BucketSet(bitsPerTag, tagsPerBucket, numBuckets, bitset);
+    }
+    this.bitset = bitset;
     this.bitsPerTag = bitsPerTag;
     this.numBuckets = numBuckets;
     this.tagsPerBucket = tagsPerBucket;
     this.count = new AtomicLong(0);
-    for(int i=0; i<segments.length; i++) {
-      segments[i] = new ReentrantReadWriteLock();
+    this.range = new IndexRange(numBuckets, reduction);
+    for(int i=0; i<stripes.length; i++) {
+      stripes[i] = new StampedLock();
     }
   }
 
@@ -163,89 +216,221 @@ public class CuckooFilter implements Filter {
     return count.get();
   }
 
+  /**
+   * Mark filter as layer of {@link ScalableCuckooFilter},
+   * failed insert is logged at FINE level then
+   */
+  void chained() {
+    this.chained = true;
+  }
+
+  /**
+   * Number of bits of tag table
+   */
+  long sizeInBits() {
+    return table.sizeInBits();
+  }
+
+  /**
+   * Number of items filter holds
+   * at optimal load factor
+   */
+  long capacity() {
+    return (long) (numBuckets * tagsPerBucket * optimalLoadFactor(tagsPerBucket));
+  }
+
+  /**
+   * Nodes of breadth first search, node <code>i</code> is
+   * bucket reached by moving tag <code>tags[i]</code>
+   * from slot <code>slots[i]</code> of bucket of
+   * node <code>parents[i]</code>
+   */
+  private static final class PathBuffer {
+    final long[] buckets = new long[MAX_BFS_NODES];
+    final int[] parents = new int[MAX_BFS_NODES];
+    final int[] slots = new int[MAX_BFS_NODES];
+    final long[] tags = new long[MAX_BFS_NODES];
+  }
+
+  private static final ThreadLocal<PathBuffer> pathBuffer = ThreadLocal.withInitial(PathBuffer::new);
+
+  private static int stripe(long bucketIdx) {
+    return (int) (bucketIdx & (NUM_STRIPES - 1));
+  }
+
+  /**
+   * Write lock stripes of both buckets,
+   * lower stripe first so writers never deadlock
+   */
+  private void lockBoth(long bucketIdx, long altIdx) {
+    int first = Math.min(stripe(bucketIdx), stripe(altIdx));
+    int second = Math.max(stripe(bucketIdx), stripe(altIdx));
+    stripes[first].asWriteLock().lock();
+    if (second != first) {
+      stripes[second].asWriteLock().lock();
+    }
+  }
+
+  private void unlockBoth(long bucketIdx, long altIdx) {
+    int first = stripe(bucketIdx);
+    int second = stripe(altIdx);
+    stripes[first].asWriteLock().unlock();
+    if (second != first) {
+      stripes[second].asWriteLock().unlock();
+    }
+  }
+
   @Override
-  public boolean put(byte[] item) {
-    long[] hashes = new long[2];
-    strategy.hashes(item, hashes);
-    long bucketIdx = hashes[0] % numBuckets;
+  boolean putHashes(long[] hashes) {
+    long bucketIdx = range.index(hashes[0]);
     long tag = fingerprint(hashes[1]);
     boolean itemAdded = false;
-    ReentrantReadWriteLock.WriteLock lock = segments[(int)(bucketIdx & FAST_MOD_32)].writeLock();
-    lock.lock();
+    // most items fit in main bucket, only its stripe is locked
+    StampedLock mainLock = stripes[stripe(bucketIdx)];
+    long stamp = mainLock.writeLock();
     try {
       itemAdded = table.append(bucketIdx, tag);
     } finally {
-      lock.unlock();
+      mainLock.unlockWrite(stamp);
     }
-    if(!itemAdded) {
-      itemAdded = putInAlt(bucketIdx, tag);
+    if (!itemAdded) {
+      itemAdded = putInAlt(bucketIdx, altIndex(bucketIdx, tag), tag);
     }
     if(itemAdded) {
       count.incrementAndGet();
     } else {
-      log.log(Level.WARNING, String.format("Cucko table exceed capacity: %1$d elements", count.get()));
+      Level level = chained ? Level.FINE : Level.WARNING;
+      if (log.isLoggable(level)) {
+        log.log(level, String.format("Cucko table exceed capacity: %1$d elements", count.get()));
+      }
     }
     return itemAdded;
   }
 
   /**
-   * Try to put tag in alternative bucket
+   * Put tag in any of its buckets,
+   * moving other tags to make room if both are full
    */
-  private boolean putInAlt(long bucketIdx, long tag) {
-    int kickNum = 0;
-    long altIdx = altIndex(bucketIdx, tag);
-    boolean itemAdded = false;
-    while(!itemAdded && kickNum < MAX_KICK_NUM ) {
-      ReentrantReadWriteLock.WriteLock lock = segments[(int)(altIdx & FAST_MOD_32)].writeLock();
-      lock.lock();
+  private boolean putInAlt(long bucketIdx, long altIdx, long tag) {
+    for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+      lockBoth(bucketIdx, altIdx);
       try {
-        itemAdded = table.append(altIdx, tag);
-        if(!itemAdded) {
-          int posToKick = ThreadLocalRandom.current().nextInt(tagsPerBucket);
-          long oldTag = table.readTag(altIdx, posToKick);
-          table.writeTag(altIdx, posToKick, tag);
-          tag = oldTag;
-          altIdx = altIndex(altIdx, oldTag);
+        // main bucket was just seen full, look at it again only on retry
+        if ((attempt > 0 && table.append(bucketIdx, tag)) || table.append(altIdx, tag)) {
+          return true;
         }
       } finally {
-        lock.unlock();
+        unlockBoth(bucketIdx, altIdx);
+      }
+      if (!makeRoom(bucketIdx, altIdx)) {
+        return false;
       }
-      kickNum++;
     }
-    return itemAdded;
+    return false;
+  }
+
+  /**
+   * Free one slot in <code>bucketIdx</code> or <code>altIdx</code>.
+   * Breadth first search finds the shortest chain of tags,
+   * each of them can move to its alternative bucket and the last
+   * one to bucket with free slot. Search is done without locks,
+   * then tags are moved from the end of chain, so every tag is always
+   * in one of its buckets and nothing is lost if chain
+   * was changed by concurrent writers.
+   *
+   * @return true if slot was freed and insert can be retried
+   */
+  private boolean makeRoom(long bucketIdx, long altIdx) {
+    PathBuffer path = pathBuffer.get();
+    long[] buckets = path.buckets;
+    int[] parents = path.parents;
+    int[] slots = path.slots;
+    long[] tags = path.tags;
+    buckets[0] = bucketIdx;
+    buckets[1] = altIdx;
+    parents[0] = parents[1] = -1;
+    int size = 2;
+    for (int node = 0; node < size; node++) {
+      long bucket = buckets[node];
+      for (int slot = 0; slot < tagsPerBucket; slot++) {
+        long tag = table.readTag(bucket, slot);
+        if (tag == 0L) { // slot was freed concurrently
+          return moveChain(buckets, parents, slots, tags, node);
+        }
+        long next = altIndex(bucket, tag);
+        if (table.getFreePosInBucket(next) != -1) {
+          return move(bucket, slot, tag, next)
+            && moveChain(buckets, parents, slots, tags, node);
+        }
+        if (size < MAX_BFS_NODES) {
+          buckets[size] = next;
+          parents[size] = node;
+          slots[size] = slot;
+          tags[size] = tag;
+          size++;
+        }
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Move tags along chain from node to root,
+   * every move frees slot for the next one
+   */
+  private boolean moveChain(long[] buckets, int[] parents, int[] slots, long[] tags, int node) {
+    for (; parents[node] != -1; node = parents[node]) {
+      if (!move(buckets[parents[node]], slots[node], tags[node], buckets[node])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Move <code>tag</code> from <code>slot</code> of bucket
+   * <code>from</code> to free slot of bucket <code>to</code>
+   * if both are still as search has seen them.
+   */
+  private boolean move(long from, int slot, long tag, long to) {
+    lockBoth(from, to);
+    try {
+      if (table.readTag(from, slot) != tag) {
+        return false;
+      }
+      int free = table.getFreePosInBucket(to);
+      if (free == -1) {
+        return false;
+      }
+      table.writeTag(to, free, tag);
+      table.deleteTag(from, slot);
+      return true;
+    } finally {
+      unlockBoth(from, to);
+    }
   }
 
   @Override
-  public boolean remove(byte[] item) {
-    long[] hashes = new long[2];
-    strategy.hashes(item, hashes);
-    long bucketIdx = hashes[0] % numBuckets;
+  boolean removeHashes(long[] hashes) {
+    long bucketIdx = range.index(hashes[0]);
     long tag = fingerprint(hashes[1]);
+    long altIdx = altIndex(bucketIdx, tag);
     boolean itemDeleted = false;
-    ReentrantReadWriteLock.WriteLock lock = segments[(int)(bucketIdx & FAST_MOD_32)].writeLock();
-    lock.lock();
+    lockBoth(bucketIdx, altIdx);
     try {
       int tagPos = table.checkTag(bucketIdx, tag);
       if(tagPos > -1) {
-        table.deleteTag(bucketIdx,tagPos);
+        table.deleteTag(bucketIdx, tagPos);
         itemDeleted = true;
-      }
-    } finally {
-      lock.unlock();
-    }
-    if(!itemDeleted) {// check tag in alternative bucket
-      long altIdx = altIndex(bucketIdx, tag);
-      ReentrantReadWriteLock.WriteLock altLock = segments[(int)(altIdx & FAST_MOD_32)].writeLock();
-      altLock.lock();
-      try {
-        int tagPos = table.checkTag(altIdx, tag);
+      } else {// check tag in alternative bucket
+        tagPos = table.checkTag(altIdx, tag);
         if(tagPos > -1) {
           table.deleteTag(altIdx, tagPos);
           itemDeleted = true;
         }
-      } finally {
-        altLock.unlock();
       }
+    } finally {
+      unlockBoth(bucketIdx, altIdx);
     }
     if(itemDeleted) {
       count.decrementAndGet();
@@ -253,36 +438,56 @@ public class CuckooFilter implements Filter {
     return itemDeleted;
   }
 
+  /**
+   * Both buckets are read without locks and result
+   * is used only if no writer held their stripes meanwhile,
+   * otherwise read is repeated under read locks.
+   */
   @Override
-  public boolean mightContain(byte[] item) {
-    long[] hashes = new long[2];
-    strategy.hashes(item, hashes);
-    long bucketIdx = hashes[0] % numBuckets;
+  boolean mightContainHashes(long[] hashes) {
+    long bucketIdx = range.index(hashes[0]);
     long tag = fingerprint(hashes[1]);
-    boolean mightContain = false;
-    ReentrantReadWriteLock.ReadLock mainLock = segments[(int)(bucketIdx & FAST_MOD_32)].readLock();
-    mainLock.lock();
+    long altIdx = altIndex(bucketIdx, tag);
+    StampedLock mainLock = stripes[stripe(bucketIdx)];
+    StampedLock altLock = stripes[stripe(altIdx)];
+    long mainStamp = mainLock.tryOptimisticRead();
+    long altStamp = altLock.tryOptimisticRead();
+    if (mainStamp != 0L && altStamp != 0L) {
+      boolean mightContain = table.checkTag(bucketIdx, tag) != -1
+        || table.checkTag(altIdx, tag) != -1;
+      if (mainLock.validate(mainStamp) && altLock.validate(altStamp)) {
+        return mightContain;
+      }
+    }
+    StampedLock first = stripe(bucketIdx) <= stripe(altIdx) ? mainLock : altLock;
+    StampedLock second = first == mainLock ? altLock : mainLock;
+    first.asReadLock().lock();
+    if (second != first) {
+      second.asReadLock().lock();
+    }
     try {
-      mightContain = table.checkTag(bucketIdx, tag) != -1L;
+      return table.checkTag(bucketIdx, tag) != -1
+        || table.checkTag(altIdx, tag) != -1;
     } finally {
-      mainLock.unlock();
-    }
-    if(!mightContain) {
-      long altIdx = altIndex(bucketIdx, tag);
-      ReentrantReadWriteLock.ReadLock altLock = segments[(int)(altIdx & FAST_MOD_32)].readLock();
-      altLock.lock();
-      try {
-        mightContain = table.checkTag(altIdx, tag) != -1L;
-      } finally {
-        altLock.unlock();
+      first.asReadLock().unlock();
+      if (second != first) {
+        second.asReadLock().unlock();
       }
     }
-    return mightContain;
   }
 
   @Override
   public void clear() {
-    table.clear();
+    for (StampedLock lock : stripes) {
+      lock.asWriteLock().lock();
+    }
+    try {
+      table.clear();
+    } finally {
+      for (StampedLock lock : stripes) {
+        lock.asWriteLock().unlock();
+      }
+    }
   }
 
   @Override
@@ -290,9 +495,53 @@ public class CuckooFilter implements Filter {
     throw new UnsupportedOperationException("mergeInPlace method is not supported in CuckooFilter");
   }
 
+  @Override
+  Snapshot snapshot() {
+    int flags = table instanceof SemiSortedBucketSet ? Snapshot.SEMI_SORTED : 0;
+    return new Snapshot(Snapshot.Type.CUCKOO, strategy, range.reduction(), flags,
+        2, bitsPerTag, tagsPerBucket, table.sizeInBits(), numBuckets, count.get());
+  }
+
+  /**
+   * Number of items is written to snapshot
+   * along with buckets
+   */
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    table.writeTo(out);
+  }
+
+  /**
+   * Count items by scanning all buckets,
+   * when stored count is not valid
+   */
+  void recount() {
+    long items = 0L;
+    for (long bucketIdx = 0; bucketIdx < numBuckets; bucketIdx++) {
+      for (int pos = 0; pos < tagsPerBucket; pos++) {
+        if (table.readTag(bucketIdx, pos) != 0L) {
+          items++;
+        }
+      }
+    }
+    count.set(items);
+  }
+
+  static CuckooFilter create(Snapshot header, BitSet bits) throws IOException {
+    long numBuckets = header.param(0);
+    long count = header.param(1);
+    CuckooFilter filter = new CuckooFilter(header.bitsPerBucket, header.tagsPerBucket, numBuckets, bits,
+        header.hasher, header.reduction, (header.flags & Snapshot.SEMI_SORTED) != 0);
+    filter.count.set(count);
+    return filter;
+  }
+
   @Override
   public void close() {
     try{
+      // mapped file keeps number of items
+      Snapshot.describe(this, bitset);
       table.close();
     } catch (Exception err) {
       log.log(Level.SEVERE, "Can not close CuckooFilter", err);
@@ -327,7 +576,12 @@ public class CuckooFilter implements Filter {
    */
   private final long altIndex(long bucketIdx, long tag) {
     long hash2 = (tag * 0x5bd1e995L) & Long.MAX_VALUE; 
-    return Utils.mod(protectedSum(bucketIdx, parsign(bucketIdx) * odd(hash2), numBuckets), numBuckets);
+    long offset = parsign(bucketIdx) * odd(hash2);
+    if (Utils.isPowerOfTwo(numBuckets)) {
+      // overflow wraps modulo 2^64, so the same index as below
+      return (bucketIdx + offset) & (numBuckets - 1);
+    }
+    return Utils.mod(protectedSum(bucketIdx, offset, numBuckets), numBuckets);
   }
 
   /**
@@ -362,11 +616,24 @@ public class CuckooFilter implements Filter {
     private File file = null;
     private boolean useOffHeapMemory = false;
     private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+    private boolean semiSorted = false;
 
     private Builder() {
       super();
     }
 
+    /**
+     * Keep 4 sorted tags per bucket and encode
+     * their highest 4 bits together, which saves
+     * 1 bit per tag. Every bucket access decodes
+     * whole bucket, so operations are slower.
+     */
+    public Builder withSemiSortedBuckets(boolean semiSorted) {
+      this.semiSorted = semiSorted;
+      return this;
+    }
+
     @Override
     public Builder useOffHeapMemory(boolean off) {
       this.useOffHeapMemory = off;
@@ -401,6 +668,12 @@ public class CuckooFilter implements Filter {
       return this;
     }
 
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
     @Override
     public CuckooFilter build() throws IOException {
       if(!useOffHeapMemory) {
@@ -408,21 +681,35 @@ public class CuckooFilter implements Filter {
            String.format("Can not map file(%s) to onheap bit vector", file));
       }
 
-      int tagsPerBucket = optimalEntriesPerBucket(fpp);
-      long numBuckets = optimalNumberOfBuckets(capacity, tagsPerBucket);
+      int tagsPerBucket = semiSorted ? SemiSortedBucketSet.TAGS_PER_BUCKET : optimalEntriesPerBucket(fpp);
+      // power of two is even, alternate bucket relies on it
+      long numBuckets = reduction.size(optimalNumberOfBuckets(capacity, tagsPerBucket));
       int bitsPerTag = optimalBitsPerEntry(fpp, tagsPerBucket);
+      long numBits = bitsPerTag * tagsPerBucket * numBuckets;
+      if (semiSorted) {
+        // bucket must have 4 high bits to encode
+        bitsPerTag = Math.max(semiSortedBitsPerTag(fpp), 4);
+        Utils.checkArgument(bitsPerTag <= 17,
+           String.format("False positive rate(%s) needs %d bits per tag, semi-sorted buckets hold at most 17", fpp, bitsPerTag));
+        numBits = SemiSortedBucketSet.bitsPerBucket(bitsPerTag) * numBuckets;
+      }
 
       BitSet bitset = null;
       if(file != null) {
-        bitset = new OffHeapBitArray(file, bitsPerTag * tagsPerBucket * numBuckets);
+        bitset = new OffHeapBitArray(file, numBits);
       } else {
         if (useOffHeapMemory) {
-          bitset = new OffHeapBitArray(bitsPerTag * tagsPerBucket * numBuckets);
+          bitset = new OffHeapBitArray(numBits);
         } else {
-          bitset = new BitArray(bitsPerTag * tagsPerBucket * numBuckets);
+          bitset = new BitArray(numBits);
         }
       }
-      return new CuckooFilter(bitsPerTag, tagsPerBucket, numBuckets, bitset, hasher);
+      CuckooFilter filter =
+        new CuckooFilter(bitsPerTag, tagsPerBucket, numBuckets, bitset, hasher, reduction, semiSorted);
+      if (bitset.cardinality() > 0) { // mapped file keeps items of previous run
+        filter.recount();
+      }
+      return Snapshot.describe(filter, bitset);
     }
   }
 }
@@ -1,6 +1,13 @@
 package com.github.ponkin.bloom;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -85,6 +92,209 @@ public interface Filter extends Closeable {
     return removed;
   }
 
+  /**
+   * Put <code>long</code> item inside filter.
+   * Item is hashed as its 8 byte little-endian
+   * representation, so it is the same item as
+   * {@link Utils#getBytesFromLong(long)} byte array.
+   *
+   * @param item to put
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  default boolean put(long item) {
+    return put(Utils.getBytesFromLong(item));
+  }
+
+  /**
+   * Check <code>long</code> item against filter,
+   * see {@link #put(long)}
+   *
+   * @param item to check
+   * @return false if item is not inside filter(100% sure),
+   * true - <code>item</code> might be inside filter with
+   * some probability
+   */
+  default boolean mightContain(long item) {
+    return mightContain(Utils.getBytesFromLong(item));
+  }
+
+  /**
+   * Remove <code>long</code> item from filter,
+   * see {@link #put(long)}
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param item to remove
+   * @return true if item was removed, false otherwise
+   */
+  default boolean remove(long item) {
+    return remove(Utils.getBytesFromLong(item));
+  }
+
+  /**
+   * Put <code>int</code> item inside filter.
+   * Item is widened to <code>long</code>, so
+   * <code>put(1)</code> and <code>put(1L)</code> put the same item.
+   *
+   * @param item to put
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  default boolean put(int item) {
+    return put((long) item);
+  }
+
+  /**
+   * Check <code>int</code> item against filter,
+   * see {@link #put(int)}
+   *
+   * @param item to check
+   * @return false if item is not inside filter(100% sure),
+   * true - <code>item</code> might be inside filter with
+   * some probability
+   */
+  default boolean mightContain(int item) {
+    return mightContain((long) item);
+  }
+
+  /**
+   * Remove <code>int</code> item from filter,
+   * see {@link #put(int)}
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param item to remove
+   * @return true if item was removed, false otherwise
+   */
+  default boolean remove(int item) {
+    return remove((long) item);
+  }
+
+  /**
+   * Put <code>length</code> bytes of <code>data</code>
+   * starting from <code>offset</code> inside filter.
+   * It is the same item as copy of this slice.
+   *
+   * @param data array with item
+   * @param offset item start
+   * @param length item length in bytes
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  default boolean put(byte[] data, int offset, int length) {
+    return put(Arrays.copyOfRange(data, offset, offset + length));
+  }
+
+  /**
+   * Check slice of <code>data</code> against filter,
+   * see {@link #put(byte[], int, int)}
+   *
+   * @param data array with item
+   * @param offset item start
+   * @param length item length in bytes
+   * @return false if item is not inside filter(100% sure),
+   * true - <code>item</code> might be inside filter with
+   * some probability
+   */
+  default boolean mightContain(byte[] data, int offset, int length) {
+    return mightContain(Arrays.copyOfRange(data, offset, offset + length));
+  }
+
+  /**
+   * Remove slice of <code>data</code> from filter,
+   * see {@link #put(byte[], int, int)}
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param data array with item
+   * @param offset item start
+   * @param length item length in bytes
+   * @return true if item was removed, false otherwise
+   */
+  default boolean remove(byte[] data, int offset, int length) {
+    return remove(Arrays.copyOfRange(data, offset, offset + length));
+  }
+
+  /**
+   * Put remaining bytes of <code>buffer</code> inside filter.
+   * It is the same item as byte array with bytes from
+   * position to limit, position of buffer is not changed.
+   * Heap and direct buffers are hashed in place.
+   *
+   * @param buffer item bytes
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  default boolean put(ByteBuffer buffer) {
+    return put(Utils.getBytesFromByteBuffer(buffer));
+  }
+
+  /**
+   * Check remaining bytes of <code>buffer</code> against filter,
+   * see {@link #put(ByteBuffer)}
+   *
+   * @param buffer item bytes
+   * @return false if item is not inside filter(100% sure),
+   * true - <code>item</code> might be inside filter with
+   * some probability
+   */
+  default boolean mightContain(ByteBuffer buffer) {
+    return mightContain(Utils.getBytesFromByteBuffer(buffer));
+  }
+
+  /**
+   * Remove remaining bytes of <code>buffer</code> from filter,
+   * see {@link #put(ByteBuffer)}
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param buffer item bytes
+   * @return true if item was removed, false otherwise
+   */
+  default boolean remove(ByteBuffer buffer) {
+    return remove(Utils.getBytesFromByteBuffer(buffer));
+  }
+
+  /**
+   * Put UTF-16LE representation of <code>chars</code> inside filter.
+   * Chars are hashed without encoding, so it is not
+   * the same item as {@link #put(String)}, which uses UTF-8.
+   *
+   * @param chars item
+   * @return true if item was successfully put in filter,
+   * false otherwise.
+   */
+  default boolean putChars(CharSequence chars) {
+    return put(chars.toString().getBytes(StandardCharsets.UTF_16LE));
+  }
+
+  /**
+   * Check <code>chars</code> against filter,
+   * see {@link #putChars(CharSequence)}
+   *
+   * @param chars item
+   * @return false if item is not inside filter(100% sure),
+   * true - <code>item</code> might be inside filter with
+   * some probability
+   */
+  default boolean mightContainChars(CharSequence chars) {
+    return mightContain(chars.toString().getBytes(StandardCharsets.UTF_16LE));
+  }
+
+  /**
+   * Remove <code>chars</code> from filter,
+   * see {@link #putChars(CharSequence)}
+   * <p>
+   * Note: can throw {@link java.lang.UnsupportedOperationException}
+   *
+   * @param chars item
+   * @return true if item was removed, false otherwise
+   */
+  default boolean removeChars(CharSequence chars) {
+    return remove(chars.toString().getBytes(StandardCharsets.UTF_16LE));
+  }
+
   /**
    * Remove item from filter
    * <p>
@@ -114,6 +324,148 @@ public interface Filter extends Closeable {
    */
   boolean put(byte[] bytes);
 
+  /**
+   * Put all <code>items</code> inside filter.
+   * Implementations may hash whole batch first
+   * and then update filter, so it is faster than
+   * calling {@link #put(byte[])} for every item.
+   *
+   * @param items byte array representations
+   * @return number of items that changed filter
+   */
+  default int putAll(byte[][] items) {
+    int added = 0;
+    for (byte[] item : items) {
+      if (put(item)) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Put all items packed in one array inside filter.
+   * Item <code>i</code> is <code>lengths[i]</code> bytes
+   * of <code>data</code> starting from <code>offsets[i]</code>.
+   *
+   * @param data array with all items
+   * @param offsets item starts
+   * @param lengths item lengths in bytes
+   * @return number of items that changed filter
+   */
+  default int putAll(byte[] data, int[] offsets, int[] lengths) {
+    Utils.checkArgument(offsets.length == lengths.length,
+      "Offsets and lengths must have the same size");
+    int added = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      if (put(data, offsets[i], lengths[i])) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Put all <code>long</code> items inside filter,
+   * see {@link #put(long)}
+   *
+   * @param items to put
+   * @return number of items that changed filter
+   */
+  default int putAll(long[] items) {
+    int added = 0;
+    for (long item : items) {
+      if (put(item)) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Check all <code>long</code> items against filter,
+   * see {@link #mightContainAll(byte[][], boolean[])}
+   *
+   * @param items to check
+   * @param result array of at least <code>items.length</code> size
+   */
+  default void mightContainAll(long[] items, boolean[] result) {
+    Utils.checkArgument(result.length >= items.length,
+      "Result array is smaller than number of items");
+    for (int i = 0; i < items.length; i++) {
+      result[i] = mightContain(items[i]);
+    }
+  }
+
+  /**
+   * Check all <code>items</code> against filter.
+   * <code>result[i]</code> is set to {@link #mightContain(byte[])}
+   * of <code>items[i]</code>. Implementations may hash whole batch
+   * first and then probe filter for several items at once,
+   * so memory accesses for different items overlap.
+   *
+   * @param items byte array representations
+   * @param result array of at least <code>items.length</code> size
+   */
+  default void mightContainAll(byte[][] items, boolean[] result) {
+    Utils.checkArgument(result.length >= items.length,
+      "Result array is smaller than number of items");
+    for (int i = 0; i < items.length; i++) {
+      result[i] = mightContain(items[i]);
+    }
+  }
+
+  /**
+   * Check all items packed in one array against filter,
+   * see {@link #putAll(byte[], int[], int[])} for layout.
+   *
+   * @param data array with all items
+   * @param offsets item starts
+   * @param lengths item lengths in bytes
+   * @param result array of at least <code>offsets.length</code> size
+   */
+  default void mightContainAll(byte[] data, int[] offsets, int[] lengths, boolean[] result) {
+    Utils.checkArgument(offsets.length == lengths.length,
+      "Offsets and lengths must have the same size");
+    Utils.checkArgument(result.length >= offsets.length,
+      "Result array is smaller than number of items");
+    for (int i = 0; i < offsets.length; i++) {
+      result[i] = mightContain(data, offsets[i], lengths[i]);
+    }
+  }
+
+  /**
+   * Put remaining bytes of all <code>buffers</code> inside filter,
+   * see {@link #put(ByteBuffer)}
+   *
+   * @param buffers item bytes
+   * @return number of items that changed filter
+   */
+  default int putAll(ByteBuffer[] buffers) {
+    int added = 0;
+    for (ByteBuffer buffer : buffers) {
+      if (put(buffer)) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Check remaining bytes of all <code>buffers</code> against filter,
+   * see {@link #mightContainAll(byte[][], boolean[])}
+   *
+   * @param buffers item bytes
+   * @param result array of at least <code>buffers.length</code> size
+   */
+  default void mightContainAll(ByteBuffer[] buffers, boolean[] result) {
+    Utils.checkArgument(result.length >= buffers.length,
+      "Result array is smaller than number of items");
+    for (int i = 0; i < buffers.length; i++) {
+      result[i] = mightContain(buffers[i]);
+    }
+  }
+
   /**
    * Get expected false positive rate
    * for this filter
@@ -136,4 +488,27 @@ public interface Filter extends Closeable {
    */
   Filter mergeInPlace(Filter other) throws Exception;
 
+  /**
+   * Write binary snapshot of filter to <code>out</code>:
+   * versioned header with filter parameters and checksum,
+   * followed by raw words of filter. Snapshot of filter that is
+   * changed concurrently may mix old and new items.
+   * Stream is not closed.
+   *
+   * @param out stream to write snapshot
+   * @throws UnsupportedOperationException if filter uses hasher
+   * which is not one of {@link Hashers}
+   */
+  default void writeTo(OutputStream out) throws IOException {
+    writeTo(Channels.newChannel(out));
+  }
+
+  /**
+   * Write binary snapshot of filter to blocking channel <code>out</code>,
+   * see {@link #writeTo(OutputStream)}
+   *
+   * @param out channel to write snapshot
+   */
+  void writeTo(WritableByteChannel out) throws IOException;
+
 }
@@ -21,5 +21,11 @@ public interface FilterBuilder<T extends Filter> {
 
     FilterBuilder withHasher(HashFunction hasher);
 
+    /**
+     * How hashes are mapped to indexes,
+     * {@link IndexReduction#MODULO} by default
+     */
+    FilterBuilder withIndexReduction(IndexReduction reduction);
+
     T build() throws IOException;
 }
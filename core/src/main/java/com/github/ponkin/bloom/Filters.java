@@ -0,0 +1,62 @@
+package com.github.ponkin.bloom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Factories of filters from snapshots and mapped files.
+ * They are not static methods of {@link Filter},
+ * Scala 2.11 can not call static interface methods.
+ *
+ * @author Alexey Ponkin
+ */
+public final class Filters {
+
+  private Filters() {
+  }
+
+  /**
+   * Read filter written by {@link Filter#writeTo(java.io.OutputStream)}
+   * into on-heap memory. Stream is not closed.
+   *
+   * @param in stream with snapshot
+   * @return filter of the same type and with the same items
+   * @throws IOException if snapshot is corrupted or truncated
+   */
+  public static Filter readFrom(InputStream in) throws IOException {
+    return readFrom(Channels.newChannel(in), false);
+  }
+
+  /**
+   * Read filter written by {@link Filter#writeTo(java.nio.channels.WritableByteChannel)}
+   * from blocking channel <code>in</code>
+   *
+   * @param in channel with snapshot
+   * @param useOffHeapMemory read filter into off-heap memory
+   * @return filter of the same type and with the same items
+   * @throws IOException if snapshot is corrupted or truncated
+   */
+  public static Filter readFrom(ReadableByteChannel in, boolean useOffHeapMemory) throws IOException {
+    return Snapshot.readFilter(in, useOffHeapMemory);
+  }
+
+  /**
+   * Open filter mapped to <code>file</code> by builder
+   * with {@link FilterBuilder#withFileMapped(File)}.
+   * File keeps filter parameters, so filter is opened without
+   * builder. If file was closed, number of set bits is read
+   * from file header, otherwise bits are counted in parallel.
+   * Scalable filters are opened with all filters of chain.
+   *
+   * @param file mapped file
+   * @return filter of the same type and with the same items
+   * @throws IOException if file does not contain mapped filter
+   * or filter has hasher which is not one of {@link Hashers}
+   */
+  public static Filter open(File file) throws IOException {
+    return Snapshot.open(file);
+  }
+}
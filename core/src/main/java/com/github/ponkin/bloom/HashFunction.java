@@ -1,5 +1,9 @@
 package com.github.ponkin.bloom;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Common functional interface for
  * all hashing strategies.
@@ -17,11 +21,85 @@ public interface HashFunction {
    * so after method execution all data 
    * inside hashes will be overwriten.
    * Method will generate as many hashes as
-   * array size.
+   * array size. Implementations must not allocate,
+   * filters call this method for every put and lookup.
    *
    * @param item to hash
    * @param hashes array where all independent hashes will be stored
    */
   void hashes(byte[] item, long[] hashes);
 
+  /**
+   * Hash <code>length</code> bytes of <code>data</code>
+   * starting from <code>offset</code>, result must be the same
+   * as hashing copy of this slice.
+   * Default implementation copies slice, embeded hashers
+   * read it in place.
+   *
+   * @param data array with item
+   * @param offset item start
+   * @param length item length in bytes
+   * @param hashes array where all independent hashes will be stored
+   */
+  default void hashes(byte[] data, int offset, int length, long[] hashes) {
+    hashes(Arrays.copyOfRange(data, offset, offset + length), hashes);
+  }
+
+  /**
+   * Hash <code>long</code> item, result must be the same
+   * as hashing its 8 byte little-endian representation.
+   * Default implementation converts item to byte array,
+   * embeded hashers hash it without allocation.
+   *
+   * @param item to hash
+   * @param hashes array where all independent hashes will be stored
+   */
+  default void hashes(long item, long[] hashes) {
+    hashes(Utils.getBytesFromLong(item), hashes);
+  }
+
+  /**
+   * Hash remaining bytes of <code>buffer</code>,
+   * from position to limit. Position of buffer is not changed.
+   * Result must be the same as hashing copy of these bytes.
+   * Default implementation copies bytes, embeded hashers
+   * read heap and direct buffers in place.
+   *
+   * @param buffer item bytes
+   * @param hashes array where all independent hashes will be stored
+   */
+  default void hashes(ByteBuffer buffer, long[] hashes) {
+    hashes(Utils.getBytesFromByteBuffer(buffer), hashes);
+  }
+
+  /**
+   * Hash <code>length</code> bytes of off-heap memory
+   * starting from <code>address</code>.
+   * Result must be the same as hashing copy of these bytes.
+   * Caller is responsible for address to be valid.
+   *
+   * @param address memory address of item
+   * @param length item length in bytes
+   * @param hashes array where all independent hashes will be stored
+   */
+  default void hashes(long address, int length, long[] hashes) {
+    byte[] bytes = new byte[length];
+    Platform.copyMemory(null, address, bytes, Platform.BYTE_ARRAY_OFFSET, length);
+    hashes(bytes, hashes);
+  }
+
+  /**
+   * Hash UTF-16LE representation of <code>chars</code>.
+   * Note: it is not the same as hashing UTF-8 bytes
+   * of string, see {@link Filter#putChars(CharSequence)}.
+   * Default implementation encodes chars, embeded hashers
+   * read chars one by one.
+   *
+   * @param chars item
+   * @param hashes array where all independent hashes will be stored
+   */
+  default void hashChars(CharSequence chars, long[] hashes) {
+    hashes(chars.toString().getBytes(StandardCharsets.UTF_16LE), hashes);
+  }
+
 }
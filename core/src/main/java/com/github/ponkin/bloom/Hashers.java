@@ -1,5 +1,7 @@
 package com.github.ponkin.bloom;
 
+import java.nio.ByteBuffer;
+
 /**
  * HashFunctions implementations
  *
@@ -10,34 +12,301 @@ public class Hashers {
   /**
    * 32 bit Murmur3 hasher
    */
-  public static final HashFunction MURMUR3_32 = (item, hashes) -> {
-    int h1 = Murmur3_x86_32.hashUnsafeBytes(item, Platform.BYTE_ARRAY_OFFSET, item.length, 0);
-    int h2 = Murmur3_x86_32.hashUnsafeBytes(item, Platform.BYTE_ARRAY_OFFSET, item.length, h1);
+  public static final HashFunction MURMUR3_32 = new Murmur3x32Hasher();
+
+  /**
+   * 128 bit Murmur3 hasher
+   */
+  public static final HashFunction MURMUR3_128 = new Murmur3x128Hasher();
+
+  /**
+   * 64 bit xxHash hasher
+   */
+  public static final HashFunction XXHASH64 = new XxHash64Hasher();
+
+  /**
+   * 64 bit XXH3 hasher
+   */
+  public static final HashFunction XXH3 = new XxHash3Hasher();
+
+  /**
+   * 64 bit wyhash(version 3) hasher
+   */
+  public static final HashFunction WYHASH = new WyHasher();
+
+  /**
+   * Raw 64 bit XXH64 hash with seed 0,
+   * the hash Parquet uses for bloom filters, see
+   * {@link SplitBlockBloomFilter#putHash(long)}
+   *
+   * @param data item bytes
+   * @return 64 bit hash
+   */
+  public static long xxHash64(byte[] data) {
+    return XxHash64.hashBytes(data, 0L);
+  }
+
+  /**
+   * Id of hasher in filter snapshots,
+   * ids must never change
+   *
+   * @throws UnsupportedOperationException if hasher is not one of
+   * this class constants
+   */
+  static int id(HashFunction hasher) {
+    if (hasher == MURMUR3_32) {
+      return 1;
+    } else if (hasher == MURMUR3_128) {
+      return 2;
+    } else if (hasher == XXHASH64) {
+      return 3;
+    } else if (hasher == XXH3) {
+      return 4;
+    } else if (hasher == WYHASH) {
+      return 5;
+    }
+    throw new UnsupportedOperationException(
+        String.format("Can not write snapshot of filter with hasher %s", hasher.getClass().getName()));
+  }
+
+  /**
+   * Hasher by its id, see {@link #id(HashFunction)}
+   *
+   * @return hasher or null if id is unknown
+   */
+  static HashFunction byId(int id) {
+    switch (id) {
+      case 1:
+        return MURMUR3_32;
+      case 2:
+        return MURMUR3_128;
+      case 3:
+        return XXHASH64;
+      case 4:
+        return XXH3;
+      case 5:
+        return WYHASH;
+      default:
+        return null;
+    }
+  }
+
+  private static void checkBounds(byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > data.length - length) {
+      throw new IndexOutOfBoundsException(
+          String.format("Slice [%1$d, %1$d + %2$d) is out of array of length %3$d",
+            offset, length, data.length));
+    }
+  }
+
+  /**
+   * Hasher that reads arrays, buffers
+   * and off-heap memory in place with {@link Platform}
+   */
+  private abstract static class UnsafeHasher implements HashFunction {
+
+    /**
+     * Hash <code>length</code> bytes starting from <code>offset</code>
+     * of <code>base</code>, or from address <code>offset</code>
+     * if <code>base</code> is null.
+     */
+    abstract void hash(Object base, long offset, int length, long[] hashes);
+
+    @Override
+    public void hashes(byte[] item, long[] hashes) {
+      hash(item, Platform.BYTE_ARRAY_OFFSET, item.length, hashes);
+    }
+
+    @Override
+    public void hashes(byte[] data, int offset, int length, long[] hashes) {
+      checkBounds(data, offset, length);
+      hash(data, Platform.BYTE_ARRAY_OFFSET + offset, length, hashes);
+    }
+
+    @Override
+    public void hashes(ByteBuffer buffer, long[] hashes) {
+      if (buffer.hasArray()) {
+        hash(buffer.array(),
+          Platform.BYTE_ARRAY_OFFSET + buffer.arrayOffset() + buffer.position(),
+          buffer.remaining(), hashes);
+      } else if (buffer.isDirect()) {
+        hash(null, Platform.getByteBufferAddress(buffer) + buffer.position(),
+          buffer.remaining(), hashes);
+      } else {
+        // read-only heap buffer does not expose its array
+        HashFunction.super.hashes(buffer, hashes);
+      }
+    }
+
+    @Override
+    public void hashes(long address, int length, long[] hashes) {
+      hash(null, address, length, hashes);
+    }
+  }
+
+  private static final class Murmur3x32Hasher extends UnsafeHasher {
+
+    @Override
+    void hash(Object base, long offset, int length, long[] hashes) {
+      int h1 = Murmur3_x86_32.hashUnsafeBytes(base, offset, length, 0);
+      int h2 = Murmur3_x86_32.hashUnsafeBytes(base, offset, length, h1);
+      combine(h1, h2, hashes);
+    }
+
+    @Override
+    public void hashes(long item, long[] hashes) {
+      int h1 = Murmur3_x86_32.hashLong(item, 0);
+      int h2 = Murmur3_x86_32.hashLong(item, h1);
+      combine(h1, h2, hashes);
+    }
 
-    for (int i = 1; i <= hashes.length; i++) {
-      int combinedHash = h1 + (i * h2);
-      // Flip all the bits if it's negative (guaranteed positive number)
-      if (combinedHash < 0) {
-        combinedHash = ~combinedHash;
+    @Override
+    public void hashChars(CharSequence chars, long[] hashes) {
+      int h1 = Murmur3_x86_32.hashChars(chars, 0);
+      int h2 = Murmur3_x86_32.hashChars(chars, h1);
+      combine(h1, h2, hashes);
+    }
+
+    private static void combine(int h1, int h2, long[] hashes) {
+      for (int i = 1; i <= hashes.length; i++) {
+        int combinedHash = h1 + (i * h2);
+        // Flip all the bits if it's negative (guaranteed positive number)
+        if (combinedHash < 0) {
+          combinedHash = ~combinedHash;
+        }
+        hashes[i-1] = combinedHash;
       }
-      hashes[i-1] = combinedHash;
     }
-  };
+  }
+
+  private static final class Murmur3x128Hasher extends UnsafeHasher {
+
+    @Override
+    void hash(Object base, long offset, int length, long[] hashes) {
+      long h1;
+      long h2 = 0L;
+      if (hashes.length > 1) {
+        // hashes array can keep both halves, no need for temporary array
+        Murmur3_128.hashUnsafeBytes(base, offset, length, 0, hashes);
+        h1 = hashes[0];
+        h2 = hashes[1];
+      } else {
+        h1 = Murmur3_128.hashUnsafeBytes(base, offset, length, 0, null);
+      }
+      combine(h1, h2, hashes);
+    }
+
+    @Override
+    public void hashes(long item, long[] hashes) {
+      long h1;
+      long h2 = 0L;
+      if (hashes.length > 1) {
+        Murmur3_128.hashLong(item, 0, hashes);
+        h1 = hashes[0];
+        h2 = hashes[1];
+      } else {
+        h1 = Murmur3_128.hashLong(item, 0, null);
+      }
+      combine(h1, h2, hashes);
+    }
+
+    @Override
+    public void hashChars(CharSequence chars, long[] hashes) {
+      long h1;
+      long h2 = 0L;
+      if (hashes.length > 1) {
+        Murmur3_128.hashChars(chars, 0, hashes);
+        h1 = hashes[0];
+        h2 = hashes[1];
+      } else {
+        h1 = Murmur3_128.hashChars(chars, 0, null);
+      }
+      combine(h1, h2, hashes);
+    }
+
+    private static void combine(long h1, long h2, long[] hashes) {
+      long combinedHash = h1;
+      for (int i = 1; i <= hashes.length; i++) {
+        // Make combinedHash positive and indexable
+        hashes[i-1] = combinedHash & Long.MAX_VALUE;
+        combinedHash += h2;
+      }
+    }
+  }
 
   /**
-   * 128 bit Murmur3 hasher
+   * Hasher with one 64 bit hash.
+   * Second hash for double hashing is
+   * derived from the first one with SplitMix64 finalizer.
+   * Note: chars are encoded before hashing.
    */
-  public static final HashFunction MURMUR3_128 = (item, hashes) -> {
-    long[] hash = new long[2];
-    Murmur3_128.hashBytes(item, 0, hash);
-    long h1 = hash[0];
-    long h2 = hash[1];
+  private abstract static class Hash64Hasher extends UnsafeHasher {
+
+    abstract long hash64(Object base, long offset, int length);
+
+    abstract long hash64(long item);
+
+    @Override
+    void hash(Object base, long offset, int length, long[] hashes) {
+      combine(hash64(base, offset, length), hashes);
+    }
+
+    @Override
+    public void hashes(long item, long[] hashes) {
+      combine(hash64(item), hashes);
+    }
+
+    private static void combine(long h1, long[] hashes) {
+      long h2 = h1;
+      h2 = (h2 ^ (h2 >>> 30)) * 0xbf58476d1ce4e5b9L;
+      h2 = (h2 ^ (h2 >>> 27)) * 0x94d049bb133111ebL;
+      h2 = h2 ^ (h2 >>> 31);
+
+      long combinedHash = h1;
+      for (int i = 1; i <= hashes.length; i++) {
+        // Make combinedHash positive and indexable
+        hashes[i-1] = combinedHash & Long.MAX_VALUE;
+        combinedHash += h2;
+      }
+    }
+  }
+
+  private static final class XxHash64Hasher extends Hash64Hasher {
+
+    @Override
+    long hash64(Object base, long offset, int length) {
+      return XxHash64.hashUnsafeBytes(base, offset, length, 0L);
+    }
+
+    @Override
+    long hash64(long item) {
+      return XxHash64.hashLong(item, 0L);
+    }
+  }
+
+  private static final class XxHash3Hasher extends Hash64Hasher {
+
+    @Override
+    long hash64(Object base, long offset, int length) {
+      return XxHash3.hashUnsafeBytes(base, offset, length);
+    }
+
+    @Override
+    long hash64(long item) {
+      return XxHash3.hashLong(item);
+    }
+  }
+
+  private static final class WyHasher extends Hash64Hasher {
+
+    @Override
+    long hash64(Object base, long offset, int length) {
+      return WyHash.hashUnsafeBytes(base, offset, length, 0L);
+    }
 
-    long combinedHash = h1;
-    for (int i = 1; i <= hashes.length; i++) {
-      // Make combinedHash positive and indexable
-      hashes[i-1] = combinedHash & Long.MAX_VALUE;
-      combinedHash += h2;
+    @Override
+    long hash64(long item) {
+      return WyHash.hashLong(item, 0L);
     }
-  };
+  }
 }
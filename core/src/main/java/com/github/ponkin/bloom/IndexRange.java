@@ -0,0 +1,100 @@
+package com.github.ponkin.bloom;
+
+/**
+ * Maps positive hash to index in range <code>[0, size)</code>
+ * without 64 bit division where possible.
+ * If <code>size</code> is power of two mask is used
+ * with any reduction, for positive hash it gives
+ * the same index as <code>hash % size</code>.
+ *
+ * @author Alexey Ponkin
+ */
+final class IndexRange {
+
+  private static final int MODULO = 0;
+  private static final int MASK = 1;
+  private static final int MULTIPLY_SHIFT_32 = 2;
+  private static final int MULTIPLY_SHIFT_64 = 3;
+
+  /*
+   * Odd 64 bit constant (golden ratio), hash is multiplied
+   * by it before multiply-shift, so high bits are filled even
+   * if hasher fills only low 31 bits of hash, like MURMUR3_32
+   */
+  private static final long MIX = 0x9E3779B97F4A7C15L;
+
+  private final long size;
+
+  private final long mask;
+
+  private final int kind;
+
+  IndexRange(long size, IndexReduction reduction) {
+    Utils.checkArgument(size > 0,
+       String.format("Range size(%d) must be > 0", size));
+    this.size = size;
+    this.mask = size - 1;
+    if (Utils.isPowerOfTwo(size)) {
+      kind = MASK;
+    } else if (reduction == IndexReduction.MULTIPLY_SHIFT) {
+      kind = size <= 0xFFFFFFFFL ? MULTIPLY_SHIFT_32 : MULTIPLY_SHIFT_64;
+    } else {
+      kind = MODULO;
+    }
+  }
+
+  long size() {
+    return size;
+  }
+
+  /**
+   * Reduction that gives the same range
+   * for the same size
+   */
+  IndexReduction reduction() {
+    switch (kind) {
+      case MASK:
+        return IndexReduction.POWER_OF_TWO;
+      case MULTIPLY_SHIFT_32:
+      case MULTIPLY_SHIFT_64:
+        return IndexReduction.MULTIPLY_SHIFT;
+      default:
+        return IndexReduction.MODULO;
+    }
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null || !(other instanceof IndexRange)) {
+      return false;
+    }
+    IndexRange that = (IndexRange) other;
+    return this.size == that.size && this.kind == that.kind;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(size) * 31 + kind;
+  }
+
+  /**
+   * @param hash positive hash
+   * @return index in range <code>[0, size)</code>
+   */
+  long index(long hash) {
+    switch (kind) {
+      case MASK:
+        return hash & mask;
+      case MULTIPLY_SHIFT_32:
+        // upper 32 bits of mixed hash, product fits in 64 bits
+        return (((hash * MIX) >>> 32) * size) >>> 32;
+      case MULTIPLY_SHIFT_64:
+        return Utils.unsignedMultiplyHigh(hash * MIX, size);
+      default:
+        return hash % size;
+    }
+  }
+}
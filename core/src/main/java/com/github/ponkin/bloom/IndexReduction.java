@@ -0,0 +1,42 @@
+package com.github.ponkin.bloom;
+
+/**
+ * How filter maps hash to index of bit,
+ * bucket or block. Applies to every range
+ * filter indexes - bits, slices, buckets or blocks.
+ *
+ * @author Alexey Ponkin
+ */
+public enum IndexReduction {
+
+  /**
+   * <code>hash % size</code>, the same layout
+   * as filters created before reduction could be chosen
+   */
+  MODULO,
+
+  /**
+   * Size is rounded up to power of two and
+   * index is <code>hash &amp; (size - 1)</code>.
+   * Filter may take up to twice as much memory,
+   * false positive rate only gets lower.
+   */
+  POWER_OF_TWO,
+
+  /**
+   * Lemire's multiply-shift reduction
+   * <code>(hash * size) &gt;&gt; 64</code>, size is not changed.
+   * Hash is multiplied by odd constant first, so hashers
+   * that fill only low bits are spread over whole range.
+   * See https://lemire.me/blog/2016/06/27/a-fast-alternative-to-the-modulo-reduction/
+   */
+  MULTIPLY_SHIFT;
+
+  /**
+   * Size of range that filter
+   * will use for required <code>size</code>
+   */
+  long size(long size) {
+    return this == POWER_OF_TWO ? Utils.nextPowerOfTwo(size) : size;
+  }
+}
@@ -15,17 +15,104 @@ final class Murmur3_128 {
     hash(data, Platform.BYTE_ARRAY_OFFSET, data.length, seed, hashes);
   }
 
-  static void hashLong(long data, long seed, long[] hashes) {
-    hash(new long[]{data}, Platform.LONG_ARRAY_OFFSET, 8, seed, hashes); // 8 - long`s size in bytes
+  /**
+   * Lower 64 bits of 128-bit hash,
+   * without result array allocation
+   */
+  static long hashBytes64(byte[] data, long seed) {
+    return hash(data, Platform.BYTE_ARRAY_OFFSET, data.length, seed, null);
+  }
+
+  /**
+   * Hash <code>length</code> bytes starting from <code>offset</code>
+   * of <code>base</code> object, or from raw address <code>offset</code>
+   * if <code>base</code> is null.
+   * Both halves are stored in <code>result</code> if it is not null.
+   *
+   * @return lower 64 bits of hash
+   */
+  static long hashUnsafeBytes(Object base, long offset, int length, long seed, long[] result) {
+    return hash(base, offset, length, seed, result);
+  }
+
+  /**
+   * Hash of UTF-16LE representation of <code>chars</code>,
+   * chars are read one by one without encoding.
+   * Both halves are stored in <code>result</code> if it is not null.
+   *
+   * @return lower 64 bits of hash
+   */
+  static long hashChars(CharSequence chars, long seed, long[] result) {
+    long h1 = seed & 0x00000000FFFFFFFFL;
+    long h2 = seed & 0x00000000FFFFFFFFL;
+
+    int numChars = chars.length();
+    int roundedEnd = numChars & 0xFFFFFFF8; // 8 chars in 16 byte block
+    for (int i = 0; i < roundedEnd; i += 8) {
+      long k1 = getLongFromChars(chars, i);
+      long k2 = getLongFromChars(chars, i + 4);
+
+      h1 ^= mixK1(k1);
+
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    long k1 = 0;
+    long k2 = 0;
+    int tail = numChars - roundedEnd;
+    for (int i = 0; i < tail; i++) {
+      long c = chars.charAt(roundedEnd + i);
+      if (i < 4) {
+        k1 |= c << (i << 4);
+      } else {
+        k2 |= c << ((i - 4) << 4);
+      }
+    }
+    if (tail > 4) {
+      h2 ^= mixK2(k2);
+    }
+    if (tail > 0) {
+      h1 ^= mixK1(k1);
+    }
+    return finish(h1, h2, numChars << 1, result);
   }
 
+  /**
+   * Hash of 8 byte little-endian representation
+   * of <code>data</code>, without allocation.
+   * Both halves are stored in <code>result</code>
+   * if it is not null.
+   *
+   * @return lower 64 bits of hash
+   */
+  static long hashLong(long data, long seed, long[] result) {
+    long h1 = seed & 0x00000000FFFFFFFFL;
+    long h2 = seed & 0x00000000FFFFFFFFL;
+    // whole item is a tail of 8 bytes
+    h1 ^= mixK1(data);
+    return finish(h1, h2, 8, result); // 8 - long`s size in bytes
+  }
+
+  /**
+   * Calculate 128-bit hash, both halves are stored in <code>result</code>
+   * if it is not null.
+   *
+   * @return lower 64 bits of hash
+   */
   @SuppressWarnings("fallthrough")
-  private static void hash(Object key, int offset, int length, long seed, long[] result) {
+  private static long hash(Object key, long offset, int length, long seed, long[] result) {
     long h1 = seed & 0x00000000FFFFFFFFL;
     long h2 = seed & 0x00000000FFFFFFFFL;
 
-    int roundedEnd = offset + (length & 0xFFFFFFF0); // round down to 16 byte block
-    for (int i = offset; i < roundedEnd; i += 16) {
+    long roundedEnd = offset + (length & 0xFFFFFFF0); // round down to 16 byte block
+    for (long i = offset; i < roundedEnd; i += 16) {
       long k1 = getLongLittleEndian(key, i);
       long k2 = getLongLittleEndian(key, i + 8);
 
@@ -78,6 +165,15 @@ final class Murmur3_128 {
         k1 |= (Platform.getByte(key, roundedEnd) & 0xFFL);
         h1 ^= mixK1(k1);
     }
+    return finish(h1, h2, length, result);
+  }
+
+  /**
+   * Final mix of both halves
+   *
+   * @return lower 64 bits of hash
+   */
+  private static long finish(long h1, long h2, int length, long[] result) {
     h1 ^= length;
     h2 ^= length;
 
@@ -90,14 +186,17 @@ final class Murmur3_128 {
     h1 += h2;
     h2 += h1;
 
-    result[0] = h1;
-    result[1] = h2;
+    if (result != null) {
+      result[0] = h1;
+      result[1] = h2;
+    }
+    return h1;
   }
 
   /**
    * Gets a long from a byte buffer in little endian byte order.
    */
-  private static long getLongLittleEndian(Object key, int offset) {
+  private static long getLongLittleEndian(Object key, long offset) {
     return (Platform.getByte(key, offset) & 0xFFL)
             | ((Platform.getByte(key, offset + 1) & 0xFFL) << 8)
             | ((Platform.getByte(key, offset + 2) & 0xFFL) << 16)
@@ -108,6 +207,16 @@ final class Murmur3_128 {
             | (((long) Platform.getByte(key, offset + 7)) << 56);
   }
 
+  /**
+   * Gets a long from 4 chars in little endian byte order.
+   */
+  private static long getLongFromChars(CharSequence chars, int index) {
+    return ((long) chars.charAt(index))
+            | ((long) chars.charAt(index + 1) << 16)
+            | ((long) chars.charAt(index + 2) << 32)
+            | ((long) chars.charAt(index + 3) << 48);
+  }
+
   private static long fmix64(long k) {
     k ^= k >>> 33;
     k *= 0xff51afd7ed558ccdL;
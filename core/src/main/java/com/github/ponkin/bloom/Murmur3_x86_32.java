@@ -52,6 +52,29 @@ final class Murmur3_x86_32 {
     return fmix(h1, lengthInBytes);
   }
 
+  /**
+   * Hash of UTF-16LE representation of <code>chars</code>,
+   * the same as {@link #hashUnsafeBytes(Object, long, int, int)}
+   * of encoded chars, but without encoding.
+   */
+  public static int hashChars(CharSequence chars, int seed) {
+    int numChars = chars.length();
+    int lengthAligned = numChars & 0xFFFFFFFE; // 2 chars in int
+    int h1 = seed;
+    for (int i = 0; i < lengthAligned; i += 2) {
+      int halfWord = chars.charAt(i) | (chars.charAt(i + 1) << 16);
+      int k1 = mixK1(halfWord);
+      h1 = mixH1(h1, k1);
+    }
+    if (lengthAligned < numChars) {
+      // tail bytes are mixed one by one as in hashUnsafeBytes
+      char c = chars.charAt(lengthAligned);
+      h1 = mixH1(h1, mixK1((byte) c));
+      h1 = mixH1(h1, mixK1((byte) (c >>> 8)));
+    }
+    return fmix(h1, numChars << 1);
+  }
+
   private static int hashBytesByInt(Object base, long offset, int lengthInBytes, int seed) {
     assert (lengthInBytes % 4 == 0);
     int h1 = seed;
@@ -1,18 +1,44 @@
 package com.github.ponkin.bloom;
 
-import sun.nio.ch.FileChannelImpl;
-
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
 /**
  * Bit array implementation with
  * off-heap memory management.
+ * Bits are changed with CAS on underlying
+ * words, so implementation is lock free.
+ * <p>
+ * Mapped file starts with one page of header,
+ * words follow it:
+ * <pre>
+ *   magic              4 bytes, "BLMM"
+ *   version            4 bytes
+ *   clean shutdown     4 bytes, 1 if file was closed
+ *   reserved           4 bytes
+ *   cardinality        8 bytes, valid if file was closed
+ *   number of bits     8 bytes
+ *   description length 4 bytes
+ *   description        header of filter snapshot, see {@link Snapshot}
+ * </pre>
+ * Files without header, written by previous versions,
+ * are mapped as is.
+ * <p>
+ * Words are addressed by segments of 1GB, file is mapped
+ * with {@link FileChannel#map} segment by segment, so files
+ * larger than 2GB are supported without private JDK API.
  *
  * @author Alexey Ponkin
  */
@@ -26,15 +52,66 @@ class OffHeapBitArray implements BitSet {
     MMAP
   }
 
-  private static Method map0 =
-    Platform.getMethod(FileChannelImpl.class, "map0", int.class, long.class, long.class);
-  private static Method unmap0 =
-    Platform.getMethod(FileChannelImpl.class, "unmap0", long.class, long.class);
+  /*
+   * Size of cache line, malloc`ed memory
+   * is aligned to it, mapped memory is page aligned anyway
+   */
+  private static final long CACHE_LINE_SIZE = 64L;
+
+  /*
+   * Header of mapped file, page size
+   * keeps words page aligned
+   */
+  static final int FILE_HEADER_SIZE = 4096;
+
+  static final int FILE_MAGIC = 0x4D4D4C42; // "BLMM"
+
+  private static final int FILE_VERSION = 1;
+
+  private static final int VERSION_OFFSET = 4;
+  private static final int CLEAN_OFFSET = 8;
+  private static final int CARDINALITY_OFFSET = 16;
+  private static final int NUM_BITS_OFFSET = 24;
+  private static final int DESCRIPTION_LENGTH_OFFSET = 32;
+  private static final int DESCRIPTION_OFFSET = 36;
+
+  /*
+   * Size of words segment, single MappedByteBuffer
+   * can not be larger than 2GB
+   */
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  /*
+   * Memory counted by one task of parallel popcount,
+   * segment size is multiple of it
+   */
+  private static final long POPCOUNT_CHUNK = 1L << 24;
 
   private final RandomAccessFile file;
-  private final long addr;
+  /*
+   * Address returned by allocator,
+   * must be used to free memory
+   */
+  private final long rawAddr;
+  /*
+   * Mapped file header or null/0 if
+   * there is no header
+   */
+  private final MappedByteBuffer header;
+  private final long headerAddr;
+  /*
+   * Mapped words, one buffer per segment
+   */
+  private final MappedByteBuffer[] buffers;
+  /*
+   * Address of every segment of words
+   */
+  private final long[] segments;
   private final long numBits;
-  private long bitCount = 0L;
+  private final LongAdder bitCount = new LongAdder();
+  private final boolean closedCleanly;
   private State state;
 
   // word is 8 bits
@@ -56,8 +133,18 @@ class OffHeapBitArray implements BitSet {
   OffHeapBitArray(long numBits) {
     log.log(Level.FINE, String.format("Allocating off-heap memory for %1$d bits", numBits));
     this.file = null;
-    this.addr = Platform.allocateRaw(numWords(numBits));
+    long size = numWords(numBits);
+    this.rawAddr = Platform.allocateRaw(size + CACHE_LINE_SIZE);
+    long addr = (rawAddr + CACHE_LINE_SIZE - 1) & -CACHE_LINE_SIZE;
+    this.segments = new long[numSegments(size)];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = addr + ((long) i << SEGMENT_SHIFT);
+    }
+    this.header = null;
+    this.headerAddr = 0L;
+    this.buffers = null;
     this.numBits = numBits;
+    this.closedCleanly = true;
     this.state = State.MALLOC;
   }
 
@@ -74,10 +161,46 @@ class OffHeapBitArray implements BitSet {
     this.numBits = numBits;
     long size = numWords(numBits);
     try {
-      this.file.setLength(size);
-      this.addr = map(this.file, 1, 0L, size);
+      long length = this.file.length();
+      boolean legacy = length == size && readMagic(this.file) != FILE_MAGIC;
+      long headerSize = legacy ? 0L : FILE_HEADER_SIZE;
+      this.file.setLength(headerSize + size);
+      FileChannel channel = this.file.getChannel();
+      this.rawAddr = 0L;
+      this.header = legacy ? null : channel.map(FileChannel.MapMode.READ_WRITE, 0L, headerSize);
+      this.headerAddr = legacy ? 0L : Platform.getByteBufferAddress(header);
+      this.buffers = new MappedByteBuffer[numSegments(size)];
+      this.segments = new long[buffers.length];
+      for (int i = 0; i < buffers.length; i++) {
+        long offset = (long) i << SEGMENT_SHIFT;
+        buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+            headerSize + offset, Math.min(SEGMENT_SIZE, size - offset));
+        segments[i] = Platform.getByteBufferAddress(buffers[i]);
+      }
       this.state = State.MMAP;
+      boolean known = !legacy && Platform.getInt(null, headerAddr) == FILE_MAGIC
+        && Platform.getInt(null, headerAddr + VERSION_OFFSET) == FILE_VERSION
+        && Platform.getLong(headerAddr + NUM_BITS_OFFSET) == numBits;
+      this.closedCleanly = known && Platform.getInt(null, headerAddr + CLEAN_OFFSET) == 1;
+      if (closedCleanly) {
+        bitCount.add(Platform.getLong(headerAddr + CARDINALITY_OFFSET));
+      } else if (length > 0) {
+        // file may keep bits of previous run
+        log.log(Level.INFO, String.format("Counting bits of '%s', it was not closed", file));
+        bitCount.add(popcount(segments, size));
+      }
+      if (!legacy) {
+        if (!known) {
+          Platform.clear(headerAddr, FILE_HEADER_SIZE);
+          Platform.putInt(null, headerAddr, FILE_MAGIC);
+          Platform.putInt(null, headerAddr + VERSION_OFFSET, FILE_VERSION);
+          Platform.putLong(headerAddr + NUM_BITS_OFFSET, numBits);
+        }
+        // cardinality is not valid until file is closed
+        Platform.putInt(null, headerAddr + CLEAN_OFFSET, 0);
+      }
     } catch (IOException e) {
+      // segments mapped so far are unmapped by GC
       log.log(Level.SEVERE, "Error while creating Offheap bitarray", e);
       try {
         this.file.close();
@@ -88,6 +211,101 @@ class OffHeapBitArray implements BitSet {
     }
   }
 
+  private static int readMagic(RandomAccessFile file) throws IOException {
+    if (file.length() < 4) {
+      return 0;
+    }
+    file.seek(0L);
+    // header is written in native order
+    int magic = file.readInt();
+    return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? magic : Integer.reverseBytes(magic);
+  }
+
+  private static int numSegments(long size) {
+    return (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+  }
+
+  private static long segmentSize(int segment, long size) {
+    return Math.min(SEGMENT_SIZE, size - ((long) segment << SEGMENT_SHIFT));
+  }
+
+  /*
+   * Address of byte <code>pos</code> of words,
+   * word never crosses segment
+   */
+  private static long address(long[] segments, long pos) {
+    return segments[(int) (pos >>> SEGMENT_SHIFT)] + (pos & SEGMENT_MASK);
+  }
+
+  /**
+   * Count bits of <code>size</code> bytes of words kept
+   * in <code>segments</code>, chunks are counted in parallel
+   */
+  static long popcount(long[] segments, long size) {
+    long numChunks = (size + POPCOUNT_CHUNK - 1) / POPCOUNT_CHUNK;
+    return LongStream.range(0, numChunks).parallel().map(chunk -> {
+      long from = chunk * POPCOUNT_CHUNK;
+      long addr = address(segments, from);
+      long to = Math.min(size, from + POPCOUNT_CHUNK) - from;
+      long count = 0L;
+      for (long pos = 0; pos < to; pos += 8) {
+        count += Long.bitCount(Platform.getLong(addr + pos));
+      }
+      return count;
+    }).sum();
+  }
+
+  /**
+   * True if bit array is not mapped or mapped file
+   * was closed, so bits were counted without scanning
+   * and filter state kept in description is valid
+   */
+  boolean closedCleanly() {
+    return closedCleanly;
+  }
+
+  /**
+   * Keep filter description in header of mapped file,
+   * see {@link #description(File)}. Does nothing if
+   * bit array is not mapped or file has no header.
+   */
+  void describe(Snapshot description) {
+    if (headerAddr == 0L) {
+      return;
+    }
+    byte[] bytes = description.toBytes();
+    Utils.checkArgument(bytes.length <= FILE_HEADER_SIZE - DESCRIPTION_OFFSET,
+       String.format("Filter description of %d bytes does not fit in file header", bytes.length));
+    Platform.copyMemory(bytes, Platform.BYTE_ARRAY_OFFSET, null, headerAddr + DESCRIPTION_OFFSET, bytes.length);
+    Platform.putInt(null, headerAddr + DESCRIPTION_LENGTH_OFFSET, bytes.length);
+  }
+
+  /**
+   * Read description of filter mapped to <code>file</code>
+   * without mapping it
+   *
+   * @return description or null if file has no header
+   * or filter was not described
+   */
+  static Snapshot description(File file) throws IOException {
+    byte[] header = new byte[FILE_HEADER_SIZE];
+    try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+      if (f.length() < FILE_HEADER_SIZE) {
+        return null;
+      }
+      f.readFully(header);
+    }
+    ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.nativeOrder());
+    if (buf.getInt(0) != FILE_MAGIC || buf.getInt(VERSION_OFFSET) != FILE_VERSION) {
+      return null;
+    }
+    int length = buf.getInt(DESCRIPTION_LENGTH_OFFSET);
+    if (length <= 0 || length > FILE_HEADER_SIZE - DESCRIPTION_OFFSET) {
+      return null;
+    }
+    return Snapshot.fromBytes(Arrays.copyOfRange(header, DESCRIPTION_OFFSET, DESCRIPTION_OFFSET + length));
+  }
+
   /**
    * Return  size of bit array in number of bits
    *
@@ -105,7 +323,7 @@ class OffHeapBitArray implements BitSet {
    */
   @Override
   public long cardinality() {
-    return bitCount;
+    return bitCount.sum();
   }
 
   /**
@@ -113,43 +331,107 @@ class OffHeapBitArray implements BitSet {
    */
   @Override
   public void clear() {
-    Platform.clear(addr, numWords(numBits));
+    long size = numWords(numBits);
+    for (int i = 0; i < segments.length; i++) {
+      Platform.clear(segments[i], segmentSize(i, size));
+    }
+    bitCount.reset();
   }
 
   @Override
   public boolean get(long index) {
     long pos = (index >>> 6) << 3;
     long chunk = 1L << index;
-    long bit = Platform.getLong(addr+pos);
+    long bit = Platform.getLong(address(segments, pos));
     return (bit & chunk) != 0L;
   }
 
   @Override
   public boolean set(long index) {
-    long pos = (index >>> 6) << 3;
+    long pos = address(segments, (index >>> 6) << 3);
     long bit = 1L << index;
-    long chunk = Platform.getLong(addr+pos);
-    if( (bit & chunk) == 0L) {
-      Platform.putLong(addr+pos, chunk | bit);
-      bitCount++;
-      return true;      
-    }
-    return false;      
+    long chunk;
+    do {
+      chunk = Platform.getLong(pos);
+      if( (bit & chunk) != 0L) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(pos, chunk, chunk | bit));
+    bitCount.increment();
+    return true;
   }
 
   @Override
   public boolean unset(long index) {
-    long pos = (index >>> 6) << 3;
+    long pos = address(segments, (index >>> 6) << 3);
     long bit = 1L << index;
-    long chunk = Platform.getLong(addr+pos);
-    if( (bit & chunk) != 0L) {
-      Platform.putLong(addr+pos, chunk & ~bit);
-      bitCount--;
-      return true;      
+    long chunk;
+    do {
+      chunk = Platform.getLong(pos);
+      if( (bit & chunk) == 0L) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(pos, chunk, chunk & ~bit));
+    bitCount.decrement();
+    return true;
+  }
+
+  @Override
+  public long getWord(long wordIndex) {
+    return Platform.getLong(address(segments, wordIndex << 3));
+  }
+
+  @Override
+  public boolean setBits(long wordIndex, long mask) {
+    long pos = address(segments, wordIndex << 3);
+    long chunk;
+    do {
+      chunk = Platform.getLong(pos);
+      if ((chunk | mask) == chunk) {
+        return false;
+      }
+    } while (!Platform.compareAndSwapLong(pos, chunk, chunk | mask));
+    bitCount.add(Long.bitCount(chunk | mask) - Long.bitCount(chunk));
+    return true;
+  }
+
+  @Override
+  public long replaceBits(long wordIndex, long mask, long value) {
+    long pos = address(segments, wordIndex << 3);
+    long chunk;
+    long update;
+    do {
+      chunk = Platform.getLong(pos);
+      update = (chunk & ~mask) | (value & mask);
+      if (update == chunk) {
+        return chunk;
+      }
+    } while (!Platform.compareAndSwapLong(pos, chunk, update));
+    bitCount.add(Long.bitCount(update) - Long.bitCount(chunk));
+    return chunk;
+  }
+
+  @Override
+  public boolean compareAndSetWord(long wordIndex, long expected, long update) {
+    if (!Platform.compareAndSwapLong(address(segments, wordIndex << 3), expected, update)) {
+      return false;
     }
-    return false;      
+    bitCount.add(Long.bitCount(update) - Long.bitCount(expected));
+    return true;
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    Snapshot.writeWords(null, segments, SEGMENT_SIZE, numWords(numBits), out);
   }
 
+  @Override
+  public void readFrom(ReadableByteChannel in) throws IOException {
+    long size = numWords(numBits);
+    Snapshot.readWords(null, segments, SEGMENT_SIZE, size, in);
+    bitCount.reset();
+    bitCount.add(popcount(segments, size));
+  }
 
   @Override
   public void putAll(BitSet array) throws Exception {
@@ -160,26 +442,37 @@ class OffHeapBitArray implements BitSet {
     if (this.numBits != other.numBits) {
       throw new IncompatibleMergeException("Can`t merge bitsets with different size");
     }
-    long bitCount = 0;
     long size = numWords(numBits);
+    // OR every word atomically, concurrent set() calls are not lost
     for(long offset = 0; offset < size; offset+=8) {
-      long thisByte = Platform.getLong(this.addr+offset);
-      long otherByte = Platform.getLong(other.addr+offset);
-      long newChunk = thisByte | otherByte;
-      Platform.putLong(this.addr+offset, newChunk);
-      bitCount += Long.bitCount(newChunk);
+      long otherChunk = Platform.getLong(address(other.segments, offset));
+      long pos = address(segments, offset);
+      long thisChunk;
+      do {
+        thisChunk = Platform.getLong(pos);
+      } while ((thisChunk | otherChunk) != thisChunk
+          && !Platform.compareAndSwapLong(pos, thisChunk, thisChunk | otherChunk));
+      bitCount.add(Long.bitCount(thisChunk | otherChunk) - Long.bitCount(thisChunk));
     }
-    this.bitCount = bitCount;    
   }
 
   @Override
   public void close() {
     switch(state) {
       case MALLOC :
-        Platform.freeMemory(addr);
+        Platform.freeMemory(rawAddr);
         break;
       case MMAP:
-        unmap(addr, numWords(numBits));
+        if (headerAddr != 0L) {
+          Platform.putLong(headerAddr + CARDINALITY_OFFSET, bitCount.sum());
+          Platform.putInt(null, headerAddr + CLEAN_OFFSET, 1);
+        }
+        if (header != null) {
+          Platform.freeDirectBuffer(header);
+        }
+        for (MappedByteBuffer buffer : buffers) {
+          Platform.freeDirectBuffer(buffer);
+        }
         try {
           file.close();
         } catch (IOException err) {
@@ -189,27 +482,4 @@ class OffHeapBitArray implements BitSet {
     }
     state = State.CLOSED;
   }
-
-  private static long map(RandomAccessFile f, int mode, long start, long size) throws IOException {
-    try {
-      return (Long) map0.invoke(f.getChannel(), mode, start, size);
-    } catch (IllegalAccessException e) {
-      throw new IllegalStateException(e);
-    } catch (InvocationTargetException e) {
-      Throwable target = e.getTargetException();
-      throw (target instanceof IOException) ? (IOException) target : new IOException(target);
-    }
-  }
-
-  private static void unmap(long start, long size) {
-    try {
-      unmap0.invoke(null, start, size);
-    } catch (IllegalAccessException e) {
-      throw new IllegalStateException(e);
-    } catch (InvocationTargetException err) {
-      // Should not happen
-      log.log(Level.SEVERE, "Error while invoking private sun API", err);
-    }
-  }  
 }
-
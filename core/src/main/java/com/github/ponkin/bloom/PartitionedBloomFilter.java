@@ -2,10 +2,9 @@ package com.github.ponkin.bloom;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.atomic.AtomicLong;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * PartitionedBloomFilter implements a variation of a classic Bloom filter as
@@ -23,11 +22,14 @@ import java.io.IOException;
  * Bloom filter.
  * There is no reason to use it instead of classic bloom filter.
  * We use it only inside {@link ScalableBloomFilter}
+ * Implementation is thread safe and lock free like {@link BloomFilter}:
+ * bits are set with CAS on words of underlying bit array
+ * and single bit reads need no locks.
  * @see ScalableBloomFilter
  *
  * @author Alexey Ponkin
  */
-class PartitionedBloomFilter implements Filter {
+class PartitionedBloomFilter extends AbstractFilter {
 
   private static final Logger log = Logger.getLogger(PartitionedBloomFilter.class.getName());
 
@@ -40,120 +42,76 @@ class PartitionedBloomFilter implements Filter {
 
   private final int numHashFunctions;
 
-  private final HashFunction strategy;
-
   /*
    * Size of slice  (bits.bitSize() / k)
    */
   private final long sliceSize;
 
-  /**
-   * Mask for fast division by 32
-   * since we have default parallelism = 32
-   * https://graphics.stanford.edu/~seander/bithacks.html#ModulusDivision
-   */
-  private static final long FAST_MOD_32 = 0x1FL;
-
-  /*
-   * Number of memory segments
-   * Clients can put items in each segment concurrently
-   */
-  private static final int DEFAULT_CONCURRENCY_LEVEL = 32; // parallelism
-
-  private final ReentrantReadWriteLock[] segments = new ReentrantReadWriteLock[DEFAULT_CONCURRENCY_LEVEL];
-
-  /*
-   * Number of items added
-   */
-  private final AtomicLong numItems;
+  private final IndexRange range;
 
   PartitionedBloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy, long sliceSize) {
+    this(bits, numHashFunctions, strategy, sliceSize, IndexReduction.MODULO);
+  }
+
+  PartitionedBloomFilter(BitSet bits, int numHashFunctions, HashFunction strategy, long sliceSize,
+                         IndexReduction reduction) {
+    super(strategy, numHashFunctions);
     log.log(Level.FINE,
       String.format(
         "PartitionedBloomFilter: %1$d hash functions, %2$d bits, %3$d slice length",
           numHashFunctions, bits.bitSize(), sliceSize));
     this.bits = bits;
     this.numHashFunctions = numHashFunctions;
-    this.strategy = strategy;
     this.sliceSize = sliceSize; // sliceSize must be equals sliceSize*numHashFunctions
-    this.numItems = new AtomicLong(0);
-    for(int i=0;i<DEFAULT_CONCURRENCY_LEVEL;i++) {
-      segments[i] = new ReentrantReadWriteLock();
-    }
+    this.range = new IndexRange(sliceSize, reduction);
   }
 
   @Override
-  public boolean remove(byte[] bytes) {
+  boolean removeHashes(long[] hashes) {
     throw new UnsupportedOperationException("remove() method is not supported in PartitionedBloomFilter");
   }
 
   @Override
-  public boolean mightContain(byte[] bytes) {
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(bytes, hashes);
-
+  boolean mightContainHashes(long[] hashes) {
     boolean mightContain = true;
-    for(int i = 0; i < hashes.length && mightContain; i++) {
-      long idx = i * sliceSize + (hashes[i] % sliceSize);
-      // x mod n = x & (n-1) if n equals power of 2
-      // idx is always positive
-      ReentrantReadWriteLock.ReadLock currentLock = segments[(int)(idx & FAST_MOD_32)].readLock();
-      currentLock.lock();
-      try { // just in case something goes wrong
-        if (!bits.get(idx)) {
-          mightContain = false;
-        }
-      } finally {
-        currentLock.unlock();
+    for(int i = 0; i < numHashFunctions && mightContain; i++) {
+      // bits are only set between clears, so reading
+      // stale word can not turn set bit back to 0
+      if (!bits.get(i * sliceSize + range.index(hashes[i]))) {
+        mightContain = false;
       }
     }
     return mightContain;
   }
 
   @Override
-  public boolean put(byte[] bytes) {
+  boolean putHashes(long[] hashes) {
     // each of k hashes has it`s own bit vector slice
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(bytes, hashes);
-
     boolean bitsChanged = false;
-    for (int i = 0; i < hashes.length; i++) {
-      long idx = i * sliceSize + (hashes[i] % sliceSize);
-      // x mod n = x & (n-1) if n equals power of 2
-      // idx is always positive
-      ReentrantReadWriteLock.WriteLock currentLock = segments[(int)(idx & FAST_MOD_32)].writeLock();
-      currentLock.lock();
-      try { // just in case something goes wrong
-        bitsChanged |= bits.set(idx);
-      } finally {
-        currentLock.unlock();
-      }
-    }
-    if(bitsChanged) {
-      numItems.incrementAndGet();
+    for (int i = 0; i < numHashFunctions; i++) {
+      // index is always positive
+      bitsChanged |= bits.set(i * sliceSize + range.index(hashes[i]));
     }
     return bitsChanged;
   }
 
-  public double estimatedFillRatio() {
-    return 1D - Math.exp((double)numItems.get()/(double)sliceSize);
+  /**
+   * Fraction of set bits, the same as average
+   * fraction of set bits in slice since all slices
+   * have equal size. Bit vector counts set bits
+   * on every change, so it is cheap to call on every put.
+   * It is exact even for repeated items and after merge,
+   * unlike estimate from number of puts.
+   *
+   * @return number between 0 and 1
+   */
+  public double fillRatio() {
+    return (double) bits.cardinality() / bits.bitSize();
   }
 
   @Override
   public void clear() {
-    ReentrantReadWriteLock.WriteLock[] locks = 
-      new ReentrantReadWriteLock.WriteLock[segments.length];
-    for(int i=0; i<segments.length; i++) {
-      locks[i] = segments[i].writeLock();
-      locks[i].lock();
-    }
-    try { // just in case something goes wrong
-      bits.clear();
-    } finally {
-      for (ReentrantReadWriteLock.WriteLock seg : locks) {
-        seg.unlock();
-      }
-    }
+    bits.clear();
   }
 
   @Override
@@ -178,21 +136,11 @@ class PartitionedBloomFilter implements Filter {
           "Cannot merge bloom filters with different number of hash functions");
     }
 
-    // lock all segments
-    ReentrantReadWriteLock.WriteLock[] locks = 
-      new ReentrantReadWriteLock.WriteLock[segments.length];
-    for(int i=0; i<segments.length; i++) {
-      locks[i] = segments[i].writeLock();
-      locks[i].lock();
+    if (!this.range.equals(that.range)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
     }
 
-    try { // just in case something goes wrong
-      this.bits.putAll(that.bits);
-    } finally {
-      for (ReentrantReadWriteLock.WriteLock seg : locks) {
-        seg.unlock();
-      }
-    }
+    this.bits.putAll(that.bits);
     return this;
   }
 
@@ -203,7 +151,7 @@ class PartitionedBloomFilter implements Filter {
 
   @Override
   public double expectedFpp() {
-    return Math.pow((double) bits.cardinality() / bits.bitSize(), numHashFunctions);
+    return Math.pow(fillRatio(), numHashFunctions);
   }
 
   public int getNumOfHashFunctions(){
@@ -214,6 +162,23 @@ class PartitionedBloomFilter implements Filter {
     return bits.bitSize();
   }
 
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.PARTITIONED, strategy, range.reduction(), 0,
+        numHashFunctions, 0, 0, bits.bitSize(), sliceSize);
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bits.writeTo(out);
+  }
+
+  static PartitionedBloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    long sliceSize = header.param(0);
+    return new PartitionedBloomFilter(bits, header.numHashFunctions, header.hasher, sliceSize, header.reduction);
+  }
+
   @Override
   public void close() {
     try{
@@ -232,7 +197,8 @@ class PartitionedBloomFilter implements Filter {
       return false;
     }
     PartitionedBloomFilter that = (PartitionedBloomFilter) other;
-    return this.numHashFunctions == that.numHashFunctions && this.bits.equals(that.bits);
+    return this.numHashFunctions == that.numHashFunctions
+      && this.range.equals(that.range) && this.bits.equals(that.bits);
   }
 
   public static Builder builder() {
@@ -248,6 +214,7 @@ class PartitionedBloomFilter implements Filter {
     private File file = null;
     private boolean useOffHeapMemory = false;
     private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
 
     private Builder() {
       super();
@@ -283,6 +250,12 @@ class PartitionedBloomFilter implements Filter {
       return this;
     }
 
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
     public PartitionedBloomFilter build() throws IOException {
       if(!useOffHeapMemory) {
         Utils.checkArgument(file == null,
@@ -294,8 +267,8 @@ class PartitionedBloomFilter implements Filter {
       log.log(Level.FINE, "Optimal num bits are"+String.valueOf(numBits));
       int numHashFunctions = Utils.optimalNumOfHashFunctions(capacity, numBits);
       // align numBits with modulo k - to have equal size slices
-      numBits = ((numBits+numHashFunctions-1) / numHashFunctions) * numHashFunctions;
-      long sliceSize = numBits / numHashFunctions;
+      long sliceSize = reduction.size((numBits+numHashFunctions-1) / numHashFunctions);
+      numBits = sliceSize * numHashFunctions;
       if(file != null) {
         bitset = new OffHeapBitArray(file, numBits);
       } else {
@@ -305,7 +278,9 @@ class PartitionedBloomFilter implements Filter {
           bitset = new BitArray(numBits);
         }
       }
-      return new PartitionedBloomFilter(bitset, numHashFunctions, hasher, sliceSize);
+      PartitionedBloomFilter filter =
+        new PartitionedBloomFilter(bitset, numHashFunctions, hasher, sliceSize, reduction);
+      return Snapshot.describe(filter, bitset);
     }
   }
 }
@@ -1,9 +1,9 @@
 package com.github.ponkin.bloom;
 
 import sun.misc.Unsafe;
-import sun.misc.Cleaner;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
@@ -20,6 +20,20 @@ final class Platform {
 
   public static final int DOUBLE_ARRAY_OFFSET;
 
+  /*
+   * Offset of Buffer.address field,
+   * resolved once instead of reflection on every call
+   */
+  private static final long BUFFER_ADDRESS_OFFSET;
+
+  /*
+   * Unsafe.invokeCleaner since JDK 9,
+   * DirectBuffer.cleaner().clean() on JDK 8
+   */
+  private static final Method INVOKE_CLEANER;
+  private static final Method DIRECT_BUFFER_CLEANER;
+  private static final Method CLEANER_CLEAN;
+
   public static int getInt(Object object, long offset) {
     return _UNSAFE.getInt(object, offset);
   }
@@ -76,6 +90,18 @@ final class Platform {
     _UNSAFE.putLong(object, offset, value);
   }
 
+  public static long getLongVolatile(Object object, long offset) {
+    return _UNSAFE.getLongVolatile(object, offset);
+  }
+
+  public static boolean compareAndSwapLong(Object object, long offset, long expected, long value) {
+    return _UNSAFE.compareAndSwapLong(object, offset, expected, value);
+  }
+
+  public static boolean compareAndSwapLong(long address, long expected, long value) {
+    return _UNSAFE.compareAndSwapLong(null, address, expected, value);
+  }
+
   public static float getFloat(Object object, long offset) {
     return _UNSAFE.getFloat(object, offset);
   }
@@ -170,24 +196,35 @@ final class Platform {
     }
   }
 
-  public static long allocateMemory(long size, Object holder) {
-    final long address = _UNSAFE.allocateMemory(size);
-    Cleaner.create(holder, new Runnable() {
-      @Override
-      public void run() {
-        _UNSAFE.freeMemory(address);
-      }
-    });
-    return address;
-  }
-
-  public static long getByteBufferAddress(ByteBuffer buffer) {
+  /**
+   * Free memory of direct <code>buffer</code> or unmap it
+   * if buffer is mapped without waiting for GC,
+   * buffer must not be used after that
+   */
+  public static void freeDirectBuffer(ByteBuffer buffer) {
     try {
-      return getField(Buffer.class, "address").getLong(buffer);
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(_UNSAFE, buffer);
+      } else {
+        Object cleaner = DIRECT_BUFFER_CLEANER.invoke(buffer);
+        if (cleaner != null) {
+          CLEANER_CLEAN.invoke(cleaner);
+        }
+      }
     } catch (IllegalAccessException e) {
       throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throwException(e.getTargetException());
     }
-  }  
+  }
+
+  /**
+   * Address of first byte of direct <code>buffer</code>,
+   * position is not taken into account
+   */
+  public static long getByteBufferAddress(ByteBuffer buffer) {
+    return _UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+  }
 
   /**
    * Limits the number of bytes to copy per {@link Unsafe#copyMemory(long, long, long)} to
@@ -211,11 +248,35 @@ final class Platform {
       INT_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(int[].class);
       LONG_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(long[].class);
       DOUBLE_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(double[].class);
+      try {
+        // no setAccessible, offset of non public field is available anyway
+        BUFFER_ADDRESS_OFFSET = _UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+      } catch (NoSuchFieldException e) {
+        throw new IllegalStateException(e);
+      }
     } else {
       BYTE_ARRAY_OFFSET = 0;
       INT_ARRAY_OFFSET = 0;
       LONG_ARRAY_OFFSET = 0;
       DOUBLE_ARRAY_OFFSET = 0;
+      BUFFER_ADDRESS_OFFSET = 0;
+    }
+
+    Method invokeCleaner = null;
+    Method directBufferCleaner = null;
+    Method cleanerClean = null;
+    try {
+      invokeCleaner = Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (NoSuchMethodException e) {
+      try {
+        directBufferCleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        cleanerClean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      } catch (ClassNotFoundException | NoSuchMethodException err) {
+        throw new IllegalStateException(err);
+      }
     }
+    INVOKE_CLEANER = invokeCleaner;
+    DIRECT_BUFFER_CLEANER = directBufferCleaner;
+    CLEANER_CLEAN = cleanerClean;
   }
 }
@@ -2,9 +2,16 @@ package com.github.ponkin.bloom;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Scalable bloom filter implementation
@@ -14,6 +21,9 @@ import java.io.IOException;
  * isn't known a priori and memory constraints aren't of particular concern.
  * For situations where memory is bounded, consider using Inverse or Stable
  * Bloom Filters
+ * <p>
+ * Item is hashed once for all filters, filters are
+ * probed newest first until one of them contains item.
  *
  * @author Alexey Ponkin
  */
@@ -41,20 +51,83 @@ public class ScalableBloomFilter implements Filter {
    */
   private final long hint;
 
+  /**
+   * capacity growth of every new filter
+   */
+  private final int growth;
+
   private final boolean useOffHeapMemory;
 
+  /**
+   * filter number <code>i</code> is mapped to <code>file.i</code>
+   */
+  private final File file;
+
+  private final HashFunction hasher;
+
+  private final IndexReduction reduction;
+
   private final Deque<PartitionedBloomFilter> filters;
 
-  ScalableBloomFilter(double ratio, double fpp, double pratio, long hint, boolean useOffHeapMemory) throws IOException {
+  /*
+   * Maximum number of hash functions of all filters,
+   * updated before new filter is published
+   */
+  private volatile int numHashes;
+
+  /*
+   * Hashes are computed once and shared between filters.
+   * Filter with k hash functions uses first k hashes,
+   * they are the same as its own hashes would be.
+   * Buffer is reused between calls of the same thread
+   * and grows with number of hash functions
+   */
+  private final ThreadLocal<long[]> hashBuffer = ThreadLocal.withInitial(() -> new long[0]);
+
+  ScalableBloomFilter(double ratio, double fpp, double pratio, long hint, int growth, boolean useOffHeapMemory,
+                      File file, HashFunction hasher, IndexReduction reduction) throws IOException {
+    this(ratio, fpp, pratio, hint, growth, useOffHeapMemory, file, hasher, reduction, Collections.emptyList());
+  }
+
+  /**
+   * @param layers filters of chain, oldest first,
+   * new filter is created if there are none
+   */
+  ScalableBloomFilter(double ratio, double fpp, double pratio, long hint, int growth, boolean useOffHeapMemory,
+                      File file, HashFunction hasher, IndexReduction reduction,
+                      List<PartitionedBloomFilter> layers) throws IOException {
     this.ratio = ratio;
     this.fpp = fpp;
     this.pratio = pratio;
     this.hint = hint;
+    this.growth = growth;
     this.useOffHeapMemory = useOffHeapMemory;
+    this.file = file;
+    this.hasher = hasher;
+    this.reduction = reduction;
     this.filters = new ConcurrentLinkedDeque<>(); // must be concurrent to safe publishing inside synchronized
-    this.filters.addFirst(newFilter());
+    for (PartitionedBloomFilter layer : layers) {
+      numHashes = Math.max(numHashes, layer.getNumOfHashFunctions());
+      filters.addFirst(layer);
+    }
+    if (filters.isEmpty()) {
+      addFilter();
+    }
+  }
+
+  /**
+   * Per thread buffer for hashes of all filters
+   */
+  private long[] hashBuffer() {
+    long[] hashes = hashBuffer.get();
+    int k = numHashes;
+    if (hashes.length < k) {
+      hashes = new long[k];
+      hashBuffer.set(hashes);
+    }
+    return hashes;
   }
-  
+
   @Override
   public boolean remove(byte[] bytes) {
     throw new UnsupportedOperationException("remove() method is not supported in ScalableBloomFilter");
@@ -62,25 +135,129 @@ public class ScalableBloomFilter implements Filter {
 
   @Override
   public boolean mightContain(byte[] bytes) {
-    // check all availaible filters
-    boolean mightContain = false;
-    for(Filter filter: filters) {
-      if(filter.mightContain(bytes)) {
-        mightContain = true;
-        break;
-      }
-    }
-    return mightContain;
+    long[] hashes = hashBuffer();
+    hasher.hashes(bytes, hashes);
+    return mightContainHashes(hashes);
+  }
+
+  @Override
+  public boolean mightContain(byte[] data, int offset, int length) {
+    long[] hashes = hashBuffer();
+    hasher.hashes(data, offset, length, hashes);
+    return mightContainHashes(hashes);
+  }
+
+  @Override
+  public boolean mightContain(long item) {
+    long[] hashes = hashBuffer();
+    hasher.hashes(item, hashes);
+    return mightContainHashes(hashes);
+  }
+
+  @Override
+  public boolean mightContain(ByteBuffer buffer) {
+    long[] hashes = hashBuffer();
+    hasher.hashes(buffer, hashes);
+    return mightContainHashes(hashes);
+  }
+
+  @Override
+  public boolean mightContainChars(CharSequence chars) {
+    long[] hashes = hashBuffer();
+    hasher.hashChars(chars, hashes);
+    return mightContainHashes(hashes);
   }
 
   @Override
   public boolean put(byte[] bytes) {
-    // If the active filter has reached its fill ratio, add a new one.
-    if(filters.peekFirst().estimatedFillRatio() >= pratio) {
+    if (!ensureCapacity()) {
+      return false;
+    }
+    long[] hashes = hashBuffer();
+    hasher.hashes(bytes, hashes);
+    return putHashes(hashes);
+  }
+
+  @Override
+  public boolean put(byte[] data, int offset, int length) {
+    if (!ensureCapacity()) {
+      return false;
+    }
+    long[] hashes = hashBuffer();
+    hasher.hashes(data, offset, length, hashes);
+    return putHashes(hashes);
+  }
+
+  @Override
+  public boolean put(long item) {
+    if (!ensureCapacity()) {
+      return false;
+    }
+    long[] hashes = hashBuffer();
+    hasher.hashes(item, hashes);
+    return putHashes(hashes);
+  }
+
+  @Override
+  public boolean put(ByteBuffer buffer) {
+    if (!ensureCapacity()) {
+      return false;
+    }
+    long[] hashes = hashBuffer();
+    hasher.hashes(buffer, hashes);
+    return putHashes(hashes);
+  }
+
+  @Override
+  public boolean putChars(CharSequence chars) {
+    if (!ensureCapacity()) {
+      return false;
+    }
+    long[] hashes = hashBuffer();
+    hasher.hashChars(chars, hashes);
+    return putHashes(hashes);
+  }
+
+  /**
+   * Check all filters, newest first.
+   * Filter added after hashes were computed can have
+   * more hash functions than hashed, it is skipped:
+   * it has only items put concurrently with this lookup.
+   */
+  private boolean mightContainHashes(long[] hashes) {
+    for(PartitionedBloomFilter filter: filters) {
+      if(filter.getNumOfHashFunctions() <= hashes.length
+          && filter.mightContainHashes(hashes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Put item in the newest filter hashes are enough for,
+   * it is the newest one unless filter was added concurrently
+   */
+  private boolean putHashes(long[] hashes) {
+    for(PartitionedBloomFilter filter: filters) {
+      if(filter.getNumOfHashFunctions() <= hashes.length) {
+        return filter.putHashes(hashes);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * If the active filter has reached its fill ratio, add a new one.
+   *
+   * @return false if new filter can not be created
+   */
+  private boolean ensureCapacity() {
+    if(filters.peekFirst().fillRatio() >= pratio) {
       synchronized(this) {
-        if(filters.peekFirst().estimatedFillRatio() >= pratio) {
+        if(filters.peekFirst().fillRatio() >= pratio) {
           try {
-            filters.addFirst(newFilter());
+            addFilter();
           } catch (IOException err) {
             log.log(Level.SEVERE, "Can not enlarge ScalableBloomFilter", err);
             return false;
@@ -88,22 +265,67 @@ public class ScalableBloomFilter implements Filter {
         }
       }
     }
-    return filters.peekFirst().put(bytes);
+    return true;
+  }
+
+  private void addFilter() throws IOException {
+    PartitionedBloomFilter filter = newFilter();
+    // readers must see enough hashes for new filter
+    numHashes = Math.max(numHashes, filter.getNumOfHashFunctions());
+    filters.addFirst(filter);
+    describe();
+  }
+
+  /*
+   * File of chain keeps its parameters and
+   * number of filters, see {@link Filters#open(File)}
+   */
+  private void describe() throws IOException {
+    if (file != null) {
+      snapshot(filters.size()).writeTo(file);
+    }
   }
 
   /**
    * Create new partitioned bloom filter.
    * New Filter will have smaller fpp(than previously created)
-   * according to <code>pratio</pratio>, to keep
-   * overall fpp close to target one.
+   * according to tightening <code>ratio</code>, to keep
+   * overall fpp close to target one, and will be
+   * <code>growth</code> times larger.
    */
   private final PartitionedBloomFilter newFilter() throws IOException {
-    double newFpp = fpp * Math.pow(pratio, (double) filters.size());// calculate new fpp
-    return PartitionedBloomFilter.builder()
-            .withExpectedNumberOfItems(hint)
+    int size = filters.size();
+    double newFpp = fpp * Math.pow(ratio, (double) size);// calculate new fpp
+    long capacity = (long) (hint * Math.pow(growth, (double) size));
+    log.log(Level.FINE,
+      String.format("New partitioned bloom filter: %1$d items, fpp %2$s", capacity, newFpp));
+    PartitionedBloomFilter.Builder builder = PartitionedBloomFilter.builder()
+            .withExpectedNumberOfItems(capacity)
             .withFalsePositiveRate(newFpp)
             .useOffHeapMemory(useOffHeapMemory)
-            .build();
+            .withIndexReduction(reduction);
+    if(file != null) {
+      builder.withFileMapped(new File(file.getPath() + "." + size));
+    }
+    return (PartitionedBloomFilter) builder.withHasher(hasher).build();
+  }
+
+  /**
+   * Fraction of set bits in the newest filter,
+   * new filter is added when it reaches fill ratio
+   * given to builder
+   *
+   * @return number between 0 and 1
+   */
+  public double fillRatio() {
+    return filters.peekFirst().fillRatio();
+  }
+
+  /**
+   * Number of filters in chain
+   */
+  public int numFilters() {
+    return filters.size();
   }
 
   @Override
@@ -119,9 +341,18 @@ public class ScalableBloomFilter implements Filter {
   @Override
   public synchronized void clear() {
     while(filters.size() > 1) {
-      filters.removeFirst().close();// we need to free memory
+      PartitionedBloomFilter filter = filters.removeFirst();
+      if (file != null) { // file is reused by next filter
+        filter.clear();
+      }
+      filter.close();// we need to free memory
     }
     filters.peekFirst().clear();
+    try {
+      describe();
+    } catch (IOException err) {
+      log.log(Level.SEVERE, "Can not describe ScalableBloomFilter", err);
+    }
   }
 
   @Override
@@ -129,6 +360,66 @@ public class ScalableBloomFilter implements Filter {
     throw new UnsupportedOperationException("mergeInPlace method is not supported in ScalableBloomFilter");
   }
 
+  private Snapshot snapshot(int numLayers) {
+    return new Snapshot(Snapshot.Type.SCALABLE, hasher, reduction, 0, 0, 0, 0, 0L,
+        Double.doubleToLongBits(ratio), Double.doubleToLongBits(fpp), Double.doubleToLongBits(pratio),
+        hint, growth, numLayers);
+  }
+
+  /**
+   * Snapshot has parameters of chain
+   * and snapshot of every filter, oldest first
+   */
+  @Override
+  public synchronized void writeTo(WritableByteChannel out) throws IOException {
+    List<PartitionedBloomFilter> layers = new ArrayList<>(filters);
+    Collections.reverse(layers);
+    snapshot(layers.size()).write(out);
+    for (PartitionedBloomFilter layer : layers) {
+      layer.writeTo(out);
+    }
+  }
+
+  static ScalableBloomFilter readFrom(Snapshot header, ReadableByteChannel in, boolean useOffHeapMemory)
+      throws IOException {
+    long numLayers = header.param(5);
+    List<PartitionedBloomFilter> layers = new ArrayList<>();
+    try {
+      for (long i = 0; i < numLayers; i++) {
+        layers.add(Snapshot.readFilter(in, useOffHeapMemory, PartitionedBloomFilter.class));
+      }
+    } catch (IOException err) {
+      layers.forEach(PartitionedBloomFilter::close);
+      throw err;
+    }
+    return create(header, useOffHeapMemory, null, layers);
+  }
+
+  /**
+   * Open chain of filters mapped to
+   * <code>file.0</code>, <code>file.1</code> and so on
+   */
+  static ScalableBloomFilter open(Snapshot header, File file) throws IOException {
+    long numLayers = header.param(5);
+    List<PartitionedBloomFilter> layers = new ArrayList<>();
+    try {
+      for (long i = 0; i < numLayers; i++) {
+        layers.add(Snapshot.open(new File(file.getPath() + "." + i), PartitionedBloomFilter.class));
+      }
+    } catch (IOException err) {
+      layers.forEach(PartitionedBloomFilter::close);
+      throw err;
+    }
+    return create(header, true, file, layers);
+  }
+
+  private static ScalableBloomFilter create(Snapshot header, boolean useOffHeapMemory, File file,
+                                            List<PartitionedBloomFilter> layers) throws IOException {
+    return new ScalableBloomFilter(Double.longBitsToDouble(header.param(0)), Double.longBitsToDouble(header.param(1)),
+        Double.longBitsToDouble(header.param(2)), header.param(3), (int) header.param(4), useOffHeapMemory,
+        file, header.hasher, header.reduction, layers);
+  }
+
   @Override
   public synchronized void close() {
     do {
@@ -141,9 +432,112 @@ public class ScalableBloomFilter implements Filter {
   }
 
   /**
-   * Builder for ScalablePartitionedBloomFilter
+   * Builder for ScalableBloomFilter
    */
-  static class Builder {
+  public static class Builder implements FilterBuilder<ScalableBloomFilter> {
+    private double fpp = Utils.DEFAULT_FPP;
+    private long capacity = 0L;
+    private File file = null;
+    private boolean useOffHeapMemory = false;
+    private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+    private double ratio = 0.9;
+    private double pratio = 0.5;
+    private int growth = 2;
+
+    private Builder() {
+      super();
+    }
+
+    @Override
+    public Builder withFalsePositiveRate(double fpp) {
+      Utils.checkArgument(fpp > 0.0 && fpp < 1.0,
+         String.format("False positive rate(%s) must be in range (0, 1)", fpp));
+      this.fpp = fpp;
+      return this;
+    }
+
+    /**
+     * Expected number of items in the first filter
+     */
+    @Override
+    public Builder withExpectedNumberOfItems(long expected) {
+      Utils.checkArgument(expected > 0,
+         String.format("Expected number of insertions (%s) must be > 0", expected));
+      this.capacity = expected;
+      return this;
+    }
+
+    @Override
+    public Builder useOffHeapMemory(boolean useOffHeapMemory) {
+      this.useOffHeapMemory = useOffHeapMemory;
+      return this;
+    }
+
+    /**
+     * Filter number <code>i</code> is mapped to
+     * file with <code>.i</code> suffix
+     */
+    @Override
+    public Builder withFileMapped(File file) {
+      this.file = file;
+      return this;
+    }
+
+    @Override
+    public FilterBuilder withHasher(HashFunction hasher) {
+      this.hasher = hasher;
+      return this;
+    }
+
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
+    /**
+     * False positive rate of every new filter
+     * is <code>ratio</code> times lower, 0.9 by default
+     */
+    public Builder withTighteningRatio(double ratio) {
+      Utils.checkArgument(ratio > 0.0 && ratio < 1.0,
+         String.format("Tightening ratio(%s) must be in range (0, 1)", ratio));
+      this.ratio = ratio;
+      return this;
+    }
+
+    /**
+     * New filter is added when fraction of set bits
+     * in the newest one reaches <code>pratio</code>, 0.5 by default
+     */
+    public Builder withFillRatio(double pratio) {
+      Utils.checkArgument(pratio > 0.0 && pratio < 1.0,
+         String.format("Fill ratio(%s) must be in range (0, 1)", pratio));
+      this.pratio = pratio;
+      return this;
+    }
+
+    /**
+     * Every new filter is <code>growth</code>
+     * times larger, 2 by default
+     */
+    public Builder withGrowthFactor(int growth) {
+      Utils.checkArgument(growth > 0,
+         String.format("Growth factor(%s) must be > 0", growth));
+      this.growth = growth;
+      return this;
+    }
+
+    @Override
+    public ScalableBloomFilter build() throws IOException {
+      if(!useOffHeapMemory) {
+        Utils.checkArgument(file == null,
+           String.format("Can not map file(%s) to on-heap bit vector", file));
+      }
+      // total fpp is at most fpp / (1 - ratio)
+      return new ScalableBloomFilter(ratio, fpp * (1.0 - ratio), pratio, capacity, growth,
+          useOffHeapMemory, file, hasher, reduction);
+    }
   }
 }
-
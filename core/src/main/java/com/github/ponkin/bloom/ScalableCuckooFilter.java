@@ -0,0 +1,407 @@
+package com.github.ponkin.bloom;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Scalable cuckoo filter implementation.
+ * Chain of cuckoo filters, like {@link ScalableBloomFilter}
+ * does with bloom filters. Items are put in the newest filter,
+ * when it reaches optimal load factor or can not find room for item,
+ * new filter <code>growth</code> times larger is added.
+ * Every new filter has tighter false positive rate,
+ * to keep overall fpp close to target one.
+ * Lookups and deletes check all filters, newest first.
+ *
+ * @author Alexey Ponkin
+ * @see <a href="https://www.cs.cmu.edu/~dga/papers/cuckoo-conext2014.pdf">Cuckoo filter</a>
+ */
+public class ScalableCuckooFilter implements Filter {
+
+  private static final Logger log = Logger.getLogger(ScalableCuckooFilter.class.getName());
+
+  /**
+   * target false-positive rate
+   */
+  private final double fpp;
+
+  /**
+   * tightening ratio
+   */
+  private final double ratio;
+
+  /**
+   * capacity growth of every new filter
+   */
+  private final int growth;
+
+  /**
+   * capacity of the first filter
+   */
+  private final long hint;
+
+  private final boolean useOffHeapMemory;
+
+  /**
+   * filter number <code>i</code> is mapped to <code>file.i</code>
+   */
+  private final File file;
+
+  private final HashFunction hasher;
+
+  private final IndexReduction reduction;
+
+  private final boolean semiSorted;
+
+  private final Deque<CuckooFilter> filters;
+
+  ScalableCuckooFilter(double fpp, double ratio, int growth, long hint, boolean useOffHeapMemory, File file,
+                       HashFunction hasher, IndexReduction reduction, boolean semiSorted) throws IOException {
+    this(fpp, ratio, growth, hint, useOffHeapMemory, file, hasher, reduction, semiSorted, Collections.emptyList());
+  }
+
+  /**
+   * @param layers filters of chain, oldest first,
+   * new filter is created if there are none
+   */
+  ScalableCuckooFilter(double fpp, double ratio, int growth, long hint, boolean useOffHeapMemory, File file,
+                       HashFunction hasher, IndexReduction reduction, boolean semiSorted,
+                       List<CuckooFilter> layers) throws IOException {
+    this.fpp = fpp;
+    this.ratio = ratio;
+    this.growth = growth;
+    this.hint = hint;
+    this.useOffHeapMemory = useOffHeapMemory;
+    this.file = file;
+    this.hasher = hasher;
+    this.reduction = reduction;
+    this.semiSorted = semiSorted;
+    this.filters = new ConcurrentLinkedDeque<>(); // must be concurrent to safe publishing inside synchronized
+    for (CuckooFilter layer : layers) {
+      layer.chained();
+      this.filters.addFirst(layer);
+    }
+    if (this.filters.isEmpty()) {
+      addFilter();
+    }
+  }
+
+  @Override
+  public boolean remove(byte[] bytes) {
+    boolean removed = false;
+    for(Filter filter: filters) {
+      if(filter.remove(bytes)) {
+        removed = true;
+        break;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public boolean mightContain(byte[] bytes) {
+    // check all availaible filters
+    boolean mightContain = false;
+    for(Filter filter: filters) {
+      if(filter.mightContain(bytes)) {
+        mightContain = true;
+        break;
+      }
+    }
+    return mightContain;
+  }
+
+  @Override
+  public boolean put(byte[] bytes) {
+    while(true) {
+      CuckooFilter current = filters.peekFirst();
+      if(current.count() < current.capacity() && current.put(bytes)) {
+        return true;
+      }
+      // active filter is full, add a new one
+      // unless other writer already did
+      synchronized(this) {
+        if(filters.peekFirst() == current) {
+          try {
+            addFilter();
+          } catch (IOException | IllegalArgumentException err) {
+            log.log(Level.SEVERE, "Can not enlarge ScalableCuckooFilter", err);
+            return false;
+          }
+        }
+      }
+    }
+  }
+
+  private void addFilter() throws IOException {
+    CuckooFilter layer = newFilter();
+    layer.chained();
+    filters.addFirst(layer);
+    describe();
+  }
+
+  /*
+   * File of chain keeps its parameters and
+   * number of filters, see {@link Filters#open(File)}
+   */
+  private void describe() throws IOException {
+    if (file != null) {
+      snapshot(filters.size()).writeTo(file);
+    }
+  }
+
+  /**
+   * Create new cuckoo filter.
+   * New Filter will have smaller fpp(than previously created)
+   * according to <code>ratio</code> and will be
+   * <code>growth</code> times larger.
+   */
+  private final CuckooFilter newFilter() throws IOException {
+    int size = filters.size();
+    double newFpp = fpp * Math.pow(ratio, (double) size);
+    long capacity = (long) (hint * Math.pow(growth, (double) size));
+    log.log(Level.FINE,
+      String.format("New cuckoo filter: %1$d items, fpp %2$s", capacity, newFpp));
+    CuckooFilter.Builder builder = CuckooFilter.builder()
+            .withExpectedNumberOfItems(capacity)
+            .withFalsePositiveRate(newFpp)
+            .useOffHeapMemory(useOffHeapMemory)
+            .withIndexReduction(reduction)
+            .withSemiSortedBuckets(semiSorted);
+    if(file != null) {
+      builder.withFileMapped(new File(file.getPath() + "." + size));
+    }
+    return (CuckooFilter) builder.withHasher(hasher).build();
+  }
+
+  /**
+   * Total number of items in all filters
+   */
+  public long count() {
+    return filters.stream().mapToLong(CuckooFilter::count).sum();
+  }
+
+  /**
+   * Number of filters in chain
+   */
+  public int numFilters() {
+    return filters.size();
+  }
+
+  @Override
+  public double expectedFpp() {
+    double compoundFpp = filters.stream()
+                                .mapToDouble((f) -> 1D - f.expectedFpp())
+                                .reduce( (p1, p2) -> p1 * p2)
+                                .orElse(1D);
+    return 1D - compoundFpp;
+  }
+
+  @Override
+  public synchronized void clear() {
+    while(filters.size() > 1) {
+      CuckooFilter filter = filters.removeFirst();
+      if (file != null) { // file is reused by next filter
+        filter.clear();
+      }
+      filter.close();// we need to free memory
+    }
+    filters.peekFirst().clear();
+    try {
+      describe();
+    } catch (IOException err) {
+      log.log(Level.SEVERE, "Can not describe ScalableCuckooFilter", err);
+    }
+  }
+
+  @Override
+  public Filter mergeInPlace(Filter other) throws Exception {
+    throw new UnsupportedOperationException("mergeInPlace method is not supported in ScalableCuckooFilter");
+  }
+
+  private Snapshot snapshot(int numLayers) {
+    return new Snapshot(Snapshot.Type.SCALABLE_CUCKOO, hasher, reduction, semiSorted ? Snapshot.SEMI_SORTED : 0,
+        0, 0, 0, 0L, Double.doubleToLongBits(fpp), Double.doubleToLongBits(ratio), growth, hint, numLayers);
+  }
+
+  /**
+   * Snapshot has parameters of chain
+   * and snapshot of every filter, oldest first
+   */
+  @Override
+  public synchronized void writeTo(WritableByteChannel out) throws IOException {
+    List<CuckooFilter> layers = new ArrayList<>(filters);
+    Collections.reverse(layers);
+    snapshot(layers.size()).write(out);
+    for (CuckooFilter layer : layers) {
+      layer.writeTo(out);
+    }
+  }
+
+  static ScalableCuckooFilter readFrom(Snapshot header, ReadableByteChannel in, boolean useOffHeapMemory)
+      throws IOException {
+    long numLayers = header.param(4);
+    List<CuckooFilter> layers = new ArrayList<>();
+    try {
+      for (long i = 0; i < numLayers; i++) {
+        layers.add(Snapshot.readFilter(in, useOffHeapMemory, CuckooFilter.class));
+      }
+    } catch (IOException err) {
+      layers.forEach(CuckooFilter::close);
+      throw err;
+    }
+    return create(header, useOffHeapMemory, null, layers);
+  }
+
+  /**
+   * Open chain of filters mapped to
+   * <code>file.0</code>, <code>file.1</code> and so on
+   */
+  static ScalableCuckooFilter open(Snapshot header, File file) throws IOException {
+    long numLayers = header.param(4);
+    List<CuckooFilter> layers = new ArrayList<>();
+    try {
+      for (long i = 0; i < numLayers; i++) {
+        layers.add(Snapshot.open(new File(file.getPath() + "." + i), CuckooFilter.class));
+      }
+    } catch (IOException err) {
+      layers.forEach(CuckooFilter::close);
+      throw err;
+    }
+    return create(header, true, file, layers);
+  }
+
+  private static ScalableCuckooFilter create(Snapshot header, boolean useOffHeapMemory, File file,
+                                             List<CuckooFilter> layers) throws IOException {
+    return new ScalableCuckooFilter(Double.longBitsToDouble(header.param(0)), Double.longBitsToDouble(header.param(1)),
+        (int) header.param(2), header.param(3), useOffHeapMemory, file, header.hasher, header.reduction,
+        (header.flags & Snapshot.SEMI_SORTED) != 0, layers);
+  }
+
+  @Override
+  public synchronized void close() {
+    do {
+      filters.removeFirst().close();
+    } while(!filters.isEmpty());
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for ScalableCuckooFilter
+   */
+  public static class Builder implements FilterBuilder<ScalableCuckooFilter> {
+    private double fpp = 0.03;
+    private long capacity = 0L;
+    private File file = null;
+    private boolean useOffHeapMemory = false;
+    private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+    private boolean semiSorted = false;
+    private double ratio = 0.5;
+    private int growth = 2;
+
+    private Builder() {
+      super();
+    }
+
+    @Override
+    public Builder useOffHeapMemory(boolean off) {
+      this.useOffHeapMemory = off;
+      return this;
+    }
+
+    @Override
+    public Builder withFalsePositiveRate(double fprate) {
+      Utils.checkArgument(fprate > 0.0 && fprate < 1.0,
+         String.format("False positive rate(%s) must be in range (0, 1)", fprate));
+      this.fpp = fprate;
+      return this;
+    }
+
+    /**
+     * Expected number of items in the first filter
+     */
+    @Override
+    public Builder withExpectedNumberOfItems(long expected) {
+      Utils.checkArgument(expected > 0,
+         String.format("Expected number of insertions (%s) must be > 0", expected));
+      this.capacity = expected;
+      return this;
+    }
+
+    /**
+     * Filter number <code>i</code> is mapped to
+     * file with <code>.i</code> suffix
+     */
+    @Override
+    public Builder withFileMapped(File file) {
+      this.file = file;
+      return this;
+    }
+
+    @Override
+    public FilterBuilder withHasher(HashFunction hasher) {
+      this.hasher = hasher;
+      return this;
+    }
+
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
+    /**
+     * @see CuckooFilter.Builder#withSemiSortedBuckets(boolean)
+     */
+    public Builder withSemiSortedBuckets(boolean semiSorted) {
+      this.semiSorted = semiSorted;
+      return this;
+    }
+
+    /**
+     * False positive rate of every new filter
+     * is <code>ratio</code> times lower, 0.5 by default
+     */
+    public Builder withTighteningRatio(double ratio) {
+      Utils.checkArgument(ratio > 0.0 && ratio < 1.0,
+         String.format("Tightening ratio(%s) must be in range (0, 1)", ratio));
+      this.ratio = ratio;
+      return this;
+    }
+
+    /**
+     * Every new filter is <code>growth</code>
+     * times larger, 2 by default
+     */
+    public Builder withGrowthFactor(int growth) {
+      Utils.checkArgument(growth > 0,
+         String.format("Growth factor(%s) must be > 0", growth));
+      this.growth = growth;
+      return this;
+    }
+
+    @Override
+    public ScalableCuckooFilter build() throws IOException {
+      if(!useOffHeapMemory) {
+        Utils.checkArgument(file == null,
+           String.format("Can not map file(%s) to onheap bit vector", file));
+      }
+      // total fpp is at most fpp / (1 - ratio)
+      return new ScalableCuckooFilter(fpp * (1.0 - ratio), ratio, growth, capacity,
+          useOffHeapMemory, file, hasher, reduction, semiSorted);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.github.ponkin.bloom;
+
+/**
+ * Bucket set with 4 tags per bucket, that saves
+ * one bit per tag with semi-sorting, as described by
+ * Fan, Andersen, Kaminsky and Mitzenmacher in
+ * Cuckoo Filter: Practically Better Than Bloom:
+ *
+ * https://www.cs.cmu.edu/~dga/papers/cuckoo-conext2014.pdf
+ *
+ * Order of tags inside bucket does not matter, so tags are
+ * kept sorted. Sorted sequence of 4 highest nibbles of tags
+ * is one of 3876 multisets and is stored as 12 bit index instead
+ * of 16 bits. Bucket takes <code>4 * bitsPerTag - 4</code> bits:
+ * 12 bit index in lowest bits followed by
+ * <code>bitsPerTag - 4</code> low bits of every tag.
+ * <p>
+ * Tag positions are positions in sorted order, so
+ * they are valid only until bucket is changed.
+ *
+ * @author Alexey Ponkin
+ */
+class SemiSortedBucketSet extends BucketSet {
+
+  static final int TAGS_PER_BUCKET = 4;
+
+  private static final int NIBBLE_BITS = 4;
+
+  private static final int INDEX_BITS = 12;
+
+  /*
+   * Sorted nibbles packed in 16 bits,
+   * lowest nibble first - by index.
+   * Indexes above 3875 decode to empty bucket,
+   * optimistic readers may see torn index
+   */
+  private static final char[] DECODE = new char[1 << 12];
+
+  /*
+   * Index of sorted nibbles packed in 16 bits
+   */
+  private static final char[] ENCODE = new char[1 << 16];
+
+  static {
+    int idx = 0;
+    for (int a = 0; a < 16; a++) {
+      for (int b = a; b < 16; b++) {
+        for (int c = b; c < 16; c++) {
+          for (int d = c; d < 16; d++) {
+            int packed = a | (b << 4) | (c << 8) | (d << 12);
+            DECODE[idx] = (char) packed;
+            ENCODE[packed] = (char) idx;
+            idx++;
+          }
+        }
+      }
+    }
+  }
+
+  private final int lowBits;
+
+  private final int bitsPerBucket;
+
+  /**
+   * @param bitsPerTag how many bits to use per item, from 4 to 17
+   * so bucket fits in 64 bits
+   * @param numBuckets number of buckets
+   * @param bitset underlying bit vector of at least
+   * {@link #bitsPerBucket(int)} * <code>numBuckets</code> bits
+   */
+  SemiSortedBucketSet(int bitsPerTag, long numBuckets, BitSet bitset) {
+    super(bitsPerTag, TAGS_PER_BUCKET, numBuckets, bitset);
+    Utils.checkArgument(bitsPerTag >= NIBBLE_BITS && bitsPerTag <= 17,
+       String.format("Semi-sorted bucket needs from 4 to 17 bits per tag, but got %d", bitsPerTag));
+    this.lowBits = bitsPerTag - NIBBLE_BITS;
+    this.bitsPerBucket = bitsPerBucket(bitsPerTag);
+  }
+
+  /**
+   * Number of bits in one bucket
+   */
+  static int bitsPerBucket(int bitsPerTag) {
+    return TAGS_PER_BUCKET * bitsPerTag - NIBBLE_BITS;
+  }
+
+  /*
+   * Tag at position <code>pos</code> of decoded bucket,
+   * <code>bits</code> are bucket bits without index
+   */
+  private long tag(int nibbles, long bits, int pos) {
+    long high = (nibbles >>> (pos * NIBBLE_BITS)) & 0xF;
+    return (high << lowBits) | ((bits >>> (pos * lowBits)) & Utils.MASKS[lowBits]);
+  }
+
+  /*
+   * Tags are passed as locals and sorted with
+   * sorting network for 4 values, hot path does not allocate
+   */
+  private void encode(long bucketIdx, long t0, long t1, long t2, long t3) {
+    long a = Math.min(t0, t1);
+    long b = Math.max(t0, t1);
+    long c = Math.min(t2, t3);
+    long d = Math.max(t2, t3);
+    long e = Math.max(a, c);
+    long f = Math.min(b, d);
+    t0 = Math.min(a, c);
+    t1 = Math.min(e, f);
+    t2 = Math.max(e, f);
+    t3 = Math.max(b, d);
+    long lowMask = Utils.MASKS[lowBits];
+    int nibbles = (int) ((t0 >>> lowBits) | ((t1 >>> lowBits) << 4)
+        | ((t2 >>> lowBits) << 8) | ((t3 >>> lowBits) << 12));
+    long low = (t0 & lowMask) | ((t1 & lowMask) << lowBits)
+      | ((t2 & lowMask) << (2 * lowBits)) | ((t3 & lowMask) << (3 * lowBits));
+    long bits = (low << INDEX_BITS) | ENCODE[nibbles];
+    writeBits(bucketIdx * bitsPerBucket, bitsPerBucket, bits);
+  }
+
+  @Override
+  public void writeTag(long bucketIdx, int posInBucket, long tag) {
+    long bits = readBits(bucketIdx * bitsPerBucket, bitsPerBucket);
+    int nibbles = DECODE[(int) (bits & Utils.MASKS[INDEX_BITS])];
+    bits >>>= INDEX_BITS;
+    tag &= Utils.MASKS[lowBits + NIBBLE_BITS];
+    encode(bucketIdx,
+        posInBucket == 0 ? tag : tag(nibbles, bits, 0),
+        posInBucket == 1 ? tag : tag(nibbles, bits, 1),
+        posInBucket == 2 ? tag : tag(nibbles, bits, 2),
+        posInBucket == 3 ? tag : tag(nibbles, bits, 3));
+  }
+
+  /**
+   * Tags of bucket are in ascending order,
+   * empty slots are 0 and come first
+   */
+  @Override
+  public long readTag(long bucketIdx, int posInBucket) {
+    long bits = readBits(bucketIdx * bitsPerBucket, bitsPerBucket);
+    int nibbles = DECODE[(int) (bits & Utils.MASKS[INDEX_BITS])];
+    return tag(nibbles, bits >>> INDEX_BITS, posInBucket);
+  }
+
+  @Override
+  public int checkTag(long bucketIdx, long tag) {
+    long bits = readBits(bucketIdx * bitsPerBucket, bitsPerBucket);
+    int nibbles = DECODE[(int) (bits & Utils.MASKS[INDEX_BITS])];
+    bits >>>= INDEX_BITS;
+    for (int pos = 0; pos < TAGS_PER_BUCKET; pos++) {
+      if (tag(nibbles, bits, pos) == tag) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,496 @@
+package com.github.ponkin.bloom;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of filter, all numbers are little-endian:
+ * <pre>
+ *   magic             4 bytes, "BLMF"
+ *   version           2 bytes
+ *   filter type       1 byte, see {@link Type}
+ *   hasher            1 byte, see {@link Hashers#id(HashFunction)}
+ *   index reduction   1 byte
+ *   flags             1 byte
+ *   hash functions    4 bytes
+ *   bits per bucket   4 bytes
+ *   tags per bucket   4 bytes
+ *   bit size          8 bytes
+ *   params count      2 bytes
+ *   params            8 bytes each, filter specific
+ *   header CRC32      4 bytes
+ *   words             8 bytes each
+ *   words CRC32       4 bytes
+ * </pre>
+ * Words are copied between memory and channel in large chunks,
+ * without per word conversion on little-endian platforms.
+ * Chains of filters have no words, header is followed by
+ * snapshot of every filter in chain instead.
+ * <p>
+ * File mapped filters keep header in their files, see
+ * {@link OffHeapBitArray}, chains of them keep header in
+ * file of chain, filter <code>i</code> is mapped to <code>file.i</code>.
+ * <p>
+ * Channels must be blocking.
+ *
+ * @author Alexey Ponkin
+ */
+final class Snapshot {
+
+  private static final Logger log = Logger.getLogger(Snapshot.class.getName());
+
+  private static final int MAGIC = 0x464D4C42; // "BLMF"
+
+  static final int VERSION = 1;
+
+  /*
+   * Size of header without params and CRC
+   */
+  private static final int HEADER_SIZE = 32;
+
+  private static final int MAX_PARAMS = 64;
+
+  /*
+   * Size of buffer for words
+   */
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Semi-sorted buckets of cuckoo filter
+   */
+  static final int SEMI_SORTED = 1;
+
+  /**
+   * Filter types, id is written in header
+   * and must never change
+   */
+  enum Type {
+    BLOOM(1),
+    BLOCKED(2),
+    SPLIT_BLOCK(3),
+    PARTITIONED(4),
+    STABLE(5),
+    COUNTING(6),
+    CUCKOO(7),
+    SCALABLE(8),
+    SCALABLE_CUCKOO(9);
+
+    final int id;
+
+    Type(int id) {
+      this.id = id;
+    }
+
+    static Type of(int id) {
+      for (Type type : values()) {
+        if (type.id == id) {
+          return type;
+        }
+      }
+      return null;
+    }
+  }
+
+  final Type type;
+  final HashFunction hasher;
+  final IndexReduction reduction;
+  final int flags;
+  final int numHashFunctions;
+  final int bitsPerBucket;
+  final int tagsPerBucket;
+  final long bitSize;
+  final long[] params;
+
+  Snapshot(Type type, HashFunction hasher, IndexReduction reduction, int flags, int numHashFunctions,
+           int bitsPerBucket, int tagsPerBucket, long bitSize, long... params) {
+    this.type = type;
+    this.hasher = hasher;
+    this.reduction = reduction;
+    this.flags = flags;
+    this.numHashFunctions = numHashFunctions;
+    this.bitsPerBucket = bitsPerBucket;
+    this.tagsPerBucket = tagsPerBucket;
+    this.bitSize = bitSize;
+    this.params = params;
+  }
+
+  /**
+   * Filter specific param number <code>i</code>
+   *
+   * @throws IOException if header has no such param
+   */
+  long param(int i) throws IOException {
+    if (i >= params.length) {
+      throw new IOException(String.format("Filter snapshot is corrupted: %s has no param %d", type, i));
+    }
+    return params[i];
+  }
+
+  /**
+   * Write header to <code>out</code>
+   *
+   * @throws UnsupportedOperationException if hasher of filter
+   * is not one of {@link Hashers}
+   */
+  void write(WritableByteChannel out) throws IOException {
+    writeFully(out, ByteBuffer.wrap(toBytes()));
+  }
+
+  /**
+   * Header as it is written to channel
+   */
+  byte[] toBytes() {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + params.length * 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(MAGIC)
+       .putShort((short) VERSION)
+       .put((byte) type.id)
+       .put((byte) Hashers.id(hasher))
+       .put((byte) reduction.ordinal())
+       .put((byte) flags)
+       .putInt(numHashFunctions)
+       .putInt(bitsPerBucket)
+       .putInt(tagsPerBucket)
+       .putLong(bitSize)
+       .putShort((short) params.length);
+    for (long param : params) {
+      buf.putLong(param);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, buf.position());
+    buf.putInt((int) crc.getValue());
+    return buf.array();
+  }
+
+  static Snapshot fromBytes(byte[] bytes) throws IOException {
+    return read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+  }
+
+  /**
+   * Read header from <code>in</code>
+   *
+   * @throws IOException if header is corrupted or
+   * written by newer version
+   */
+  static Snapshot read(ReadableByteChannel in) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(in, buf);
+    buf.flip();
+    if (buf.getInt() != MAGIC) {
+      throw new IOException("Stream does not contain filter snapshot");
+    }
+    int version = buf.getShort();
+    if (version != VERSION) {
+      throw new IOException(String.format("Unsupported snapshot version %d", version));
+    }
+    Type type = Type.of(buf.get());
+    HashFunction hasher = Hashers.byId(buf.get());
+    int reduction = buf.get();
+    int flags = buf.get();
+    int numHashFunctions = buf.getInt();
+    int bitsPerBucket = buf.getInt();
+    int tagsPerBucket = buf.getInt();
+    long bitSize = buf.getLong();
+    int numParams = buf.getShort();
+    if (numParams < 0 || numParams > MAX_PARAMS) {
+      throw new IOException("Filter snapshot is corrupted: wrong number of params");
+    }
+    ByteBuffer tail = ByteBuffer.allocate(numParams * 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(in, tail);
+    tail.flip();
+    long[] params = new long[numParams];
+    for (int i = 0; i < numParams; i++) {
+      params[i] = tail.getLong();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, HEADER_SIZE);
+    crc.update(tail.array(), 0, numParams * 8);
+    if ((int) crc.getValue() != tail.getInt()) {
+      throw new IOException("Filter snapshot is corrupted: header checksum mismatch");
+    }
+    if (type == null || hasher == null || reduction < 0 || reduction >= IndexReduction.values().length) {
+      throw new IOException("Filter snapshot is corrupted: unknown filter type, hasher or index reduction");
+    }
+    return new Snapshot(type, hasher, IndexReduction.values()[reduction], flags, numHashFunctions,
+        bitsPerBucket, tagsPerBucket, bitSize, params);
+  }
+
+  /**
+   * Allocate bit array of snapshot size
+   * and read its words from <code>in</code>
+   */
+  BitSet readBits(ReadableByteChannel in, boolean useOffHeapMemory) throws IOException {
+    if (bitSize <= 0) {
+      throw new IOException(String.format("Filter snapshot is corrupted: bit size %d", bitSize));
+    }
+    BitSet bits = useOffHeapMemory ? new OffHeapBitArray(bitSize) : new BitArray(bitSize);
+    try {
+      bits.readFrom(in);
+    } catch (IOException err) {
+      bits.close();
+      throw err;
+    }
+    return bits;
+  }
+
+  /**
+   * Read filter of any type from <code>in</code>
+   */
+  static Filter readFilter(ReadableByteChannel in, boolean useOffHeapMemory) throws IOException {
+    Snapshot header = read(in);
+    switch (header.type) {
+      case SCALABLE:
+        return ScalableBloomFilter.readFrom(header, in, useOffHeapMemory);
+      case SCALABLE_CUCKOO:
+        return ScalableCuckooFilter.readFrom(header, in, useOffHeapMemory);
+      default:
+        return create(header, header.readBits(in, useOffHeapMemory));
+    }
+  }
+
+  /**
+   * Open file mapped filter or chain of them,
+   * see {@link Filters#open(File)}
+   */
+  static Filter open(File file) throws IOException {
+    Snapshot header = OffHeapBitArray.description(file);
+    if (header != null) {
+      OffHeapBitArray bits = new OffHeapBitArray(file, header.bitSize);
+      Filter filter = create(header, bits);
+      if (!bits.closedCleanly() && filter instanceof CuckooFilter) {
+        ((CuckooFilter) filter).recount();
+      }
+      return filter;
+    }
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      header = read(in);
+    }
+    switch (header.type) {
+      case SCALABLE:
+        return ScalableBloomFilter.open(header, file);
+      case SCALABLE_CUCKOO:
+        return ScalableCuckooFilter.open(header, file);
+      default:
+        throw new IOException(String.format("File %s does not contain mapped filter", file));
+    }
+  }
+
+  /**
+   * Open file mapped filter of given class
+   */
+  static <T extends Filter> T open(File file, Class<T> cls) throws IOException {
+    return checkClass(open(file), cls);
+  }
+
+  /**
+   * Write header to <code>file</code>,
+   * file is replaced
+   */
+  void writeTo(File file) throws IOException {
+    try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      write(out);
+    }
+  }
+
+  /**
+   * Keep description of filter in its mapped file,
+   * so it can be opened with {@link Filters#open(File)}.
+   * Filters with hashers which are not in {@link Hashers}
+   * are not described.
+   */
+  static <T extends AbstractFilter> T describe(T filter, BitSet bits) {
+    if (bits instanceof OffHeapBitArray) {
+      try {
+        ((OffHeapBitArray) bits).describe(filter.snapshot());
+      } catch (UnsupportedOperationException err) {
+        log.log(Level.FINE, "Mapped filter can not be reopened", err);
+      }
+    }
+    return filter;
+  }
+
+  /*
+   * Filter over bit array with words of snapshot,
+   * bit array is closed if filter can not be created
+   */
+  private static Filter create(Snapshot header, BitSet bits) throws IOException {
+    try {
+      switch (header.type) {
+        case BLOOM:
+          return BloomFilter.create(header, bits);
+        case BLOCKED:
+          return BlockedBloomFilter.create(header, bits);
+        case SPLIT_BLOCK:
+          return SplitBlockBloomFilter.create(header, bits);
+        case PARTITIONED:
+          return PartitionedBloomFilter.create(header, bits);
+        case STABLE:
+          return StableBloomFilter.create(header, bits);
+        case COUNTING:
+          return CountingBloomFilter.create(header, bits);
+        case CUCKOO:
+          return CuckooFilter.create(header, bits);
+        default:
+          throw new IOException(String.format("Filter %s has no words", header.type));
+      }
+    } catch (IOException err) {
+      bits.close();
+      throw err;
+    } catch (IllegalArgumentException err) {
+      bits.close();
+      throw new IOException("Filter snapshot is corrupted: " + err.getMessage(), err);
+    }
+  }
+
+  /**
+   * Read filter of given class from <code>in</code>
+   */
+  static <T extends Filter> T readFilter(ReadableByteChannel in, boolean useOffHeapMemory, Class<T> cls)
+      throws IOException {
+    return checkClass(readFilter(in, useOffHeapMemory), cls);
+  }
+
+  private static <T extends Filter> T checkClass(Filter filter, Class<T> cls) throws IOException {
+    if (!cls.isInstance(filter)) {
+      filter.close();
+      throw new IOException(String.format("Snapshot contains %1$s instead of %2$s",
+            filter.getClass().getName(), cls.getName()));
+    }
+    return cls.cast(filter);
+  }
+
+  /**
+   * Write <code>length</code> bytes of words starting from
+   * <code>offset</code> of <code>base</code>, or from address
+   * <code>offset</code> if <code>base</code> is null, followed by CRC32
+   */
+  static void writeWords(Object base, long offset, long length, WritableByteChannel out) throws IOException {
+    writeWords(base, new long[] {offset}, length, length, out);
+  }
+
+  /**
+   * Write <code>length</code> bytes of words kept in segments
+   * of <code>segmentSize</code> bytes, segment <code>i</code>
+   * starts from <code>offsets[i]</code>. Output is the same
+   * as for contiguous words.
+   */
+  static void writeWords(Object base, long[] offsets, long segmentSize, long length, WritableByteChannel out)
+      throws IOException {
+    ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, length)).order(ByteOrder.nativeOrder());
+    long bufAddr = Platform.getByteBufferAddress(buf);
+    try {
+      CRC32 crc = new CRC32();
+      for (long pos = 0; pos < length; ) {
+        int len = chunkLength(buf, pos, segmentSize, length);
+        Platform.copyMemory(base, offsets[(int) (pos / segmentSize)] + pos % segmentSize, null, bufAddr, len);
+        buf.clear();
+        buf.limit(len);
+        if (!LITTLE_ENDIAN) {
+          reverseWords(buf, len);
+        }
+        crc.update(buf);
+        buf.position(0);
+        writeFully(out, buf);
+        pos += len;
+      }
+      ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      trailer.putInt((int) crc.getValue());
+      trailer.flip();
+      writeFully(out, trailer);
+    } finally {
+      // do not wait for GC, chains write buffer for every layer
+      Platform.freeDirectBuffer(buf);
+    }
+  }
+
+  /**
+   * Read <code>length</code> bytes of words written by
+   * {@link #writeWords(Object, long, long, WritableByteChannel)}
+   * to <code>offset</code> of <code>base</code>
+   *
+   * @throws IOException if checksum does not match
+   */
+  static void readWords(Object base, long offset, long length, ReadableByteChannel in) throws IOException {
+    readWords(base, new long[] {offset}, length, length, in);
+  }
+
+  /**
+   * Read <code>length</code> bytes of words to segments,
+   * see {@link #writeWords(Object, long[], long, long, WritableByteChannel)}
+   *
+   * @throws IOException if checksum does not match
+   */
+  static void readWords(Object base, long[] offsets, long segmentSize, long length, ReadableByteChannel in)
+      throws IOException {
+    ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, length)).order(ByteOrder.nativeOrder());
+    long bufAddr = Platform.getByteBufferAddress(buf);
+    try {
+      CRC32 crc = new CRC32();
+      for (long pos = 0; pos < length; ) {
+        int len = chunkLength(buf, pos, segmentSize, length);
+        buf.clear();
+        buf.limit(len);
+        readFully(in, buf);
+        buf.flip();
+        crc.update(buf);
+        if (!LITTLE_ENDIAN) {
+          reverseWords(buf, len);
+        }
+        Platform.copyMemory(null, bufAddr, base, offsets[(int) (pos / segmentSize)] + pos % segmentSize, len);
+        pos += len;
+      }
+      ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(in, trailer);
+      trailer.flip();
+      if ((int) crc.getValue() != trailer.getInt()) {
+        throw new IOException("Filter snapshot is corrupted: checksum mismatch");
+      }
+    } finally {
+      // freed now, not by GC
+      Platform.freeDirectBuffer(buf);
+    }
+  }
+
+  /*
+   * Chunk of buffer size, chunk never crosses
+   * end of segment
+   */
+  private static int chunkLength(ByteBuffer buf, long pos, long segmentSize, long length) {
+    long len = Math.min(buf.capacity(), length - pos);
+    return (int) Math.min(len, segmentSize - pos % segmentSize);
+  }
+
+  private static void reverseWords(ByteBuffer buf, int len) {
+    for (int i = 0; i < len; i += 8) {
+      buf.putLong(i, Long.reverseBytes(buf.getLong(i)));
+    }
+  }
+
+  static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    }
+  }
+
+  static void readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (in.read(buf) < 0) {
+        throw new EOFException("Unexpected end of filter snapshot");
+      }
+    }
+  }
+}
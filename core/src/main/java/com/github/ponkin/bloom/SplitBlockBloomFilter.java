@@ -0,0 +1,362 @@
+package com.github.ponkin.bloom;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Split block bloom filter with the same layout
+ * as Parquet and Impala bloom filters:
+ *
+ * https://github.com/apache/parquet-format/blob/master/BloomFilter.md
+ *
+ * Bit vector is split into blocks of 256 bits, every block
+ * is 8 words of 32 bits. Item sets exactly one bit in every word
+ * of one block, bit is selected by salted multiplication of
+ * 32 bit key. Lookup reads 4 longs of one cache line and has no
+ * data dependent branches, so latency does not depend on item.
+ *
+ * Words are stored little-endian inside longs, so bit array
+ * has the same byte layout as Parquet bitset.
+ *
+ * @author Alexey Ponkin
+ */
+public class SplitBlockBloomFilter extends AbstractFilter {
+
+  private static final Logger log = Logger.getLogger(SplitBlockBloomFilter.class.getName());
+
+  /**
+   * Number of bits in one block
+   */
+  static final int BLOCK_BITS = 256;
+
+  /*
+   * Number of 64 bit words in one block,
+   * every long keeps two 32 bit words
+   */
+  private static final int BLOCK_LONGS = BLOCK_BITS / Long.SIZE;
+
+  /**
+   * Number of bits set for every item,
+   * one per 32 bit word
+   */
+  static final int NUM_BITS_PER_ITEM = 8;
+
+  /*
+   * Salts from Parquet specification,
+   * odd constants for multiplicative hashing
+   */
+  private static final int[] SALT = {
+    0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+    0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31
+  };
+
+  private final BitSet bits;
+
+  private final long numBlocks;
+
+  private final IndexRange blocks;
+
+  SplitBlockBloomFilter(BitSet bits, HashFunction strategy) {
+    this(bits, strategy, IndexReduction.MODULO);
+  }
+
+  SplitBlockBloomFilter(BitSet bits, HashFunction strategy, IndexReduction reduction) {
+    // one hash for block and one for 32 bit key
+    super(strategy, 2);
+    this.bits = bits;
+    this.numBlocks = bits.bitSize() / BLOCK_BITS;
+    this.blocks = new IndexRange(numBlocks, reduction);
+    log.log(Level.FINE,
+      String.format("Split block bloom filter: %1$d blocks", numBlocks));
+  }
+
+  /**
+   * Mask with one bit set in both 32 bit
+   * words of long <code>i</code> of block.
+   * Lower half is word <code>2*i</code>,
+   * upper half is word <code>2*i + 1</code>.
+   */
+  private static long mask(int key, int i) {
+    long lo = 1L << ((key * SALT[2 * i]) >>> 27);
+    long hi = 1L << ((key * SALT[2 * i + 1]) >>> 27);
+    return lo | (hi << 32);
+  }
+
+  private void insert(long block, int key) {
+    long word = block * BLOCK_LONGS;
+    for (int i = 0; i < BLOCK_LONGS; i++) {
+      bits.setBits(word + i, mask(key, i));
+    }
+  }
+
+  private boolean check(long block, int key) {
+    long word = block * BLOCK_LONGS;
+    // collect missing bits of all words, no early exit
+    long missing = 0L;
+    for (int i = 0; i < BLOCK_LONGS; i++) {
+      long mask = mask(key, i);
+      missing |= mask & ~bits.getWord(word + i);
+    }
+    return missing == 0L;
+  }
+
+  /*
+   * Block of 64 bit hash as defined by Parquet:
+   * upper 32 bits scaled to number of blocks
+   */
+  private long blockOf(long hash) {
+    return ((hash >>> 32) * numBlocks) >>> 32;
+  }
+
+  @Override
+  boolean putHashes(long[] hashes) {
+    long block = blocks.index(hashes[0]);
+    int key = (int) hashes[1];
+    boolean mightContain = check(block, key);
+    insert(block, key);
+    return !mightContain;
+  }
+
+  @Override
+  boolean mightContainHashes(long[] hashes) {
+    return check(blocks.index(hashes[0]), (int) hashes[1]);
+  }
+
+  /**
+   * First pass reads first word of block of every item,
+   * so block of every item is in cache
+   * when second pass checks all words.
+   */
+  @Override
+  void mightContainBatch(long[][] hashes, int count, boolean[] result, int offset) {
+    for (int j = 0; j < count; j++) {
+      long word = blocks.index(hashes[j][0]) * BLOCK_LONGS;
+      long mask = mask((int) hashes[j][1], 0);
+      result[offset + j] = (bits.getWord(word) & mask) == mask;
+    }
+    for (int j = 0; j < count; j++) {
+      if (result[offset + j]) {
+        result[offset + j] = mightContainHashes(hashes[j]);
+      }
+    }
+  }
+
+  @Override
+  boolean removeHashes(long[] hashes) {
+    throw new UnsupportedOperationException("Split block bloom filter does not support removal");
+  }
+
+  /**
+   * Put item by its 64 bit hash, block
+   * and bits are derived exactly as in Parquet,
+   * so filter built from XXH64 hashes of plain encoded values
+   * can be exchanged with Parquet readers and writers.
+   *
+   * @param hash 64 bit hash of item
+   * @return true if at least one bit was changed,
+   * false otherwise
+   */
+  public boolean putHash(long hash) {
+    long block = blockOf(hash);
+    int key = (int) hash;
+    boolean mightContain = check(block, key);
+    insert(block, key);
+    return !mightContain;
+  }
+
+  /**
+   * Check item by its 64 bit hash, see {@link #putHash(long)}
+   *
+   * @param hash 64 bit hash of item
+   * @return false if item is not inside filter(100% sure),
+   * true - item might be inside filter with
+   * some probability
+   */
+  public boolean mightContainHash(long hash) {
+    return check(blockOf(hash), (int) hash);
+  }
+
+  @Override
+  public double expectedFpp() {
+    return Math.pow((double) bits.cardinality() / bits.bitSize(), NUM_BITS_PER_ITEM);
+  }
+
+  public long bitSize() {
+    return bits.bitSize();
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+  }
+
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.SPLIT_BLOCK, strategy, blocks.reduction(), 0,
+        0, 0, 0, bits.bitSize());
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bits.writeTo(out);
+  }
+
+  static SplitBlockBloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    return new SplitBlockBloomFilter(bits, header.hasher, header.reduction);
+  }
+
+  @Override
+  public void close(){
+    try{
+      bits.close();
+    } catch (Exception err) {
+      log.log(Level.SEVERE, "Can not close SplitBlockBloomFilter", err);
+    }
+  }
+
+  @Override
+  public Filter mergeInPlace(Filter other) throws Exception {
+    if (other == null) {
+      throw new IncompatibleMergeException("Cannot merge null bloom filter");
+    }
+
+    if (!(other instanceof SplitBlockBloomFilter)) {
+      throw new IncompatibleMergeException(
+          String.format("Cannot merge bloom filter of class %1$s", other.getClass().getName()));
+    }
+
+    SplitBlockBloomFilter that = (SplitBlockBloomFilter) other;
+
+    if (this.bitSize() != that.bitSize()) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different bit size");
+    }
+
+    if (!this.blocks.equals(that.blocks)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
+    }
+
+    this.bits.putAll(that.bits);
+    return this;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null || !(other instanceof SplitBlockBloomFilter)) {
+      return false;
+    }
+    SplitBlockBloomFilter that = (SplitBlockBloomFilter) other;
+    return this.blocks.equals(that.blocks) && this.bits.equals(that.bits);
+  }
+
+  @Override
+  public int hashCode() {
+    return bits.hashCode();
+  }
+
+  /**
+   * Optimal number of bits for split block filter
+   * with <code>n</code> items and false positive rate <code>p</code>,
+   * formula from Parquet specification.
+   *
+   * @param n number of items
+   * @param p false positive rate
+   * @return number of bits, multiple of block size
+   */
+  static long optimalNumOfBits(long n, double p) {
+    double bits = -NUM_BITS_PER_ITEM * n / Math.log(1D - Math.pow(p, 1D / NUM_BITS_PER_ITEM));
+    long numBlocks = Math.max(1L, (long) Math.ceil(bits / BLOCK_BITS));
+    return numBlocks * BLOCK_BITS;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for SplitBlockBloomFilter
+   */
+  public static class Builder implements FilterBuilder<SplitBlockBloomFilter> {
+    private double fpp = Utils.DEFAULT_FPP;
+    private long capacity = 0L;
+    private File file = null;
+    private boolean useOffHeapMemory = false;
+    private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
+
+    private Builder() {
+      super();
+    }
+
+    @Override
+    public Builder withFalsePositiveRate(double fpp) {
+      Utils.checkArgument(fpp > 0.0 && fpp < 1.0,
+         String.format("False positive rate(%s) must be in range (0, 1)", fpp));
+      this.fpp = fpp;
+      return this;
+    }
+
+    @Override
+    public Builder withExpectedNumberOfItems(long expected) {
+      Utils.checkArgument(expected > 0,
+         String.format("Expected number of insertions (%s) must be > 0", expected ));
+      this.capacity = expected;
+      return this;
+    }
+
+    @Override
+    public Builder useOffHeapMemory(boolean useOffHeapMemory) {
+      this.useOffHeapMemory = useOffHeapMemory;
+      return this;
+    }
+
+    @Override
+    public Builder withFileMapped(File file) {
+      this.file = file;
+      return this;
+    }
+
+    @Override
+    public FilterBuilder withHasher(HashFunction hasher) {
+      this.hasher = hasher;
+      return this;
+    }
+
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
+    @Override
+    public SplitBlockBloomFilter build() throws IOException {
+      if(!useOffHeapMemory) {
+        Utils.checkArgument(file == null,
+           String.format("Can not map file(%s) to on-heap bit vector", file));
+      }
+
+      long numBits = reduction.size(optimalNumOfBits(capacity, fpp) / BLOCK_BITS) * BLOCK_BITS;
+      log.log(Level.FINE, String.format("Optimal num bits are %d", numBits));
+
+      BitSet bitset = null;
+      if(file != null) {
+        bitset = new OffHeapBitArray(file, numBits);
+      } else {
+        if(useOffHeapMemory) {
+          bitset = new OffHeapBitArray(numBits);
+        } else {
+          bitset = new BitArray(numBits);
+        }
+      }
+      SplitBlockBloomFilter filter = new SplitBlockBloomFilter(bitset, hasher, reduction);
+      return Snapshot.describe(filter, bitset);
+    }
+  }
+}
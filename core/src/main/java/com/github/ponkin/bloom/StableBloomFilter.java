@@ -6,6 +6,7 @@ import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 import static java.lang.Math.pow;
 
@@ -37,12 +38,19 @@ import static java.lang.Math.pow;
  * @author Alexey Ponkin
  *
  */
-public class StableBloomFilter implements Filter {
+public class StableBloomFilter extends AbstractFilter {
 
   private static final Logger log = Logger.getLogger(StableBloomFilter.class.getName());
 
   private final BucketSet bucketSet;
 
+  private final BitSet bitset;
+
+  /*
+   * First bit of every bucket that fits in word
+   */
+  private final long lanesFirst;
+
   private final int numHashFunctions;
 
   private final long numOfBuckets;
@@ -53,10 +61,10 @@ public class StableBloomFilter implements Filter {
    */
   private final int bitsPerBucket;
 
-  private final HashFunction strategy;
-
   private final long bucketsToDecrement;
 
+  private final IndexRange range;
+
   /**
    * Mask for fast division by 32
    * since we have default parallelism = 32
@@ -74,13 +82,21 @@ public class StableBloomFilter implements Filter {
   private final ReentrantReadWriteLock[] segments = new ReentrantReadWriteLock[DEFAULT_CONCURRENCY_LEVEL];
 
   StableBloomFilter(BitSet bitset, long numOfBuckets, int bitsPerBucket, long bucketsToDecrement, int numHashFunctions, HashFunction strategy) {
+    this(bitset, numOfBuckets, bitsPerBucket, bucketsToDecrement, numHashFunctions, strategy, IndexReduction.MODULO);
+  }
+
+  StableBloomFilter(BitSet bitset, long numOfBuckets, int bitsPerBucket, long bucketsToDecrement, int numHashFunctions,
+                    HashFunction strategy, IndexReduction reduction) {
+    super(strategy, numHashFunctions);
     // allow 1 item per bucket
     this.bucketSet = new BucketSet(bitsPerBucket, 1, numOfBuckets, bitset);
+    this.bitset = bitset;
+    this.lanesFirst = firstBits(bitsPerBucket);
     this.numHashFunctions = numHashFunctions;
     this.numOfBuckets = numOfBuckets;
     this.bitsPerBucket = bitsPerBucket;
-    this.strategy = strategy;
     this.bucketsToDecrement = bucketsToDecrement;
+    this.range = new IndexRange(numOfBuckets, reduction);
     for(int i=0;i<DEFAULT_CONCURRENCY_LEVEL;i++) {
       segments[i] = new ReentrantReadWriteLock();
     }
@@ -95,19 +111,16 @@ public class StableBloomFilter implements Filter {
   }
 
   @Override
-  public boolean remove(byte[] bytes) {
+  boolean removeHashes(long[] hashes) {
     throw new UnsupportedOperationException("remove() method is not supported in StableBloomFilter");
   }
 
   @Override
-  public boolean mightContain(byte[] bytes) {
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(bytes, hashes);
-
+  boolean mightContainHashes(long[] hashes) {
     // if one of the buckets == 0 than return false
     boolean mightContain = true;
-    for(int i = 0; i < hashes.length && mightContain; i++) {
-      long idx = hashes[i] % numOfBuckets;
+    for(int i = 0; i < numHashFunctions && mightContain; i++) {
+      long idx = range.index(hashes[i]);
       ReentrantReadWriteLock.ReadLock currentLock = segments[(int)(idx & FAST_MOD_32)].readLock();
       currentLock.lock();
       try { // just in case something goes wrong
@@ -123,13 +136,30 @@ public class StableBloomFilter implements Filter {
   }
 
   @Override
-  public boolean put(byte[] bytes) {
-    long[] hashes = new long[numHashFunctions];
-    strategy.hashes(bytes, hashes);
+  boolean putHashes(long[] hashes) {
     // make room for new values
     decrement();
-    for (int i = 0; i < hashes.length; i++) {
-      long idx = hashes[i] % numOfBuckets;
+    putMax(hashes);
+    // forever true since we always overwrite bucket content
+    return true;
+  }
+
+  /**
+   * Decay for the whole batch is done at once,
+   * <code>p * count</code> buckets are decremented in one pass
+   */
+  @Override
+  int putBatch(long[][] hashes, int count) {
+    decay(ThreadLocalRandom.current().nextLong(numOfBuckets), bucketsToDecrement * count);
+    for (int i = 0; i < count; i++) {
+      putMax(hashes[i]);
+    }
+    return count;
+  }
+
+  private void putMax(long[] hashes) {
+    for (int i = 0; i < numHashFunctions; i++) {
+      long idx = range.index(hashes[i]);
       ReentrantReadWriteLock.WriteLock currentLock = segments[(int)(idx & FAST_MOD_32)].writeLock();
       currentLock.lock();
       try { // just in case something goes wrong
@@ -138,8 +168,6 @@ public class StableBloomFilter implements Filter {
         currentLock.unlock();
       }
     }
-    // forever true since we always overwrite bucket content
-    return true;
   }
 
   @Override
@@ -152,6 +180,25 @@ public class StableBloomFilter implements Filter {
     bucketSet.clear();
   }
 
+  @Override
+  Snapshot snapshot() {
+    return new Snapshot(Snapshot.Type.STABLE, strategy, range.reduction(), 0,
+        numHashFunctions, bitsPerBucket, 1, bitset.bitSize(), numOfBuckets, bucketsToDecrement);
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel out) throws IOException {
+    snapshot().write(out);
+    bitset.writeTo(out);
+  }
+
+  static StableBloomFilter create(Snapshot header, BitSet bits) throws IOException {
+    long numBuckets = header.param(0);
+    long bucketsToDecrement = header.param(1);
+    return new StableBloomFilter(bits, numBuckets, header.bitsPerBucket, bucketsToDecrement,
+        header.numHashFunctions, header.hasher, header.reduction);
+  }
+
   @Override
   public void close() {
     log.log(Level.INFO, "Closing StableBloomFilter");
@@ -182,6 +229,10 @@ public class StableBloomFilter implements Filter {
           );
     }
 
+    if (!this.range.equals(that.range)) {
+      throw new IncompatibleMergeException("Cannot merge bloom filters with different index reduction");
+    }
+
     // lock all segments
     ReentrantReadWriteLock.WriteLock[] locks = 
       new ReentrantReadWriteLock.WriteLock[segments.length];
@@ -206,22 +257,93 @@ public class StableBloomFilter implements Filter {
    * for being picked at each iteration, which means the properties still hold.
    */
   private void decrement() {
-    long pivot = ThreadLocalRandom.current().nextLong(numOfBuckets);
-    for(int i=0; i<bucketsToDecrement; i++) {
-      long idx = (pivot + i) % numOfBuckets;
-      ReentrantReadWriteLock.WriteLock currentLock = segments[(int)(idx & FAST_MOD_32)].writeLock();
-      currentLock.lock();
-      try { // just in case something goes wrong
-        long bucketVal = bucketSet.readTag(idx, 0);
-        if(bucketVal != 0L) {
-          bucketSet.writeTag(idx, 0, bucketVal-1);
-        }
-      } finally {
-        currentLock.unlock();
+    decay(ThreadLocalRandom.current().nextLong(numOfBuckets), bucketsToDecrement);
+  }
+
+  /**
+   * Decrement <code>count</code> consecutive buckets
+   * starting from bucket <code>from</code>, wraps around
+   * the end of filter.
+   */
+  void decay(long from, long count) {
+    long idx = from;
+    while (count > 0) {
+      long run = Math.min(count, numOfBuckets - idx);
+      decayRange(idx, idx + run);
+      count -= run;
+      idx = 0; // wrap around
+    }
+  }
+
+  /*
+   * Buckets inside one word are decremented all at once,
+   * word is updated with CAS, so it does not need locks,
+   * writers of max value also update word atomically.
+   * Bucket that crosses word boundary is decremented
+   * under its segment lock.
+   */
+  private void decayRange(long from, long to) {
+    long lastWord = (to * bitsPerBucket - 1) >>> 6;
+    for (long word = (from * bitsPerBucket) >>> 6; word <= lastWord; word++) {
+      long wordStart = word << 6;
+      long wordEnd = wordStart + Long.SIZE;
+      // buckets which are entirely inside word
+      long first = Math.max(from, (wordStart + bitsPerBucket - 1) / bitsPerBucket);
+      long last = Math.min(to, wordEnd / bitsPerBucket);
+      if (first < last) {
+        decrementLanes(word, (int) (first * bitsPerBucket - wordStart), (int) (last - first));
+      }
+      if (last < to && last * bitsPerBucket < wordEnd) {
+        decrementBucket(last);
       }
     }
   }
- 
+
+  /*
+   * Saturating decrement of <code>numLanes</code> buckets
+   * starting from bit <code>offset</code> of word.
+   * Buckets are stored most significant bit first,
+   * so reversed word has plain counters. Lowest bits of counter
+   * carry into highest one if any of them is set, that gives
+   * one bit for each nonzero counter, it is subtracted from
+   * the lowest bit of counter and never borrows from neighbour.
+   */
+  private void decrementLanes(long wordIndex, int offset, int numLanes) {
+    long lanes = Utils.MASKS[numLanes * bitsPerBucket] << offset;
+    long high = Long.reverse((lanesFirst & Utils.MASKS[numLanes * bitsPerBucket]) << offset);
+    long plain = Long.reverse(lanes);
+    long low = plain & ~high;
+    long word;
+    long update;
+    do {
+      word = bitset.getWord(wordIndex);
+      long counters = Long.reverse(word) & plain;
+      long nonZero = (((counters & low) + low) | counters) & high;
+      update = (word & ~lanes) | Long.reverse(counters - (nonZero >>> (bitsPerBucket - 1)));
+    } while (update != word && !bitset.compareAndSetWord(wordIndex, word, update));
+  }
+
+  private void decrementBucket(long idx) {
+    ReentrantReadWriteLock.WriteLock currentLock = segments[(int)(idx & FAST_MOD_32)].writeLock();
+    currentLock.lock();
+    try { // just in case something goes wrong
+      long bucketVal = bucketSet.readTag(idx, 0);
+      if(bucketVal != 0L) {
+        bucketSet.writeTag(idx, 0, bucketVal-1);
+      }
+    } finally {
+      currentLock.unlock();
+    }
+  }
+
+  private static long firstBits(int bitsPerBucket) {
+    long bits = 0L;
+    for (int i = 0; i + bitsPerBucket <= Long.SIZE; i += bitsPerBucket) {
+      bits |= 1L << i;
+    }
+    return bits;
+  }
+
   /* 
    * stablePoint returns the limit of the expected fraction of zeros in the
    * Stable Bloom Filter when the number of iterations goes to infinity. When
@@ -265,6 +387,7 @@ public class StableBloomFilter implements Filter {
     private boolean useOffHeapMemory = false;
     private int bitsPerBucket = 1;
     private HashFunction hasher = Hashers.MURMUR3_128;
+    private IndexReduction reduction = IndexReduction.MODULO;
 
     private Builder() {
       super();
@@ -304,6 +427,12 @@ public class StableBloomFilter implements Filter {
       return this;
     }
 
+    @Override
+    public Builder withIndexReduction(IndexReduction reduction) {
+      this.reduction = reduction;
+      return this;
+    }
+
     public Builder withBitsPerBucket(int bitsPerBucket) {
       Utils.checkArgument(bitsPerBucket > 0 && bitsPerBucket < 64, 
           String.format("number of bits(%d) for each bucket must in range (0, 64)", bitsPerBucket));
@@ -319,8 +448,9 @@ public class StableBloomFilter implements Filter {
       }
 
       long numBuckets = Utils.optimalNumOfBits(capacity, fpp);
-      log.log(Level.FINE, "Optimal num of buckets are "+String.valueOf(numBuckets));
       int numHashFunctions = Utils.optimalNumOfHashFunctions(capacity, numBuckets);
+      numBuckets = reduction.size(numBuckets);
+      log.log(Level.FINE, "Optimal num of buckets are "+String.valueOf(numBuckets));
       log.log(Level.FINE, "Optimal num of hash functions "+String.valueOf(numHashFunctions));
       // p - number of buckets to decrement
       long p = optimalP(numBuckets, numHashFunctions, bitsPerBucket, fpp);
@@ -336,7 +466,9 @@ public class StableBloomFilter implements Filter {
           bitset = new BitArray(numBuckets*bitsPerBucket);
         }
       }
-      return new StableBloomFilter(bitset, numBuckets, bitsPerBucket, p, numHashFunctions, hasher);
+      StableBloomFilter filter =
+        new StableBloomFilter(bitset, numBuckets, bitsPerBucket, p, numHashFunctions, hasher, reduction);
+      return Snapshot.describe(filter, bitset);
     }
   }
 }
@@ -1,5 +1,7 @@
 package com.github.ponkin.bloom;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 import static java.lang.Math.log;
@@ -94,6 +96,27 @@ class Utils {
     return bytes;
   }
 
+  /**
+   * @return copy of remaining bytes of <code>buffer</code>,
+   * position of buffer is not changed
+   */
+  public static byte[] getBytesFromByteBuffer(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /**
+   * @return 8 byte little-endian representation of <code>value</code>
+   */
+  public static byte[] getBytesFromLong(long value) {
+    byte[] bytes = new byte[8];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (value >>> (i << 3));
+    }
+    return bytes;
+  }
+
   /**
    * Computes the optimal k (number of hashes per item inserted in Bloom filter), given the
    * expected insertions and total number of bits in the Bloom filter.
@@ -156,4 +179,58 @@ class Utils {
     long result = x % m;
     return (result >= 0) ? result : result + m;
   }
+
+  static boolean isPowerOfTwo(long n) {
+    return n > 0 && (n & (n - 1)) == 0;
+  }
+
+  /**
+   * Smallest power of two
+   * greater or equal to <code>n</code>
+   */
+  static long nextPowerOfTwo(long n) {
+    checkArgument(n > 0 && n <= (1L << 62),
+       String.format("Can not round %d to power of two", n));
+    return n == 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+  }
+
+  private static final boolean LITTLE_ENDIAN =
+    ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * Read long in little endian byte order
+   * with one unaligned memory read
+   */
+  static long getLongLittleEndian(Object base, long offset) {
+    long value = Platform.getLong(base, offset);
+    return LITTLE_ENDIAN ? value : Long.reverseBytes(value);
+  }
+
+  /**
+   * Read int in little endian byte order
+   * with one unaligned memory read
+   */
+  static int getIntLittleEndian(Object base, long offset) {
+    int value = Platform.getInt(base, offset);
+    return LITTLE_ENDIAN ? value : Integer.reverseBytes(value);
+  }
+
+  /**
+   * Upper 64 bits of unsigned 128 bit product,
+   * Math.multiplyHigh is not available in Java 8
+   */
+  static long unsignedMultiplyHigh(long x, long y) {
+    long x1 = x >> 32;
+    long x2 = x & 0xFFFFFFFFL;
+    long y1 = y >> 32;
+    long y2 = y & 0xFFFFFFFFL;
+    long z2 = x2 * y2;
+    long t = x1 * y2 + (z2 >>> 32);
+    long z1 = t & 0xFFFFFFFFL;
+    long z0 = t >> 32;
+    z1 += x2 * y1;
+    long signedHigh = x1 * y1 + z0 + (z1 >> 32);
+    // signed to unsigned correction
+    return signedHigh + ((x >> 63) & y) + ((y >> 63) & x);
+  }
 }
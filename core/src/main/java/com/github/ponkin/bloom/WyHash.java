@@ -0,0 +1,122 @@
+package com.github.ponkin.bloom;
+
+/**
+ * 64-bit wyhash hasher, version 3.
+ * Based on <a href="https://github.com/wangyi-fudan/wyhash">wyhash</a>
+ * and <a href="https://github.com/OpenHFT/Zero-Allocation-Hashing">Zero-Allocation-Hashing</a>
+ * implementation. Input is read with {@link Platform} in place.
+ */
+final class WyHash {
+
+  private static final long P0 = 0xa0761d6478bd642fL;
+  private static final long P1 = 0xe7037ed1a0b428dbL;
+  private static final long P2 = 0x8ebc6af09c88c6e3L;
+  private static final long P3 = 0x589965cc75374cc3L;
+  private static final long P4 = 0x1d8e4e27c47d124fL;
+
+  private WyHash() {
+  }
+
+  static long hashBytes(byte[] data, long seed) {
+    return hashUnsafeBytes(data, Platform.BYTE_ARRAY_OFFSET, data.length, seed);
+  }
+
+  /**
+   * Hash <code>length</code> bytes starting from <code>offset</code>
+   * of <code>base</code> object, or from raw address <code>offset</code>
+   * if <code>base</code> is null.
+   */
+  static long hashUnsafeBytes(Object base, long offset, int length, long seed) {
+    if (length <= 0) {
+      return 0L;
+    }
+    if (length <= 32) {
+      return mum(tail(base, offset, length, seed), length ^ P4);
+    }
+    long see1 = seed;
+    long p = offset;
+    int i = length;
+    for (; i > 256; i -= 256, p += 256) {
+      for (int j = 0; j < 256; j += 64) {
+        seed = mum(read64(base, p + j) ^ seed ^ P0, read64(base, p + j + 8) ^ seed ^ P1)
+          ^ mum(read64(base, p + j + 16) ^ seed ^ P2, read64(base, p + j + 24) ^ seed ^ P3);
+        see1 = mum(read64(base, p + j + 32) ^ see1 ^ P1, read64(base, p + j + 40) ^ see1 ^ P2)
+          ^ mum(read64(base, p + j + 48) ^ see1 ^ P3, read64(base, p + j + 56) ^ see1 ^ P0);
+      }
+    }
+    for (; i > 32; i -= 32, p += 32) {
+      seed = mum(read64(base, p) ^ seed ^ P0, read64(base, p + 8) ^ seed ^ P1);
+      see1 = mum(read64(base, p + 16) ^ see1 ^ P2, read64(base, p + 24) ^ see1 ^ P3);
+    }
+    if (i < 4) {
+      seed = mum(read3(base, p, i) ^ seed ^ P0, seed ^ P1);
+    } else if (i <= 8) {
+      seed = mum(read32(base, p) ^ seed ^ P0, read32(base, p + i - 4) ^ seed ^ P1);
+    } else if (i <= 16) {
+      seed = mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + i - 8) ^ seed ^ P1);
+    } else if (i <= 24) {
+      seed = mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + 8) ^ seed ^ P1);
+      see1 = mum(read64Swapped(base, p + i - 8) ^ see1 ^ P2, see1 ^ P3);
+    } else {
+      seed = mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + 8) ^ seed ^ P1);
+      see1 = mum(read64Swapped(base, p + 16) ^ see1 ^ P2, read64Swapped(base, p + i - 8) ^ see1 ^ P3);
+    }
+    return mum(seed ^ see1, length ^ P4);
+  }
+
+  /**
+   * Hash of 8 byte little-endian representation
+   * of <code>data</code>, without allocation
+   */
+  static long hashLong(long data, long seed) {
+    long low = data & 0xFFFFFFFFL;
+    long high = data >>> 32;
+    return mum(mum(low ^ seed ^ P0, high ^ seed ^ P1) ^ seed, 8 ^ P4);
+  }
+
+  /*
+   * Short input of 1 to 32 bytes
+   */
+  private static long tail(Object base, long p, int length, long seed) {
+    if (length < 4) {
+      return mum(read3(base, p, length) ^ seed ^ P0, seed ^ P1) ^ seed;
+    }
+    if (length <= 8) {
+      return mum(read32(base, p) ^ seed ^ P0, read32(base, p + length - 4) ^ seed ^ P1) ^ seed;
+    }
+    if (length <= 16) {
+      return mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + length - 8) ^ seed ^ P1) ^ seed;
+    }
+    if (length <= 24) {
+      return mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + 8) ^ seed ^ P1)
+        ^ mum(read64Swapped(base, p + length - 8) ^ seed ^ P2, seed ^ P3);
+    }
+    return mum(read64Swapped(base, p) ^ seed ^ P0, read64Swapped(base, p + 8) ^ seed ^ P1)
+      ^ mum(read64Swapped(base, p + 16) ^ seed ^ P2, read64Swapped(base, p + length - 8) ^ seed ^ P3);
+  }
+
+  private static long mum(long x, long y) {
+    return (x * y) ^ Utils.unsignedMultiplyHigh(x, y);
+  }
+
+  private static long read64(Object base, long offset) {
+    return Utils.getLongLittleEndian(base, offset);
+  }
+
+  /*
+   * Little endian long with swapped halves
+   */
+  private static long read64Swapped(Object base, long offset) {
+    return Long.rotateLeft(Utils.getLongLittleEndian(base, offset), 32);
+  }
+
+  private static long read32(Object base, long offset) {
+    return Utils.getIntLittleEndian(base, offset) & 0xFFFFFFFFL;
+  }
+
+  private static long read3(Object base, long offset, int length) {
+    return ((Platform.getByte(base, offset) & 0xFFL) << 16)
+      | ((Platform.getByte(base, offset + (length >>> 1)) & 0xFFL) << 8)
+      | (Platform.getByte(base, offset + length - 1) & 0xFFL);
+  }
+}
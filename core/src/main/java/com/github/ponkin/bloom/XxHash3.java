@@ -0,0 +1,262 @@
+package com.github.ponkin.bloom;
+
+/**
+ * 64-bit XXH3 hasher with default secret.
+ * Based on reference implementation <a href="https://github.com/Cyan4973/xxHash">xxHash</a>.
+ * Scalar version of the algorithm, accumulators of long
+ * inputs are kept in local variables, so hashing does not allocate.
+ */
+final class XxHash3 {
+
+  private static final long P32_1 = 0x9E3779B1L;
+  private static final long P32_2 = 0x85EBCA77L;
+  private static final long P32_3 = 0xC2B2AE3DL;
+  private static final long P64_1 = 0x9E3779B185EBCA87L;
+  private static final long P64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P64_3 = 0x165667B19E3779F9L;
+  private static final long P64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long P64_5 = 0x27D4EB2F165667C5L;
+  private static final long PRIME_MX1 = 0x165667919E3779F9L;
+  private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+  private static final int STRIPE_LEN = 64;
+  private static final int SECRET_CONSUME_RATE = 8;
+  private static final int STRIPES_PER_BLOCK = (192 - STRIPE_LEN) / SECRET_CONSUME_RATE;
+  private static final int BLOCK_LEN = STRIPE_LEN * STRIPES_PER_BLOCK;
+
+  /*
+   * Default 192 byte secret
+   */
+  private static final byte[] SECRET = {
+    (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+    (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+    (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+    (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+    (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+    (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+    (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+    (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+    (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+    (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+    (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+    (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+    (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+    (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+    (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+    (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+    (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+    (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+    (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+    (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+    (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+    (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+    (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+    (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e
+  };
+
+  private XxHash3() {
+  }
+
+  static long hashBytes(byte[] data) {
+    return hashUnsafeBytes(data, Platform.BYTE_ARRAY_OFFSET, data.length);
+  }
+
+  /**
+   * Hash <code>length</code> bytes starting from <code>offset</code>
+   * of <code>base</code> object, or from raw address <code>offset</code>
+   * if <code>base</code> is null.
+   */
+  static long hashUnsafeBytes(Object base, long offset, int length) {
+    if (length <= 16) {
+      return hashUpTo16(base, offset, length);
+    }
+    if (length <= 128) {
+      return hashUpTo128(base, offset, length);
+    }
+    if (length <= 240) {
+      return hashUpTo240(base, offset, length);
+    }
+    return hashLong(base, offset, length);
+  }
+
+  /**
+   * Hash of 8 byte little-endian representation
+   * of <code>data</code>, without allocation
+   */
+  static long hashLong(long data) {
+    long bitflip = secret(8) ^ secret(16);
+    // low and high halves are swapped by 4-8 bytes path
+    long keyed = Long.rotateLeft(data, 32) ^ bitflip;
+    return rrmxmx(keyed, 8);
+  }
+
+  private static long hashUpTo16(Object base, long offset, int length) {
+    if (length > 8) {
+      long bitflip1 = secret(24) ^ secret(32);
+      long bitflip2 = secret(40) ^ secret(48);
+      long lo = Utils.getLongLittleEndian(base, offset) ^ bitflip1;
+      long hi = Utils.getLongLittleEndian(base, offset + length - 8) ^ bitflip2;
+      long acc = length + Long.reverseBytes(lo) + hi + mul128Fold64(lo, hi);
+      return avalanche(acc);
+    }
+    if (length >= 4) {
+      long input1 = Utils.getIntLittleEndian(base, offset) & 0xFFFFFFFFL;
+      long input2 = Utils.getIntLittleEndian(base, offset + length - 4) & 0xFFFFFFFFL;
+      long bitflip = secret(8) ^ secret(16);
+      long keyed = (input2 + (input1 << 32)) ^ bitflip;
+      return rrmxmx(keyed, length);
+    }
+    if (length > 0) {
+      int c1 = Platform.getByte(base, offset) & 0xFF;
+      int c2 = Platform.getByte(base, offset + (length >> 1)) & 0xFF;
+      int c3 = Platform.getByte(base, offset + length - 1) & 0xFF;
+      long combined = ((c1 << 16) | (c2 << 24) | c3 | (length << 8)) & 0xFFFFFFFFL;
+      long bitflip = (Utils.getIntLittleEndian(SECRET, Platform.BYTE_ARRAY_OFFSET) ^
+        Utils.getIntLittleEndian(SECRET, Platform.BYTE_ARRAY_OFFSET + 4)) & 0xFFFFFFFFL;
+      return xxh64Avalanche(combined ^ bitflip);
+    }
+    return xxh64Avalanche(secret(56) ^ secret(64));
+  }
+
+  private static long hashUpTo128(Object base, long offset, int length) {
+    long acc = length * P64_1;
+    if (length > 32) {
+      if (length > 64) {
+        if (length > 96) {
+          acc += mix16(base, offset + 48, 96);
+          acc += mix16(base, offset + length - 64, 112);
+        }
+        acc += mix16(base, offset + 32, 64);
+        acc += mix16(base, offset + length - 48, 80);
+      }
+      acc += mix16(base, offset + 16, 32);
+      acc += mix16(base, offset + length - 32, 48);
+    }
+    acc += mix16(base, offset, 0);
+    acc += mix16(base, offset + length - 16, 16);
+    return avalanche(acc);
+  }
+
+  private static long hashUpTo240(Object base, long offset, int length) {
+    long acc = length * P64_1;
+    int numRounds = length / 16;
+    for (int i = 0; i < 8; i++) {
+      acc += mix16(base, offset + 16 * i, 16 * i);
+    }
+    acc = avalanche(acc);
+    for (int i = 8; i < numRounds; i++) {
+      acc += mix16(base, offset + 16 * i, 16 * (i - 8) + 3);
+    }
+    acc += mix16(base, offset + length - 16, 136 - 17);
+    return avalanche(acc);
+  }
+
+  private static long hashLong(Object base, long offset, int length) {
+    long acc0 = P32_3;
+    long acc1 = P64_1;
+    long acc2 = P64_2;
+    long acc3 = P64_3;
+    long acc4 = P64_4;
+    long acc5 = P32_2;
+    long acc6 = P64_5;
+    long acc7 = P32_1;
+
+    int numBlocks = (length - 1) / BLOCK_LEN;
+    int numStripes = numBlocks * STRIPES_PER_BLOCK
+      + ((length - 1) - BLOCK_LEN * numBlocks) / STRIPE_LEN;
+    // all full stripes and last stripe which overlaps previous one
+    for (int n = 0; n <= numStripes; n++) {
+      long input;
+      int secret;
+      if (n < numStripes) {
+        input = offset + (long) n * STRIPE_LEN;
+        secret = (n % STRIPES_PER_BLOCK) * SECRET_CONSUME_RATE;
+      } else {
+        input = offset + length - STRIPE_LEN;
+        secret = SECRET.length - STRIPE_LEN - 7;
+      }
+      long d0 = Utils.getLongLittleEndian(base, input);
+      long d1 = Utils.getLongLittleEndian(base, input + 8);
+      long d2 = Utils.getLongLittleEndian(base, input + 16);
+      long d3 = Utils.getLongLittleEndian(base, input + 24);
+      long d4 = Utils.getLongLittleEndian(base, input + 32);
+      long d5 = Utils.getLongLittleEndian(base, input + 40);
+      long d6 = Utils.getLongLittleEndian(base, input + 48);
+      long d7 = Utils.getLongLittleEndian(base, input + 56);
+      acc0 += d1 + mul32(d0 ^ secret(secret));
+      acc1 += d0 + mul32(d1 ^ secret(secret + 8));
+      acc2 += d3 + mul32(d2 ^ secret(secret + 16));
+      acc3 += d2 + mul32(d3 ^ secret(secret + 24));
+      acc4 += d5 + mul32(d4 ^ secret(secret + 32));
+      acc5 += d4 + mul32(d5 ^ secret(secret + 40));
+      acc6 += d7 + mul32(d6 ^ secret(secret + 48));
+      acc7 += d6 + mul32(d7 ^ secret(secret + 56));
+
+      if (n < numBlocks * STRIPES_PER_BLOCK && n % STRIPES_PER_BLOCK == STRIPES_PER_BLOCK - 1) {
+        // end of full block
+        int scramble = SECRET.length - STRIPE_LEN;
+        acc0 = scramble(acc0, scramble);
+        acc1 = scramble(acc1, scramble + 8);
+        acc2 = scramble(acc2, scramble + 16);
+        acc3 = scramble(acc3, scramble + 24);
+        acc4 = scramble(acc4, scramble + 32);
+        acc5 = scramble(acc5, scramble + 40);
+        acc6 = scramble(acc6, scramble + 48);
+        acc7 = scramble(acc7, scramble + 56);
+      }
+    }
+
+    long result = length * P64_1;
+    result += mul128Fold64(acc0 ^ secret(11), acc1 ^ secret(19));
+    result += mul128Fold64(acc2 ^ secret(27), acc3 ^ secret(35));
+    result += mul128Fold64(acc4 ^ secret(43), acc5 ^ secret(51));
+    result += mul128Fold64(acc6 ^ secret(59), acc7 ^ secret(67));
+    return avalanche(result);
+  }
+
+  private static long secret(int offset) {
+    return Utils.getLongLittleEndian(SECRET, Platform.BYTE_ARRAY_OFFSET + offset);
+  }
+
+  private static long mix16(Object base, long offset, int secret) {
+    return mul128Fold64(
+      Utils.getLongLittleEndian(base, offset) ^ secret(secret),
+      Utils.getLongLittleEndian(base, offset + 8) ^ secret(secret + 8));
+  }
+
+  private static long mul32(long key) {
+    return (key & 0xFFFFFFFFL) * (key >>> 32);
+  }
+
+  private static long scramble(long acc, int secret) {
+    acc ^= acc >>> 47;
+    acc ^= secret(secret);
+    return acc * P32_1;
+  }
+
+  private static long mul128Fold64(long x, long y) {
+    return (x * y) ^ Utils.unsignedMultiplyHigh(x, y);
+  }
+
+  private static long avalanche(long h) {
+    h ^= h >>> 37;
+    h *= PRIME_MX1;
+    return h ^ (h >>> 32);
+  }
+
+  private static long xxh64Avalanche(long h) {
+    h ^= h >>> 33;
+    h *= P64_2;
+    h ^= h >>> 29;
+    h *= P64_3;
+    return h ^ (h >>> 32);
+  }
+
+  private static long rrmxmx(long h, int length) {
+    h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+    h *= PRIME_MX2;
+    h ^= (h >>> 35) + length;
+    h *= PRIME_MX2;
+    return h ^ (h >>> 28);
+  }
+}
@@ -0,0 +1,105 @@
+package com.github.ponkin.bloom;
+
+/**
+ * 64-bit xxHash hasher.
+ * Based on reference implementation <a href="https://github.com/Cyan4973/xxHash">xxHash</a>.
+ * Input is read with {@link Platform} in place, so
+ * arrays and off-heap memory are hashed without copy.
+ */
+final class XxHash64 {
+
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private XxHash64() {
+  }
+
+  static long hashBytes(byte[] data, long seed) {
+    return hashUnsafeBytes(data, Platform.BYTE_ARRAY_OFFSET, data.length, seed);
+  }
+
+  /**
+   * Hash <code>length</code> bytes starting from <code>offset</code>
+   * of <code>base</code> object, or from raw address <code>offset</code>
+   * if <code>base</code> is null.
+   */
+  static long hashUnsafeBytes(Object base, long offset, int length, long seed) {
+    long end = offset + length;
+    long h;
+    if (length >= 32) {
+      long limit = end - 32;
+      long v1 = seed + P1 + P2;
+      long v2 = seed + P2;
+      long v3 = seed;
+      long v4 = seed - P1;
+      do {
+        v1 = round(v1, Utils.getLongLittleEndian(base, offset));
+        v2 = round(v2, Utils.getLongLittleEndian(base, offset + 8));
+        v3 = round(v3, Utils.getLongLittleEndian(base, offset + 16));
+        v4 = round(v4, Utils.getLongLittleEndian(base, offset + 24));
+        offset += 32;
+      } while (offset <= limit);
+
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+        + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = seed + P5;
+    }
+    h += length;
+
+    while (offset + 8 <= end) {
+      h ^= round(0, Utils.getLongLittleEndian(base, offset));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+      offset += 8;
+    }
+    if (offset + 4 <= end) {
+      h ^= (Utils.getIntLittleEndian(base, offset) & 0xFFFFFFFFL) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      offset += 4;
+    }
+    while (offset < end) {
+      h ^= (Platform.getByte(base, offset) & 0xFFL) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+      offset++;
+    }
+    return avalanche(h);
+  }
+
+  /**
+   * Hash of 8 byte little-endian representation
+   * of <code>data</code>, without allocation
+   */
+  static long hashLong(long data, long seed) {
+    long h = seed + P5 + 8;
+    h ^= round(0, data);
+    h = Long.rotateLeft(h, 27) * P1 + P4;
+    return avalanche(h);
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * P2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * P1;
+  }
+
+  private static long mergeRound(long acc, long val) {
+    acc ^= round(0, val);
+    return acc * P1 + P4;
+  }
+
+  private static long avalanche(long h) {
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    h ^= h >>> 32;
+    return h;
+  }
+}
@@ -3,6 +3,9 @@ package com.github.ponkin.bloom
 import org.apache.commons.lang3.StringUtils
 
 import scala.util.Random
+import scala.concurrent.{ Await, Future }
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
 import org.scalatest.FunSuite // scalastyle:ignore funsuite
 
 class BloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
@@ -104,4 +107,184 @@ class BloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
       filter1.mergeInPlace(filter2)
     }
   }
+
+  IndexReduction.values.foreach { reduction =>
+    test(s"accuracy - $reduction index reduction") {
+      // use a fixed seed to make the test predictable.
+      val r = new Random(37)
+      val fpp = 0.02
+      val numInsertion = numItems / 10
+
+      val allItems = Array.fill(numItems)(itemGen(r))
+
+      val filter = BloomFilter.builder
+        .withExpectedNumberOfItems(numInsertion)
+        .withFalsePositiveRate(fpp)
+        .withIndexReduction(reduction)
+        .build()
+        .asInstanceOf[BloomFilter]
+
+      if (reduction == IndexReduction.POWER_OF_TWO) {
+        assert(java.lang.Long.bitCount(filter.bitSize()) === 1)
+      }
+
+      val inserted = allItems.take(numInsertion).filter(StringUtils.isNotEmpty)
+      inserted.foreach(filter.put)
+
+      // false negative is not allowed.
+      assert(inserted.forall(filter.mightContain))
+
+      val errorCount = allItems.drop(numInsertion).count(filter.mightContain)
+      val actualFpp = errorCount.toDouble / (numItems - numInsertion)
+      assert(actualFpp - fpp < EPSILON)
+    }
+  }
+
+  test("index reduction") {
+    // power of two size is masked with any reduction, the same as modulo
+    val pow2 = new IndexRange(1L << 20, IndexReduction.MULTIPLY_SHIFT)
+    val mod = new IndexRange(1000003L, IndexReduction.MODULO)
+    val mulShift = new IndexRange(1000003L, IndexReduction.MULTIPLY_SHIFT)
+    val large = new IndexRange((1L << 40) + 7, IndexReduction.MULTIPLY_SHIFT)
+    val r = new Random(37)
+    (0 until 10000).map(_ => r.nextLong() & Long.MaxValue).foreach { hash =>
+      assert(pow2.index(hash) === hash % (1L << 20))
+      assert(mod.index(hash) === hash % 1000003L)
+      assert(mulShift.index(hash) >= 0 && mulShift.index(hash) < 1000003L)
+      assert(large.index(hash) >= 0 && large.index(hash) < (1L << 40) + 7)
+    }
+    // 31 bit hashes are spread over whole range
+    val small = (0 until 10000).map(_ => mulShift.index(r.nextInt() & Int.MaxValue))
+    assert(small.count(_ < 1000003L / 2) > 4500 && small.count(_ >= 1000003L / 2) > 4500)
+    val largeSmall = (0 until 10000).map(_ => large.index(r.nextInt() & Int.MaxValue))
+    assert(largeSmall.count(_ < (1L << 39)) > 4500 && largeSmall.count(_ >= (1L << 39)) > 4500)
+    assert(pow2 === new IndexRange(1L << 20, IndexReduction.MODULO))
+    assert(mod !== mulShift)
+  }
+
+  Seq[(String, () => FilterBuilder[_ <: Filter])](
+    "BloomFilter" -> (() => BloomFilter.builder()),
+    "PartitionedBloomFilter" -> (() => PartitionedBloomFilter.builder()),
+    "BlockedBloomFilter" -> (() => BlockedBloomFilter.builder()),
+    "SplitBlockBloomFilter" -> (() => SplitBlockBloomFilter.builder()),
+    "CountingBloomFilter" -> (() => CountingBloomFilter.builder()),
+    "StableBloomFilter" -> (() => StableBloomFilter.builder()),
+    "CuckooFilter" -> (() => CuckooFilter.builder())
+  ).foreach { case (name, builder) =>
+    test(s"accuracy - $name with MURMUR3_32 and multiply-shift reduction") {
+      // MURMUR3_32 fills only low 31 bits of hash
+      val fpp = 0.01
+      val filter = builder()
+        .withExpectedNumberOfItems(numItems)
+        .withFalsePositiveRate(fpp)
+        .withHasher(Hashers.MURMUR3_32)
+        .withIndexReduction(IndexReduction.MULTIPLY_SHIFT)
+        .build()
+      (0 until numItems).foreach(i => filter.put(i.toLong))
+      val errorCount = (numItems until 2 * numItems).count(i => filter.mightContain(i.toLong))
+      assert(errorCount.toDouble / numItems < 3 * fpp)
+      filter.close()
+    }
+  }
+
+  test("incompatible index reduction merge") {
+    intercept[IncompatibleMergeException] {
+      val filter1 = BloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .build()
+      val filter2 = BloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .withIndexReduction(IndexReduction.MULTIPLY_SHIFT)
+        .build()
+      filter1.mergeInPlace(filter2)
+    }
+  }
+
+  test("concurrent put") {
+    val r = new Random(37)
+    val items = Array.fill(numItems)(itemGen(r)).filter(StringUtils.isNotEmpty)
+
+    val filter = BloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+
+    val writers = items.grouped(items.length / 8 + 1).map { part =>
+      Future(part.foreach(filter.put))
+    }
+    Await.result(Future.sequence(writers), 1.minute)
+
+    // false negative is not allowed.
+    assert(items.forall(filter.mightContain))
+    assert(filter.expectedFpp() - Utils.DEFAULT_FPP < EPSILON)
+  }
+
+  test("batch put and mightContainAll") {
+    val r = new Random(37)
+    // not a multiple of batch size
+    val items = Array.fill(1000)(itemGen(r)).filter(StringUtils.isNotEmpty).map(_.getBytes("UTF-8"))
+    val queries = Array.fill(1000)(itemGen(r)).filter(StringUtils.isNotEmpty).map(_.getBytes("UTF-8"))
+
+    val filter = BloomFilter.builder
+      .withExpectedNumberOfItems(items.length)
+      .build()
+    assert(filter.putAll(items) > 0)
+
+    val all = items ++ queries
+    val result = new Array[Boolean](all.length)
+    filter.mightContainAll(all, result)
+    assert(result.take(items.length).forall(identity))
+    assert(result.toSeq == all.map(i => filter.mightContain(i)).toSeq)
+
+    // the same items packed into one array
+    val data = all.flatten
+    val lengths = all.map(_.length)
+    val offsets = lengths.scanLeft(0)(_ + _).init
+    val packed = new Array[Boolean](all.length)
+    filter.mightContainAll(data, offsets, lengths, packed)
+    assert(packed.toSeq == result.toSeq)
+    assert(filter.putAll(data, offsets, lengths) <= queries.length)
+  }
+
+  test("primitive keys") {
+    val filter = BloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems / 2)(i => i * 0x9E3779B97F4A7C15L)
+    ids.foreach(id => filter.put(id))
+    assert(ids.forall(id => filter.mightContain(id)))
+    // long is the same item as its little-endian bytes
+    assert(ids.forall(id => filter.mightContain(Utils.getBytesFromLong(id))))
+
+    // int is widened to long
+    assert(filter.put(42))
+    assert(filter.mightContain(42L))
+
+    val queries = ids ++ Array.tabulate(numItems / 2)(i => -i - 1L)
+    val result = new Array[Boolean](queries.length)
+    filter.mightContainAll(queries, result)
+    assert(result.toSeq == queries.map(q => filter.mightContain(q)).toSeq)
+  }
+
+  test("zero-copy keys") {
+    val filter = BloomFilter.builder
+      .withExpectedNumberOfItems(1000)
+      .build()
+    val bytes = "zero-copy".getBytes("UTF-8")
+
+    val direct = java.nio.ByteBuffer.allocateDirect(bytes.length)
+    direct.put(bytes).flip()
+    assert(filter.put(direct))
+    assert(filter.mightContain(bytes))
+    assert(filter.mightContain(java.nio.ByteBuffer.wrap(bytes)))
+    assert(filter.mightContain("xxzero-copyxx".getBytes("UTF-8"), 2, bytes.length))
+
+    assert(filter.putChars(new java.lang.StringBuilder("chars")))
+    assert(filter.mightContainChars("chars"))
+    assert(filter.mightContain("chars".getBytes("UTF-16LE")))
+
+    val buffers = Array(java.nio.ByteBuffer.wrap(bytes), direct)
+    val result = new Array[Boolean](2)
+    filter.mightContainAll(buffers, result)
+    assert(result.forall(identity))
+  }
 }
@@ -1,5 +1,6 @@
 package com.github.ponkin.bloom
 
+import scala.util.Random
 import org.scalatest.FunSuite // scalastyle:ignore funsuite
 
 class BucketSetSuite extends FunSuite {
@@ -23,4 +24,87 @@ class BucketSetSuite extends FunSuite {
     assert(bucketSet.checkTag(10, tag) == -1)
   }
 
+  test("tag is stored most significant bit first") {
+    val bitset = new BitArray(bitsPerTag * tagsPerBucket * numBuckets)
+    val bucketSet = new BucketSet(bitsPerTag, tagsPerBucket, numBuckets, bitset)
+    val value = 0x5A5A5A5AL & Utils.MASKS(bitsPerTag)
+    bucketSet.writeTag(3, 2, value)
+    val start = (3 * tagsPerBucket + 2) * bitsPerTag
+    (0 until bitsPerTag).foreach { i =>
+      assert(bitset.get(start + i) === (((value >>> (bitsPerTag - 1 - i)) & 1L) == 1L))
+    }
+    assert(bitset.cardinality() === java.lang.Long.bitCount(value))
+  }
+
+  Seq(1, 3, 8, 12, 16, 21, 32, 63, 64).foreach { bits =>
+    test(s"read, write and find $bits bit tags") {
+      val r = new Random(37)
+      val tags = 5
+      val buckets = 17
+      val bitset = new BitArray(bits * tags * buckets)
+      val bucketSet = new BucketSet(bits, tags, buckets, bitset)
+      val model = Array.fill(buckets, tags)(0L)
+      (0 until 2000).foreach { _ =>
+        val bucket = r.nextInt(buckets)
+        val pos = r.nextInt(tags)
+        // small values collide often, so found position is checked too
+        val tag = (if (r.nextBoolean()) r.nextInt(4).toLong else r.nextLong()) & Utils.MASKS(bits)
+        bucketSet.writeTag(bucket, pos, tag)
+        model(bucket)(pos) = tag
+        val query = model(r.nextInt(buckets))(r.nextInt(tags))
+        (0 until buckets).foreach { b =>
+          assert(bucketSet.checkTag(b, query) === model(b).indexOf(query))
+          assert(bucketSet.getFreePosInBucket(b) === model(b).indexOf(0L))
+        }
+      }
+      (0 until buckets).foreach { b =>
+        (0 until tags).foreach { p =>
+          assert(bucketSet.readTag(b, p) === model(b)(p))
+        }
+      }
+      val setBits = model.flatten.map(java.lang.Long.bitCount(_).toLong).sum
+      assert(bitset.cardinality() === setBits)
+    }
+  }
+
+  Seq(4, 5, 9, 13, 17).foreach { bits =>
+    test(s"semi-sorted buckets with $bits bit tags") {
+      val r = new Random(37)
+      val buckets = 17
+      val bitset = new BitArray(SemiSortedBucketSet.bitsPerBucket(bits) * buckets)
+      val bucketSet = new SemiSortedBucketSet(bits, buckets, bitset)
+      // tags are kept in ascending order
+      val model = Array.fill(buckets, SemiSortedBucketSet.TAGS_PER_BUCKET)(0L)
+      (0 until 2000).foreach { _ =>
+        val bucket = r.nextInt(buckets)
+        val pos = r.nextInt(SemiSortedBucketSet.TAGS_PER_BUCKET)
+        val tag = (if (r.nextBoolean()) r.nextInt(4).toLong else r.nextLong()) & Utils.MASKS(bits)
+        bucketSet.writeTag(bucket, pos, tag)
+        model(bucket)(pos) = tag
+        model(bucket) = model(bucket).sorted
+        val query = model(r.nextInt(buckets))(r.nextInt(SemiSortedBucketSet.TAGS_PER_BUCKET))
+        (0 until buckets).foreach { b =>
+          assert(bucketSet.checkTag(b, query) === model(b).indexOf(query))
+          assert(bucketSet.getFreePosInBucket(b) === model(b).indexOf(0L))
+        }
+      }
+      (0 until buckets).foreach { b =>
+        (0 until SemiSortedBucketSet.TAGS_PER_BUCKET).foreach { p =>
+          assert(bucketSet.readTag(b, p) === model(b)(p))
+        }
+      }
+    }
+  }
+
+  test("semi-sorted bucket saves one bit per tag") {
+    assert(SemiSortedBucketSet.bitsPerBucket(13) === 4 * 13 - 4)
+    val bitset = new BitArray(SemiSortedBucketSet.bitsPerBucket(13) * 3)
+    val bucketSet = new SemiSortedBucketSet(13, 3, bitset)
+    assert(bucketSet.append(1, 0x1abcL))
+    assert(bucketSet.append(1, 0x0001L))
+    assert(bucketSet.readTag(1, 2) === 0x0001L)
+    assert(bucketSet.readTag(1, 3) === 0x1abcL)
+    assert(bucketSet.checkTag(0, 0x1abcL) === -1)
+    assert(bucketSet.checkTag(2, 0x1abcL) === -1)
+  }
 }
@@ -0,0 +1,142 @@
+package com.github.ponkin.bloom
+
+import org.apache.commons.lang3.StringUtils
+
+import scala.util.Random
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class CountingBloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
+  private final val EPSILON = 0.01
+  private final val numItems = 100000
+  private val itemGen: Random => String = { r =>
+    r.nextString(r.nextInt(512))
+  }
+
+  def checkAccuracy(bitsPerCounter: Int, useOffHeap: Boolean): Unit = {
+    // use a fixed seed to make the test predictable.
+    val r = new Random(37)
+    val fpp = 0.01
+    val numInsertion = numItems / 10
+
+    val allItems = Array.fill(numItems)(itemGen(r))
+
+    val filter = CountingBloomFilter.builder
+      .withBitsPerCounter(bitsPerCounter)
+      .withExpectedNumberOfItems(numInsertion)
+      .withFalsePositiveRate(fpp)
+      .useOffHeapMemory(useOffHeap)
+      .build()
+
+    // insert first `numInsertion` items.
+    val inserted = allItems.take(numInsertion).filter(StringUtils.isNotEmpty)
+    inserted.foreach(filter.put)
+
+    // false negative is not allowed.
+    assert(inserted.forall(filter.mightContain))
+
+    // The number of inserted items doesn't exceed `expectedNumItems`, so the `expectedFpp`
+    // should not be significantly higher than the one we passed in to create this bloom filter.
+    assert(filter.expectedFpp() - fpp < EPSILON)
+
+    val errorCount = allItems.drop(numInsertion).count(filter.mightContain)
+
+    // Also check the actual fpp is not significantly higher than we expected.
+    val actualFpp = errorCount.toDouble / (numItems - numInsertion)
+    assert(actualFpp - fpp < EPSILON)
+    filter.close()
+  }
+
+  Seq(4, 8).foreach { bits =>
+    test(s"accuracy - $bits bit counters") {
+      checkAccuracy(bits, false)
+    }
+
+    test(s"accuracy - $bits bit counters, off-heap") {
+      checkAccuracy(bits, true)
+    }
+  }
+
+  test("delete - Long") {
+    val filter = CountingBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    ids.foreach(id => filter.put(id))
+    assert(ids.forall(id => filter.mightContain(id)))
+    // remove the first half, the second one stays
+    val (removed, kept) = ids.splitAt(numItems / 2)
+    removed.foreach(id => assert(filter.remove(id)))
+    assert(kept.forall(id => filter.mightContain(id)))
+    assert(removed.count(id => filter.mightContain(id)) < numItems / 50)
+    kept.foreach(id => assert(filter.remove(id)))
+    assert(filter.expectedFpp() === 0.0)
+  }
+
+  test("counters saturate") {
+    val filter = CountingBloomFilter.builder
+      .withExpectedNumberOfItems(1000)
+      .build()
+    // counters of item reach maximum and then stay
+    (0 until 20).foreach(_ => filter.put(42L))
+    (0 until 20).foreach(_ => filter.remove(42L))
+    assert(filter.mightContain(42L))
+  }
+
+  test("saturating add of counters") {
+    val bits = new BitArray(64)
+    Seq(4, 8).foreach { bitsPerCounter =>
+      val filter = new CountingBloomFilter(bits, 64 / bitsPerCounter, bitsPerCounter, 1, Hashers.MURMUR3_128)
+      val r = new Random(37)
+      val max = (1 << bitsPerCounter) - 1
+      val lanes = 64 / bitsPerCounter
+      (0 until 1000).foreach { _ =>
+        val a = Array.fill(lanes)(r.nextInt(max + 1).toLong)
+        val b = Array.fill(lanes)(r.nextInt(max + 1).toLong)
+        val pack: Array[Long] => Long =
+          _.zipWithIndex.map { case (v, i) => v << (i * bitsPerCounter) }.reduce(_ | _)
+        val expected = pack(a.zip(b).map { case (x, y) => math.min(x + y, max.toLong) })
+        assert(filter.saturatingAdd(pack(a), pack(b)) === expected)
+        assert(filter.nonZeroCounters(pack(a)) === a.count(_ != 0L))
+      }
+    }
+  }
+
+  test("mergeInPlace adds counters") {
+    val r = new Random(37)
+
+    val items1 = Array.fill(numItems / 2)(itemGen(r)).filter(StringUtils.isNotEmpty)
+    val items2 = Array.fill(numItems / 2)(itemGen(r)).filter(StringUtils.isNotEmpty)
+
+    val filter1 = CountingBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    items1.foreach(filter1.put)
+
+    val filter2 = CountingBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    items2.foreach(filter2.put)
+
+    filter1.mergeInPlace(filter2)
+
+    items1.foreach(i => assert(filter1.mightContain(i)))
+    items2.foreach(i => assert(filter1.mightContain(i)))
+
+    // removing items of one filter keeps items of the other
+    items2.foreach(filter1.remove)
+    items1.foreach(i => assert(filter1.mightContain(i)))
+  }
+
+  test("incompatible merge") {
+    intercept[IncompatibleMergeException] {
+      val filter1 = CountingBloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .build()
+      val filter2 = CountingBloomFilter.builder
+        .withBitsPerCounter(8)
+        .withExpectedNumberOfItems(1000)
+        .build()
+      filter1.mergeInPlace(filter2)
+    }
+  }
+}
@@ -5,6 +5,9 @@ import org.scalatest.FunSuite // scalastyle:ignore funsuite
 import org.apache.commons.lang3.StringUtils;
 
 import scala.util.Random
+import scala.concurrent.{ Await, Future }
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
 
 class CuckooFilterSuite extends FunSuite { // scalastyle:ignore funsuite
   private final val EPSILON = 0.01
@@ -36,6 +39,31 @@ class CuckooFilterSuite extends FunSuite { // scalastyle:ignore funsuite
     assert(inserted.forall(!filter.mightContain(_)))
   }
 
+  test("delete - Long") {
+    val filter = CuckooFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems / 10)(_ * 31L)
+    ids.foreach(id => assert(filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    ids.foreach(id => filter.remove(id))
+    assert(ids.forall(id => !filter.mightContain(id)))
+  }
+
+  Seq(IndexReduction.POWER_OF_TWO, IndexReduction.MULTIPLY_SHIFT).foreach { reduction =>
+    test(s"delete - $reduction index reduction") {
+      val filter = CuckooFilter.builder
+        .withExpectedNumberOfItems(numItems)
+        .withIndexReduction(reduction)
+        .build()
+      val ids = Array.tabulate(numItems / 10)(_ * 31L)
+      ids.foreach(id => assert(filter.put(id)))
+      assert(ids.forall(id => filter.mightContain(id)))
+      ids.foreach(id => filter.remove(id))
+      assert(ids.forall(id => !filter.mightContain(id)))
+    }
+  }
+
   test(s"accuracy - String") {
     // use a fixed seed to make the test predictable.
     val r = new Random(37)
@@ -66,4 +94,126 @@ class CuckooFilterSuite extends FunSuite { // scalastyle:ignore funsuite
     val actualFpp = errorCount.toDouble / (numItems - numInsertion)
     assert(actualFpp - fpp < EPSILON)
   }
+
+  test("fill up to expected number of items") {
+    // 4 tags per bucket with 95.5% load factor
+    val filter = CuckooFilter.builder
+      .withFalsePositiveRate(0.001)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    assert(ids.forall(id => filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.count() === numItems)
+  }
+
+  test("concurrent put and mightContain") {
+    val filter = CuckooFilter.builder
+      .withFalsePositiveRate(0.001)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+
+    // tags are moved between buckets by other writers,
+    // items put by this writer must stay visible
+    val writers = ids.grouped(ids.length / 8).map { part =>
+      Future {
+        part.indices.forall { i =>
+          filter.put(part(i)) && filter.mightContain(part(i / 2))
+        }
+      }
+    }
+    assert(Await.result(Future.sequence(writers), 1.minute).forall(identity))
+    assert(ids.forall(id => filter.mightContain(id)))
+  }
+
+  test("semi-sorted buckets - fill up to expected number of items") {
+    val filter = CuckooFilter.builder
+      .withSemiSortedBuckets(true)
+      .withFalsePositiveRate(0.001)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    assert(ids.forall(id => filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.count() === numItems)
+
+    val errorCount = (numItems until 2 * numItems).count(id => filter.mightContain(id.toLong))
+    assert(errorCount.toDouble / numItems - 0.001 < EPSILON)
+  }
+
+  Seq(0.1, 0.03, 0.01).foreach { fpp =>
+    test(s"semi-sorted buckets - accuracy with fpp $fpp") {
+      def measured(semiSorted: Boolean): Double = {
+        val filter = CuckooFilter.builder
+          .withSemiSortedBuckets(semiSorted)
+          .withFalsePositiveRate(fpp)
+          .withExpectedNumberOfItems(numItems)
+          .build()
+        (0 until numItems).foreach(i => assert(filter.put(i.toLong)))
+        val errorCount = (numItems until 2 * numItems).count(i => filter.mightContain(i.toLong))
+        errorCount.toDouble / numItems
+      }
+      assert(measured(true) < fpp * 1.5)
+      assert(measured(false) < fpp * 1.5)
+    }
+  }
+
+  test("semi-sorted buckets - smaller than default layout") {
+    Seq(0.1, 0.03, 0.01, 0.001, 0.0001, 0.00001).foreach { fpp =>
+      def sizeInBits(semiSorted: Boolean): Long = {
+        val filter = CuckooFilter.builder
+          .withSemiSortedBuckets(semiSorted)
+          .withFalsePositiveRate(fpp)
+          .withExpectedNumberOfItems(numItems)
+          .build()
+        try filter.sizeInBits() finally filter.close()
+      }
+      val semi = sizeInBits(true)
+      val plain = sizeInBits(false)
+      assert(semi < plain, s"fpp $fpp")
+      // about one bit per item is saved
+      assert((plain - semi).toDouble / numItems > 0.5, s"fpp $fpp")
+    }
+  }
+
+  test("semi-sorted buckets - delete") {
+    val filter = CuckooFilter.builder
+      .withSemiSortedBuckets(true)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems / 10)(_ * 31L)
+    ids.foreach(id => assert(filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    ids.foreach(id => filter.remove(id))
+    assert(ids.forall(id => !filter.mightContain(id)))
+  }
+
+  test("semi-sorted buckets - concurrent put and mightContain") {
+    val filter = CuckooFilter.builder
+      .withSemiSortedBuckets(true)
+      .withFalsePositiveRate(0.001)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    val writers = ids.grouped(ids.length / 8).map { part =>
+      Future {
+        part.indices.forall { i =>
+          filter.put(part(i)) && filter.mightContain(part(i / 2))
+        }
+      }
+    }
+    assert(Await.result(Future.sequence(writers), 1.minute).forall(identity))
+    assert(ids.forall(id => filter.mightContain(id)))
+  }
+
+  test("semi-sorted buckets need 4 to 17 bits per tag") {
+    intercept[IllegalArgumentException] {
+      CuckooFilter.builder
+        .withSemiSortedBuckets(true)
+        .withFalsePositiveRate(0.000001)
+        .withExpectedNumberOfItems(1000)
+        .build()
+    }
+  }
 }
@@ -0,0 +1,190 @@
+package com.github.ponkin.bloom
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, File, IOException, RandomAccessFile}
+import java.lang.management.{BufferPoolMXBean, ManagementFactory}
+import java.nio.channels.Channels
+import java.nio.file.Files
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class FilterSnapshotSuite extends FunSuite { // scalastyle:ignore funsuite
+  private final val numItems = 10000
+
+  private val builders: Seq[(String, () => FilterBuilder[_ <: Filter])] = Seq(
+    "BloomFilter" -> (() => BloomFilter.builder()),
+    "BlockedBloomFilter" -> (() => BlockedBloomFilter.builder()),
+    "SplitBlockBloomFilter" -> (() => SplitBlockBloomFilter.builder()),
+    "PartitionedBloomFilter" -> (() => PartitionedBloomFilter.builder()),
+    "StableBloomFilter" -> (() => StableBloomFilter.builder().withBitsPerBucket(3)),
+    "CountingBloomFilter" -> (() => CountingBloomFilter.builder()),
+    "CuckooFilter" -> (() => CuckooFilter.builder()),
+    "semi-sorted CuckooFilter" -> (() => CuckooFilter.builder().withSemiSortedBuckets(true)),
+    "ScalableBloomFilter" -> (() => ScalableBloomFilter.builder()),
+    "ScalableCuckooFilter" -> (() => ScalableCuckooFilter.builder())
+  )
+
+  private def snapshot(filter: Filter): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    filter.writeTo(out)
+    out.toByteArray
+  }
+
+  private def restore(bytes: Array[Byte], useOffHeap: Boolean): Filter =
+    Filters.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes)), useOffHeap)
+
+  builders.foreach { case (name, builder) =>
+    Seq(false, true).foreach { useOffHeap =>
+      test(s"$name snapshot round trip${if (useOffHeap) ", off-heap" else ""}") {
+        // scalable filters have to grow
+        val expected = if (name.startsWith("Scalable")) numItems / 4 else numItems
+        val filter = builder()
+          .withExpectedNumberOfItems(expected)
+          .withHasher(Hashers.XXH3)
+          .build()
+        val ids = Array.tabulate(numItems)(_.toLong)
+        ids.foreach(id => filter.put(id))
+        val bytes = snapshot(filter)
+
+        val restored = restore(bytes, useOffHeap)
+        assert(restored.getClass === filter.getClass)
+        assert((0 until 2 * numItems).forall(i => restored.mightContain(i.toLong) == filter.mightContain(i.toLong)))
+        assert(restored.expectedFpp() === filter.expectedFpp())
+        // snapshot of restored filter is the same
+        assert(snapshot(restored).sameElements(bytes))
+        filter.close()
+        restored.close()
+      }
+    }
+  }
+
+  test("restored filter keeps working") {
+    val filter = CuckooFilter.builder()
+      .withExpectedNumberOfItems(numItems)
+      .withFalsePositiveRate(0.000001)
+      .build()
+    (0 until numItems / 2).foreach(i => filter.put(i.toLong))
+    val restored = restore(snapshot(filter), false).asInstanceOf[CuckooFilter]
+    assert(restored.count() === filter.count())
+    (numItems / 2 until numItems).foreach(i => restored.put(i.toLong))
+    assert((0 until numItems).forall(i => restored.mightContain(i.toLong)))
+    (0 until numItems).foreach(i => assert(restored.remove(i.toLong)))
+    assert(restored.count() === 0L)
+  }
+
+  test("snapshot buffers are freed") {
+    import scala.collection.JavaConverters._
+    val direct = ManagementFactory.getPlatformMXBeans(classOf[BufferPoolMXBean]).asScala
+      .find(_.getName == "direct").get
+    val filter = ScalableBloomFilter.builder()
+      .withExpectedNumberOfItems(1000)
+      .build()
+    (0 until numItems * 10).foreach(i => filter.put(i.toLong))
+    assert(filter.numFilters() > 5)
+    val used = direct.getMemoryUsed
+    val restored = restore(snapshot(filter), false)
+    assert(direct.getMemoryUsed === used)
+    filter.close()
+    restored.close()
+  }
+
+  test("stream is read up to the end of snapshot") {
+    val first = BloomFilter.builder().withExpectedNumberOfItems(1000).build()
+    val second = CountingBloomFilter.builder().withExpectedNumberOfItems(1000).build()
+    first.put(1L)
+    second.put(2L)
+    val in = new ByteArrayInputStream(snapshot(first) ++ snapshot(second))
+    assert(Filters.readFrom(in).mightContain(1L))
+    assert(Filters.readFrom(in).mightContain(2L))
+    assert(in.available() === 0)
+  }
+
+  test("corrupted snapshot") {
+    val filter = BloomFilter.builder().withExpectedNumberOfItems(1000).build()
+    (0 until 1000).foreach(i => filter.put(i.toLong))
+    val bytes = snapshot(filter)
+    // header, words and truncated stream
+    Seq(20, bytes.length / 2).foreach { pos =>
+      val corrupted = bytes.clone()
+      corrupted(pos) = (corrupted(pos) ^ 1).toByte
+      intercept[IOException] {
+        restore(corrupted, false)
+      }
+    }
+    intercept[IOException] {
+      restore(bytes.take(bytes.length - 1), false)
+    }
+    intercept[IOException] {
+      restore(Array.fill[Byte](64)(0), false)
+    }
+  }
+
+  private def withDir(body: File => Unit): Unit = {
+    val dir = Files.createTempDirectory("mapped").toFile
+    try body(dir) finally {
+      dir.listFiles.foreach(_.delete)
+      dir.delete()
+    }
+  }
+
+  builders.foreach { case (name, builder) =>
+    test(s"open mapped $name") {
+      withDir { dir =>
+        val file = new File(dir, "filter.data")
+        val expected = if (name.startsWith("Scalable")) numItems / 4 else numItems
+        val filter = builder()
+          .withExpectedNumberOfItems(expected)
+          .withFileMapped(file)
+          .useOffHeapMemory(true)
+          .build()
+        val ids = Array.tabulate(numItems / 2)(_.toLong)
+        ids.foreach(id => filter.put(id))
+        val fpp = filter.expectedFpp()
+        val contains = (0 until 2 * numItems).map(i => filter.mightContain(i.toLong))
+        filter.close()
+
+        val opened = Filters.open(file)
+        assert(opened.getClass === filter.getClass)
+        assert((0 until 2 * numItems).map(i => opened.mightContain(i.toLong)) === contains)
+        assert(opened.expectedFpp() === fpp)
+        // opened filter keeps working
+        val added = 2 * numItems until 2 * numItems + 100
+        added.foreach(i => opened.put(i.toLong))
+        opened.close()
+        val reopened = Filters.open(file)
+        assert(added.forall(i => reopened.mightContain(i.toLong)))
+        reopened.close()
+      }
+    }
+  }
+
+  test("open mapped cuckoo filter after unclean shutdown") {
+    withDir { dir =>
+      val file = new File(dir, "filter.data")
+      val filter = CuckooFilter.builder()
+        .withExpectedNumberOfItems(numItems)
+        .withFalsePositiveRate(0.000001)
+        .withFileMapped(file)
+        .useOffHeapMemory(true)
+        .build()
+      (0 until numItems / 2).foreach(i => filter.put(i.toLong))
+      filter.close()
+      val raw = new RandomAccessFile(file, "rw")
+      raw.seek(8)
+      raw.writeInt(0) // drop clean shutdown flag
+      raw.close()
+      val opened = Filters.open(file).asInstanceOf[CuckooFilter]
+      assert(opened.count() === numItems / 2)
+      opened.close()
+    }
+  }
+
+  test("open file without filter") {
+    withDir { dir =>
+      val file = new File(dir, "empty.data")
+      file.createNewFile()
+      intercept[IOException] {
+        Filters.open(file)
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.github.ponkin.bloom
+
+import java.nio.ByteBuffer
+
+import org.apache.commons.lang3.StringUtils
+
+import scala.util.Random
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class HashersSuite extends FunSuite { // scalastyle:ignore funsuite
+  private final val EPSILON = 0.01
+  private final val numItems = 100000
+  private val itemGen: Random => String = { r =>
+    r.nextString(r.nextInt(64))
+  }
+
+  private val allHashers = Seq(
+    "MURMUR3_32" -> Hashers.MURMUR3_32,
+    "MURMUR3_128" -> Hashers.MURMUR3_128,
+    "XXHASH64" -> Hashers.XXHASH64,
+    "XXH3" -> Hashers.XXH3,
+    "WYHASH" -> Hashers.WYHASH)
+
+  private val fox = "The quick brown fox jumps over the lazy dog"
+
+  // bytes 0, 1, 2 ... up to length, covers long input paths
+  private def sequence(length: Int): Array[Byte] = Array.tabulate(length)(_.toByte)
+
+  test("XXH64 test vectors") {
+    assert(XxHash64.hashBytes("".getBytes("UTF-8"), 0) == 0xef46db3751d8e999L)
+    assert(XxHash64.hashBytes("a".getBytes("UTF-8"), 0) == 0xd24ec4f1a98c6e5bL)
+    assert(XxHash64.hashBytes("abc".getBytes("UTF-8"), 0) == 0x44bc2cf5ad770999L)
+    assert(XxHash64.hashBytes(fox.getBytes("UTF-8"), 0) == 0x0b242d361fda71bcL)
+    assert(XxHash64.hashBytes(sequence(100), 0) == 0x6ac1e58032166597L)
+    assert(Hashers.xxHash64(sequence(1000)) == 0x6ef436b00eba4078L)
+  }
+
+  test("XXH3 test vectors") {
+    assert(XxHash3.hashBytes("".getBytes("UTF-8")) == 0x2d06800538d394c2L)
+    assert(XxHash3.hashBytes("a".getBytes("UTF-8")) == 0xe6c632b61e964e1fL)
+    assert(XxHash3.hashBytes("abc".getBytes("UTF-8")) == 0x78af5f94892f3950L)
+    assert(XxHash3.hashBytes(fox.getBytes("UTF-8")) == 0xce7d19a5418fb365L)
+    assert(XxHash3.hashBytes(sequence(100)) == 0x004e4f921a64bd1cL)
+    assert(XxHash3.hashBytes(sequence(200)) == 0xf42a8864feaf0703L)
+    assert(XxHash3.hashBytes(sequence(1000)) == 0xd33dd80b46f60e50L)
+  }
+
+  test("wyhash test vectors") {
+    assert(WyHash.hashBytes("".getBytes("UTF-8"), 0) == 0L)
+    assert(WyHash.hashBytes("a".getBytes("UTF-8"), 0) == 0x773a0b0c98eb07e4L)
+    assert(WyHash.hashBytes("abc".getBytes("UTF-8"), 0) == 0xf1f13b84f20cadb8L)
+    assert(WyHash.hashBytes(fox.getBytes("UTF-8"), 0) == 0xcf850ba9ddd12bb3L)
+    assert(WyHash.hashBytes(sequence(100), 0) == 0x458d0a2e65f060a9L)
+    assert(WyHash.hashBytes(sequence(1000), 0) == 0xae79dcb5b08659dbL)
+  }
+
+  test("long is hashed as its little-endian bytes") {
+    val r = new Random(37)
+    (0 until 100).map(_ => r.nextLong()).foreach { value =>
+      val bytes = Utils.getBytesFromLong(value)
+      assert(XxHash64.hashLong(value, 0) == XxHash64.hashBytes(bytes, 0))
+      assert(XxHash3.hashLong(value) == XxHash3.hashBytes(bytes))
+      assert(WyHash.hashLong(value, 0) == WyHash.hashBytes(bytes, 0))
+    }
+  }
+
+  test("Hashers produce the same hashes for any number of hashes") {
+    val data = "hello".getBytes("UTF-8")
+    allHashers.foreach { case (name, hasher) =>
+      val one = new Array[Long](1)
+      val many = new Array[Long](7)
+      hasher.hashes(data, one)
+      hasher.hashes(data, many)
+      assert(one(0) == many(0), name)
+      assert(many.forall(_ >= 0), name)
+    }
+  }
+
+  test("Hashers hash array slice in place") {
+    val data = "xxhelloyyy".getBytes("UTF-8")
+    val copy = "hello".getBytes("UTF-8")
+    allHashers.foreach { case (name, hasher) =>
+      val expected = new Array[Long](3)
+      val actual = new Array[Long](3)
+      hasher.hashes(copy, expected)
+      hasher.hashes(data, 2, 5, actual)
+      assert(expected.toSeq == actual.toSeq, name)
+      intercept[IndexOutOfBoundsException] {
+        hasher.hashes(data, 8, 5, actual)
+      }
+    }
+  }
+
+  test("Hashers hash long as its little-endian bytes") {
+    Seq(0L, 1L, -1L, Long.MinValue, 0x0123456789abcdefL).foreach { value =>
+      val bytes = Utils.getBytesFromLong(value)
+      allHashers.foreach { case (name, hasher) =>
+        val expected = new Array[Long](5)
+        val actual = new Array[Long](5)
+        hasher.hashes(bytes, expected)
+        hasher.hashes(value, actual)
+        assert(expected.toSeq == actual.toSeq, name)
+      }
+    }
+  }
+
+  test("Hashers hash buffers and off-heap memory in place") {
+    val bytes = fox.getBytes("UTF-8")
+    val heap = ByteBuffer.wrap(new Array[Byte](bytes.length + 3))
+    heap.position(3)
+    heap.put(bytes)
+    heap.position(3)
+    val slice = heap.slice() // non zero array offset
+    val direct = ByteBuffer.allocateDirect(bytes.length + 5)
+    direct.position(5)
+    direct.put(bytes)
+    direct.position(5)
+    val readOnly = ByteBuffer.wrap(bytes).asReadOnlyBuffer()
+    allHashers.foreach { case (name, hasher) =>
+      val expected = new Array[Long](4)
+      hasher.hashes(bytes, expected)
+      Seq(heap, slice, direct, readOnly).foreach { buffer =>
+        val actual = new Array[Long](4)
+        val position = buffer.position()
+        hasher.hashes(buffer, actual)
+        assert(expected.toSeq == actual.toSeq, name)
+        assert(buffer.position() == position, name)
+      }
+      val actual = new Array[Long](4)
+      hasher.hashes(Platform.getByteBufferAddress(direct) + 5, bytes.length, actual)
+      assert(expected.toSeq == actual.toSeq, name)
+    }
+  }
+
+  test("Hashers hash chars as UTF-16LE bytes") {
+    // every tail length of all hashers
+    (0 to 20).foreach { len =>
+      val chars = new StringBuilder
+      (0 until len).foreach(i => chars.append((0x41 + i * 0x3e1).toChar))
+      val bytes = chars.toString.getBytes("UTF-16LE")
+      allHashers.foreach { case (name, hasher) =>
+        val expected = new Array[Long](3)
+        val actual = new Array[Long](3)
+        hasher.hashes(bytes, expected)
+        hasher.hashChars(chars, actual)
+        assert(expected.toSeq == actual.toSeq, name)
+      }
+    }
+  }
+
+  allHashers.foreach { case (name, hasher) =>
+
+    test(s"accuracy - $name") {
+      // use a fixed seed to make the test predictable.
+      val r = new Random(37)
+      val fpp = 0.01
+      val numInsertion = numItems / 10
+
+      val allItems = Array.fill(numItems)(itemGen(r))
+
+      val filter = BloomFilter.builder
+        .withExpectedNumberOfItems(numInsertion)
+        .withFalsePositiveRate(fpp)
+        .withHasher(hasher)
+        .build()
+
+      // insert first `numInsertion` items.
+      val inserted = allItems.take(numInsertion).filter(StringUtils.isNotEmpty)
+      inserted.foreach(filter.put)
+
+      // false negative is not allowed.
+      assert(inserted.forall(filter.mightContain))
+
+      val errorCount = allItems.drop(numInsertion).count(filter.mightContain)
+
+      // Also check the actual fpp is not significantly higher than we expected.
+      val actualFpp = errorCount.toDouble / (numItems - numInsertion)
+      assert(actualFpp - fpp < EPSILON)
+    }
+  }
+}
@@ -17,6 +17,40 @@ class Murmur3_128Suite extends FunSuite { // scalastyle:ignore funsuite
       "The quick brown fox jumps over the lazy cog")
   }
 
+  test("64-bit hash is lower half of 128-bit hash") {
+    val data = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8")
+    val hash128bit = Array(0L, 0L)
+    Murmur3_128.hashBytes(data, 0, hash128bit)
+    assert(Murmur3_128.hashBytes64(data, 0) == hash128bit(0))
+  }
+
+  test("long is hashed as its little-endian bytes") {
+    Seq(0L, 1L, -1L, Long.MinValue, 0x0123456789abcdefL).foreach { value =>
+      val bytes = Utils.getBytesFromLong(value)
+      val expected128 = Array(0L, 0L)
+      val actual128 = Array(0L, 0L)
+      Murmur3_128.hashBytes(bytes, 0, expected128)
+      assert(Murmur3_128.hashLong(value, 0, actual128) == expected128(0))
+      assert(expected128.toSeq == actual128.toSeq)
+    }
+  }
+
+  test("chars are hashed as UTF-16LE bytes") {
+    // every tail length of both hashers
+    (0 to 20).foreach { len =>
+      val chars = new StringBuilder
+      (0 until len).foreach(i => chars.append((0x41 + i * 0x3e1).toChar))
+      val bytes = chars.toString.getBytes("UTF-16LE")
+      val expected128 = Array(0L, 0L)
+      val actual128 = Array(0L, 0L)
+      Murmur3_128.hashBytes(bytes, 0, expected128)
+      Murmur3_128.hashChars(chars, 0, actual128)
+      assert(expected128.toSeq == actual128.toSeq)
+      assert(Murmur3_x86_32.hashChars(chars, 7) ==
+        Murmur3_x86_32.hashUnsafeBytes(bytes, Platform.BYTE_ARRAY_OFFSET, bytes.length, 7))
+    }
+  }
+
   def assertHash(seed: Int, expected1: Long, expected2: Long, stringInput: String) {
     val hash128bit = Array(0L, 0L)
     val data = stringInput.getBytes("UTF-8")
@@ -1,7 +1,10 @@
 package com.github.ponkin.bloom
 
 import scala.util.Random
-import java.io.File
+import scala.concurrent.{ Await, Future }
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
+import java.io.{ File, RandomAccessFile }
 
 import org.scalatest.FunSuite // scalastyle:ignore funsuite
 
@@ -18,6 +21,55 @@ class OffHeapBitArraySuite extends FunSuite { // scalastyle:ignore funsuite
     file.delete()
   }
 
+  test("cardinality of reopened file") {
+    val file = File.createTempFile("test_reopen_bloom_filter", ".data")
+    val bitArray = new OffHeapBitArray(file, 1000)
+    (0 until 1000 by 3).foreach(i => bitArray.set(i))
+    bitArray.close()
+    val reopened = new OffHeapBitArray(file, 1000)
+    assert(reopened.cardinality() === 334)
+    reopened.close()
+    file.delete()
+  }
+
+  test("bits are counted when file was not closed") {
+    val file = File.createTempFile("test_recover_bloom_filter", ".data")
+    val bitArray = new OffHeapBitArray(file, 100000)
+    (0 until 100000 by 7).foreach(i => bitArray.set(i))
+    bitArray.close()
+    // drop clean shutdown flag and corrupt stored cardinality
+    val raw = new RandomAccessFile(file, "rw")
+    raw.seek(8)
+    raw.writeInt(0)
+    raw.seek(16)
+    raw.writeLong(42L)
+    raw.close()
+    val reopened = new OffHeapBitArray(file, 100000)
+    assert(!reopened.closedCleanly())
+    assert(reopened.cardinality() === 14286)
+    reopened.close()
+    assert(new OffHeapBitArray(file, 100000).closedCleanly())
+    file.delete()
+  }
+
+  test("file without header") {
+    val file = File.createTempFile("test_legacy_bloom_filter", ".data")
+    val raw = new RandomAccessFile(file, "rw")
+    raw.setLength(OffHeapBitArray.numWords(256))
+    raw.seek(8)
+    raw.writeLong(-1L)
+    raw.close()
+    val bitArray = new OffHeapBitArray(file, 256)
+    assert(bitArray.cardinality() === 64)
+    assert((64 until 128).forall(i => bitArray.get(i)))
+    bitArray.set(0)
+    bitArray.close()
+    // mapped as is
+    assert(file.length() === OffHeapBitArray.numWords(256))
+    assert(new OffHeapBitArray(file, 256).cardinality() === 65)
+    file.delete()
+  }
+
   test("unset") {
     val file = File.createTempFile("test_unset_bloom_filter", ".data")
     val bitArray = new OffHeapBitArray(file, 64)
@@ -66,4 +118,45 @@ class OffHeapBitArraySuite extends FunSuite { // scalastyle:ignore funsuite
     assert(indexes.filter(isOdd).forall(!bitArrayRestored.get(_)))
     file.delete()
   }
+
+  test("file larger than 2GB") {
+    val file = File.createTempFile("test_large_bloom_filter", ".data")
+    // 2.5GB of words, file is sparse
+    val numBits = 5L << 32
+    val segment = 1L << 33
+    val indexes = Seq(0L, segment - 1, segment, 2 * segment - 1, 2 * segment + 63, numBits - 1)
+    val bitArray = new OffHeapBitArray(file, numBits)
+    indexes.foreach(i => assert(bitArray.set(i)))
+    assert(indexes.forall(bitArray.get))
+    assert(!bitArray.get(segment + 1))
+    assert(bitArray.getWord(segment / 64) === 1L)
+    assert(bitArray.compareAndSetWord(segment / 64, 1L, 3L))
+    assert(bitArray.get(segment + 1))
+    assert(bitArray.cardinality() === indexes.size + 1)
+    bitArray.close()
+    assert(file.length() === OffHeapBitArray.FILE_HEADER_SIZE + OffHeapBitArray.numWords(numBits))
+    val reopened = new OffHeapBitArray(file, numBits)
+    assert(reopened.closedCleanly())
+    assert(reopened.cardinality() === indexes.size + 1)
+    assert(indexes.forall(reopened.get))
+    assert(reopened.unset(numBits - 1))
+    reopened.close()
+    file.delete()
+  }
+
+  test("concurrent set keeps exact cardinality") {
+    val numBits = 1 << 16
+    val bitArray = new OffHeapBitArray(numBits)
+    // all threads set the same bits, every bit must be counted once
+    val writers = (1 to 8).map { t =>
+      Future {
+        val r = new Random(t)
+        (1 to numBits).foreach(_ => bitArray.set(r.nextInt(numBits).toLong))
+      }
+    }
+    Await.result(Future.sequence(writers), 1.minute)
+    val expected = (0L until numBits).count(bitArray.get)
+    assert(bitArray.cardinality() == expected)
+    bitArray.close()
+  }
 }
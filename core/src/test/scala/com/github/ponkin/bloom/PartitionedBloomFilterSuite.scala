@@ -3,6 +3,9 @@ package com.github.ponkin.bloom
 import org.apache.commons.lang3.StringUtils
 
 import scala.util.Random
+import scala.concurrent.{ Await, Future }
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
 import org.scalatest.FunSuite // scalastyle:ignore funsuite
 
 class PartitionedBloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
@@ -70,4 +73,25 @@ class PartitionedBloomFilterSuite extends FunSuite { // scalastyle:ignore funsui
     items1.foreach(i => assert(filter1.mightContain(i)))
     items2.foreach(i => assert(filter1.mightContain(i)))
   }
+
+  test("concurrent put and mightContain") {
+    val filter = PartitionedBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    val writers = ids.grouped(ids.length / 8).map { part =>
+      Future {
+        part.indices.forall { i =>
+          filter.put(part(i))
+          filter.mightContain(part(i / 2))
+        }
+      }
+    }
+    assert(Await.result(Future.sequence(writers), 1.minute).forall(identity))
+    assert(ids.forall(id => filter.mightContain(id)))
+    // slices are half full at expected number of items
+    assert(filter.fillRatio() > 0.45 && filter.fillRatio() < 0.55)
+    filter.clear()
+    assert(filter.fillRatio() === 0.0)
+  }
 }
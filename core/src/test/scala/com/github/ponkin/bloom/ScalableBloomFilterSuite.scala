@@ -1,7 +1,129 @@
 package com.github.ponkin.bloom
 
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
 import org.scalatest.FunSuite // scalastyle:ignore funsuite
 
 class ScalableBloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
-}
+  private final val EPSILON = 0.01
+  private final val numItems = 100000
+
+  def checkAccuracy(useOffHeap: Boolean): Unit = {
+    val fpp = 0.01
+    val filter = ScalableBloomFilter.builder
+      .withFalsePositiveRate(fpp)
+      .withExpectedNumberOfItems(numItems / 100)
+      .useOffHeapMemory(useOffHeap)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    ids.foreach(id => filter.put(id))
+    // false negative is not allowed.
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.numFilters() > 1)
+    // newest filter is not full yet
+    assert(filter.fillRatio() > 0.0 && filter.fillRatio() < 0.5)
+
+    val errorCount = (numItems until 2 * numItems).count(id => filter.mightContain(id.toLong))
+    // tightening keeps total fpp close to target one
+    assert(errorCount.toDouble / numItems - fpp < EPSILON)
+    assert(filter.expectedFpp() - fpp < EPSILON)
+    filter.close()
+  }
+
+  test("accuracy - grow beyond expected number of items") {
+    checkAccuracy(false)
+  }
+
+  test("accuracy - grow beyond expected number of items, off-heap") {
+    checkAccuracy(true)
+  }
 
+  test("layers with different number of hash functions share hashes") {
+    // every layer has one more hash function than previous one
+    val filter = ScalableBloomFilter.builder
+      .withExpectedNumberOfItems(1000)
+      .withTighteningRatio(0.5)
+      .build()
+    val ids = Array.tabulate(numItems / 10)(_.toLong)
+    ids.foreach(id => filter.put(Utils.getBytesFromLong(id)))
+    assert(filter.numFilters() > 3)
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(ids.forall(id => filter.mightContain(ByteBuffer.wrap(Utils.getBytesFromLong(id)))))
+    assert(ids.forall { id =>
+      val data = Array[Byte](1, 2, 3) ++ Utils.getBytesFromLong(id)
+      filter.mightContain(data, 3, 8)
+    })
+    val chars = ids.map(id => s"item-$id")
+    chars.foreach(c => filter.putChars(c))
+    assert(chars.forall(c => filter.mightContainChars(c)))
+    assert(!filter.mightContainChars("item-" + numItems))
+  }
+
+  test("growth factor") {
+    def filters(growth: Int): Int = {
+      val filter = ScalableBloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .withGrowthFactor(growth)
+        .build()
+      (0 until numItems / 10).foreach(i => filter.put(i.toLong))
+      try filter.numFilters() finally filter.close()
+    }
+    assert(filters(4) < filters(2))
+    assert(filters(2) < filters(1))
+  }
+
+  test("every filter is mapped to its own file") {
+    val dir = Files.createTempDirectory("scalable").toFile
+    val file = new File(dir, "filter.data")
+    val filter = ScalableBloomFilter.builder
+      .withExpectedNumberOfItems(1000)
+      .withFileMapped(file)
+      .useOffHeapMemory(true)
+      .build()
+    (0 until 10000).foreach(i => filter.put(i.toLong))
+    val layers = filter.numFilters()
+    assert(layers > 1)
+    assert((0 until layers).forall(i => new File(dir, s"filter.data.$i").exists))
+    assert((0 until 10000).forall(i => filter.mightContain(i.toLong)))
+    filter.close()
+    dir.listFiles.foreach(_.delete)
+    dir.delete()
+  }
+
+  test("clear drops all but the first filter") {
+    val filter = ScalableBloomFilter.builder
+      .withExpectedNumberOfItems(100)
+      .build()
+    (0 until 1000).foreach(i => filter.put(i.toLong))
+    assert(filter.numFilters() > 1)
+    filter.clear()
+    assert(filter.numFilters() === 1)
+    assert((0 until 1000).forall(i => !filter.mightContain(i.toLong)))
+  }
+
+  test("single filter within expected number of items") {
+    val fpp = 0.01
+    val filter = ScalableBloomFilter.builder
+      .withFalsePositiveRate(fpp)
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    val ids = Array.tabulate(numItems / 2)(_.toLong)
+    ids.foreach(id => filter.put(id))
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.numFilters() === 1)
+    val errorCount = (numItems until 2 * numItems).count(id => filter.mightContain(id.toLong))
+    assert(errorCount.toDouble / numItems < fpp)
+    filter.close()
+  }
+
+  test("remove is not supported") {
+    val filter = ScalableBloomFilter.builder
+      .withExpectedNumberOfItems(100)
+      .build()
+    intercept[UnsupportedOperationException] {
+      filter.remove(1L)
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.github.ponkin.bloom
+
+import java.util.logging.{ Handler, Level, LogRecord, Logger }
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+import scala.concurrent.{ Await, Future }
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
+
+class ScalableCuckooFilterSuite extends FunSuite { // scalastyle:ignore funsuite
+  private final val EPSILON = 0.01
+  private final val numItems = 100000
+
+  test("grow beyond expected number of items") {
+    val fpp = 0.01
+    val filter = ScalableCuckooFilter.builder
+      .withFalsePositiveRate(fpp)
+      .withExpectedNumberOfItems(numItems / 100)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    assert(ids.forall(id => filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.count() === numItems)
+    // 1000, 2000, 4000 ... items
+    assert(filter.numFilters() === 7)
+
+    val errorCount = (numItems until 2 * numItems).count(id => filter.mightContain(id.toLong))
+    assert(errorCount.toDouble / numItems - fpp < EPSILON)
+    assert(filter.expectedFpp() - fpp < EPSILON)
+    filter.close()
+  }
+
+  test("failed insert of layer is not a warning") {
+    val warnings = new java.util.concurrent.atomic.AtomicInteger()
+    val handler = new Handler {
+      override def publish(record: LogRecord): Unit =
+        if (record.getLevel == Level.WARNING) warnings.incrementAndGet()
+      override def flush(): Unit = ()
+      override def close(): Unit = ()
+    }
+    val log = Logger.getLogger(classOf[CuckooFilter].getName)
+    log.addHandler(handler)
+    try {
+      // distinct items overfill small table of every layer
+      val filter = ScalableCuckooFilter.builder
+        .withExpectedNumberOfItems(100)
+        .build()
+      (0L until 10000L).foreach(id => assert(filter.put(id)))
+      assert(filter.numFilters() > 1)
+      val layer = CuckooFilter.builder
+        .withExpectedNumberOfItems(100)
+        .build()
+      layer.chained()
+      assert(!(0L until 10000L).forall(layer.put))
+      assert(warnings.get === 0)
+
+      val single = CuckooFilter.builder
+        .withExpectedNumberOfItems(100)
+        .build()
+      assert(!(0L until 10000L).forall(single.put))
+      assert(warnings.get > 0)
+    } finally {
+      log.removeHandler(handler)
+    }
+  }
+
+  test("delete from every filter") {
+    // tags of deleted and remaining items rarely collide
+    val filter = ScalableCuckooFilter.builder
+      .withFalsePositiveRate(0.0001)
+      .withExpectedNumberOfItems(numItems / 100)
+      .withGrowthFactor(4)
+      .build()
+    val ids = Array.tabulate(numItems / 10)(_ * 31L)
+    ids.foreach(id => assert(filter.put(id)))
+    assert(filter.numFilters() > 1)
+    ids.foreach(id => assert(filter.remove(id)))
+    assert(ids.forall(id => !filter.mightContain(id)))
+    assert(filter.count() === 0)
+  }
+
+  test("grow with semi-sorted buckets") {
+    val filter = ScalableCuckooFilter.builder
+      .withExpectedNumberOfItems(numItems / 100)
+      .withSemiSortedBuckets(true)
+      .build()
+    val ids = Array.tabulate(numItems / 10)(_.toLong)
+    assert(ids.forall(id => filter.put(id)))
+    assert(ids.forall(id => filter.mightContain(id)))
+    assert(filter.numFilters() === 4)
+  }
+
+  test("clear drops all but the first filter") {
+    val filter = ScalableCuckooFilter.builder
+      .withExpectedNumberOfItems(100)
+      .build()
+    (0 until 1000).foreach(i => filter.put(i))
+    assert(filter.numFilters() > 1)
+    filter.clear()
+    assert(filter.numFilters() === 1)
+    assert((0 until 1000).forall(i => !filter.mightContain(i)))
+  }
+
+  test("concurrent put and mightContain") {
+    val filter = ScalableCuckooFilter.builder
+      .withFalsePositiveRate(0.001)
+      .withExpectedNumberOfItems(numItems / 100)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    val writers = ids.grouped(ids.length / 8).map { part =>
+      Future {
+        part.indices.forall { i =>
+          filter.put(part(i)) && filter.mightContain(part(i / 2))
+        }
+      }
+    }
+    assert(Await.result(Future.sequence(writers), 1.minute).forall(identity))
+    assert(ids.forall(id => filter.mightContain(id)))
+  }
+}
@@ -0,0 +1,152 @@
+package com.github.ponkin.bloom
+
+import org.apache.commons.lang3.StringUtils
+
+import scala.util.Random
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class SplitBlockBloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
+  private final val EPSILON = 0.01
+  private final val numItems = 100000
+  private val itemGen: Random => String = { r =>
+    r.nextString(r.nextInt(512))
+  }
+
+  def checkAccuracy(useOffHeap: Boolean): Unit = {
+    // use a fixed seed to make the test predictable.
+    val r = new Random(37)
+    val fpp = 0.01
+    val numInsertion = numItems / 10
+
+    val allItems = Array.fill(numItems)(itemGen(r))
+
+    val filter = SplitBlockBloomFilter.builder
+      .withExpectedNumberOfItems(numInsertion)
+      .withFalsePositiveRate(fpp)
+      .useOffHeapMemory(useOffHeap)
+      .build()
+
+    // insert first `numInsertion` items.
+    val inserted = allItems.take(numInsertion).filter(StringUtils.isNotEmpty)
+    inserted.foreach(filter.put)
+
+    // false negative is not allowed.
+    assert(inserted.forall(filter.mightContain))
+
+    val errorCount = allItems.drop(numInsertion).count(filter.mightContain)
+
+    // Also check the actual fpp is not significantly higher than we expected.
+    val actualFpp = errorCount.toDouble / (numItems - numInsertion)
+    assert(actualFpp - fpp < EPSILON)
+    filter.close()
+  }
+
+  test(s"accuracy - String") {
+    checkAccuracy(false)
+  }
+
+  test(s"accuracy - String, off-heap") {
+    checkAccuracy(true)
+  }
+
+  test("every item sets one bit in every word of one block") {
+    val bits = new BitArray(4 * SplitBlockBloomFilter.BLOCK_BITS)
+    val filter = new SplitBlockBloomFilter(bits, Hashers.MURMUR3_128)
+    // upper half 0x80000000 selects block 2 of 4
+    val hash = 0x80000000deadbeefL
+    assert(filter.putHash(hash))
+    assert(!filter.putHash(hash))
+    assert(filter.mightContainHash(hash))
+    assert(bits.cardinality() === SplitBlockBloomFilter.NUM_BITS_PER_ITEM)
+    (0 until 16).foreach { i =>
+      val word = bits.getWord(i)
+      if (i / 4 == 2) {
+        assert(java.lang.Long.bitCount(word & 0xffffffffL) === 1)
+        assert(java.lang.Long.bitCount(word >>> 32) === 1)
+      } else {
+        assert(word === 0L)
+      }
+    }
+  }
+
+  test("XXH64 hashes of plain encoded values") {
+    val r = new Random(37)
+    val filter = SplitBlockBloomFilter.builder
+      .withExpectedNumberOfItems(10000)
+      .build()
+    // Parquet PLAIN encoding of INT64 is 8 little-endian bytes
+    val values = Array.fill(10000)(r.nextLong())
+    values.foreach(v => filter.putHash(Hashers.xxHash64(Utils.getBytesFromLong(v))))
+    assert(values.forall(v => filter.mightContainHash(Hashers.xxHash64(Utils.getBytesFromLong(v)))))
+    filter.close()
+  }
+
+  test("builder sizes filter by Parquet formula") {
+    // 1M items with fpp 0.01 need about 9.4 bits per item
+    val numBits = SplitBlockBloomFilter.optimalNumOfBits(1000000L, 0.01)
+    assert(numBits % SplitBlockBloomFilter.BLOCK_BITS === 0)
+    assert(numBits > 9000000L && numBits < 10000000L)
+  }
+
+  test(s"mergeInPlace - String") {
+    // use a fixed seed to make the test predictable.
+    val r = new Random(37)
+
+    val items1 = Array.fill(numItems / 2)(itemGen(r)).filter(StringUtils.isNotEmpty)
+    val items2 = Array.fill(numItems / 2)(itemGen(r)).filter(StringUtils.isNotEmpty)
+
+    val filter1 = SplitBlockBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    items1.foreach(filter1.put)
+
+    val filter2 = SplitBlockBloomFilter.builder
+      .withExpectedNumberOfItems(numItems)
+      .build()
+    items2.foreach(filter2.put)
+
+    filter1.mergeInPlace(filter2)
+
+    items1.foreach(i => assert(filter1.mightContain(i)))
+    items2.foreach(i => assert(filter1.mightContain(i)))
+  }
+
+  test("incompatible merge") {
+    intercept[IncompatibleMergeException] {
+      val filter1 = SplitBlockBloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .build()
+      val filter2 = BloomFilter.builder
+        .withExpectedNumberOfItems(1000)
+        .build()
+      filter1.mergeInPlace(filter2)
+    }
+  }
+
+  test("batch put and mightContainAll") {
+    val r = new Random(37)
+    // not a multiple of batch size
+    val items = Array.fill(1000)(itemGen(r)).filter(StringUtils.isNotEmpty).map(_.getBytes("UTF-8"))
+    val queries = Array.fill(1000)(itemGen(r)).filter(StringUtils.isNotEmpty).map(_.getBytes("UTF-8"))
+
+    val filter = SplitBlockBloomFilter.builder
+      .withExpectedNumberOfItems(items.length)
+      .build()
+    assert(filter.putAll(items) > 0)
+
+    val all = items ++ queries
+    val result = new Array[Boolean](all.length)
+    filter.mightContainAll(all, result)
+    assert(result.take(items.length).forall(identity))
+    assert(result.toSeq == all.map(i => filter.mightContain(i)).toSeq)
+
+    // the same items packed into one array
+    val data = all.flatten
+    val lengths = all.map(_.length)
+    val offsets = lengths.scanLeft(0)(_ + _).init
+    val packed = new Array[Boolean](all.length)
+    filter.mightContainAll(data, offsets, lengths, packed)
+    assert(packed.toSeq == result.toSeq)
+    assert(filter.putAll(data, offsets, lengths) <= queries.length)
+  }
+}
@@ -42,4 +42,41 @@ class StableBloomFilterSuite extends FunSuite { // scalastyle:ignore funsuite
     assert(actualFpp - fpp < EPSILON)
   }
 
+  test("decay decrements consecutive buckets word at a time") {
+    val r = new Random(37)
+    val numBuckets = 1000
+    Seq(1, 2, 3, 4, 5, 7, 8, 13, 16, 31, 32, 33, 63).foreach { bitsPerBucket =>
+      val bits = new BitArray(numBuckets.toLong * bitsPerBucket)
+      val buckets = new BucketSet(bitsPerBucket, 1, numBuckets, bits)
+      val filter = new StableBloomFilter(bits, numBuckets, bitsPerBucket, 10, 3, Hashers.MURMUR3_128)
+      val max = Utils.MASKS(bitsPerBucket)
+      val model = Array.fill(numBuckets) {
+        if (r.nextInt(4) == 0) 0L else if (r.nextBoolean()) 1L else max
+      }
+      model.indices.foreach(i => buckets.writeTag(i, 0, model(i)))
+      (0 until 50).foreach { _ =>
+        val from = r.nextInt(numBuckets)
+        val count = r.nextInt(2 * numBuckets)
+        filter.decay(from, count)
+        (0 until count).foreach { i =>
+          val idx = (from + i) % numBuckets
+          model(idx) = math.max(0L, model(idx) - 1)
+        }
+        assert(model.indices.forall(i => buckets.readTag(i, 0) == model(i)), s"$bitsPerBucket bits")
+        assert(bits.cardinality() === model.map(java.lang.Long.bitCount).sum)
+      }
+    }
+  }
+
+  test("batch put amortizes decay") {
+    val filter = StableBloomFilter.builder
+      .withBitsPerBucket(3)
+      .withExpectedNumberOfItems(numItems / 10)
+      .build()
+    val ids = Array.tabulate(numItems)(_.toLong)
+    assert(filter.putAll(ids) === numItems)
+    // the most recent items are still there
+    assert(ids.takeRight(100).forall(id => filter.mightContain(id)))
+    assert(filter.expectedFpp() < 0.1)
+  }
 }
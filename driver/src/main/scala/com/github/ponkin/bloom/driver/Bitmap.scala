@@ -0,0 +1,31 @@
+package com.github.ponkin.bloom.driver
+
+import java.nio.ByteBuffer
+
+/**
+ * Result of `mightContainAll`, bit `i`
+ * (byte `i / 8`, least significant bit first)
+ * is set if element `i` might be inside filter
+ *
+ * @author Alexey Ponkin
+ */
+object Bitmap {
+
+  def apply(bits: Array[Boolean], size: Int): ByteBuffer = {
+    val bytes = new Array[Byte]((size + 7) / 8)
+    var i = 0
+    while (i < size) {
+      if (bits(i)) {
+        bytes(i >>> 3) = (bytes(i >>> 3) | (1 << (i & 7))).toByte
+      }
+      i += 1
+    }
+    ByteBuffer.wrap(bytes)
+  }
+
+  def get(bitmap: ByteBuffer, index: Int): Boolean =
+    (bitmap.get(bitmap.position() + (index >>> 3)) & (1 << (index & 7))) != 0
+
+  def toSeq(bitmap: ByteBuffer, size: Int): Seq[Boolean] =
+    (0 until size).map(get(bitmap, _))
+}
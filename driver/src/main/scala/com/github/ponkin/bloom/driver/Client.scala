@@ -1,5 +1,7 @@
 package com.github.ponkin.bloom.driver
 
+import java.nio.ByteBuffer
+
 import com.twitter.finagle.Thrift
 import com.twitter.finagle.client.DefaultPool
 import com.twitter.util.Future
@@ -11,10 +13,17 @@ import com.twitter.conversions.time._
  * @param address - address in form of "127.0.0.1:8080"
  * @param requestTimeout - wait in seconds for response
  * @param poolSize - maximum number of connections in pool
+ * @param writeWindow - number of elements sent without acknowledgement
+ * until server sends its own window
  *
  * @author Alexey Ponkin
  */
-class Client(address: String, requestTimeout: Int = 25, poolSize: Int = 5) extends Serializable {
+class Client(
+    address: String,
+    requestTimeout: Int = 25,
+    poolSize: Int = 5,
+    writeWindow: Int = Client.DefaultWriteWindow
+) extends Serializable {
 
   @transient lazy val client = Thrift
     .client
@@ -27,18 +36,58 @@ class Client(address: String, requestTimeout: Int = 25, poolSize: Int = 5) exten
     ))
     .newIface[BloomFilterStore.FutureIface](address)
 
-  def create(name: String, filter: Filter): Future[Unit] = client.create(name, filter)
+  @transient private[this] lazy val writes = new WriteWindow(writeWindow)
+
+  /**
+   * Future is satisfied when filter is created,
+   * see [[createAsync]]
+   */
+  def create(name: String, filter: Filter): Future[Unit] = client.createAck(name, filter)
+
+  def destroy(name: String): Future[Unit] = client.destroyAck(name)
+
+  /**
+   * Not acknowledged, future is satisfied
+   * when request is sent
+   */
+  def createAsync(name: String, filter: Filter): Future[Unit] = client.create(name, filter)
 
-  def destroy(name: String): Future[Unit] = client.destroy(name)
+  def destroyAsync(name: String): Future[Unit] = client.destroy(name)
 
+  def clearAsync(name: String): Future[Unit] = client.clear(name)
+
+  /**
+   * Not acknowledged, future is satisfied
+   * when request is sent, see [[putAll]]
+   */
   def put(name: String, elements: Set[String]): Future[Unit] = client.put(name, elements)
 
   def mightContain(name: String, element: String): Future[Boolean] = client.mightContain(name, element)
 
-  def clear(name: String): Future[Unit] = client.clear(name)
+  def clear(name: String): Future[Unit] = client.clearAck(name)
 
   def remove(name: String, elements: Set[String]) = client.remove(name, elements)
 
+  /**
+   * Put elements as raw bytes, no string conversion
+   * and deduplication on both sides. Future is satisfied
+   * when elements are in filter, writes wait while
+   * server window is full.
+   */
+  def putAll(name: String, elements: Seq[Array[Byte]]): Future[WriteAck] =
+    writes(elements.size)(client.putAll(name, elements.map(ByteBuffer.wrap)))
+
+  def removeAll(name: String, elements: Seq[Array[Byte]]): Future[WriteAck] =
+    writes(elements.size)(client.removeAll(name, elements.map(ByteBuffer.wrap)))
+
+  /**
+   * Check all elements in one request,
+   * result `i` is for element `i`
+   */
+  def mightContainAll(name: String, elements: Seq[Array[Byte]]): Future[Seq[Boolean]] =
+    client.mightContainAll(name, elements.map(ByteBuffer.wrap))
+      .map(bitmap => Bitmap.toSeq(bitmap, elements.size))
+
   def info(name: String) = client.info(name)
 
   def close(): Unit = Unit
@@ -47,6 +96,8 @@ class Client(address: String, requestTimeout: Int = 25, poolSize: Int = 5) exten
 
 object Client {
 
+  val DefaultWriteWindow = 100000
+
   def apply(address: String): Client = new Client(address)
   def apply(address: String, requestTimeout: Int, poolSize: Int): Client = new Client(address, requestTimeout, poolSize)
 
@@ -0,0 +1,66 @@
+package com.github.ponkin.bloom.driver
+
+import com.twitter.util.{ Future, Promise, Return, Throw }
+
+import scala.collection.mutable
+
+/**
+ * Client side flow control of writes.
+ * Number of elements sent and not acknowledged
+ * yet is limited by window, server sends new window
+ * with every acknowledgement. Write is sent anyway
+ * if nothing is in flight, so window smaller than
+ * write does not block it forever.
+ *
+ * @param initial - window until the first acknowledgement
+ *
+ * @author Alexey Ponkin
+ */
+private[driver] class WriteWindow(initial: Int) {
+
+  private[this] var window: Long = initial
+
+  private[this] var inFlight: Long = 0L
+
+  private[this] val waiters = mutable.Queue.empty[(Int, Promise[Unit])]
+
+  /**
+   * Send `write` of `size` elements
+   * when it fits in window
+   */
+  def apply(size: Int)(write: => Future[WriteAck]): Future[WriteAck] =
+    acquire(size).flatMap(_ => write).respond {
+      case Return(ack) => release(size, Some(ack.window))
+      case Throw(_) => release(size, None)
+    }
+
+  private[this] def fits(size: Int): Boolean =
+    inFlight == 0 || inFlight + size <= window
+
+  private[this] def acquire(size: Int): Future[Unit] = synchronized {
+    if (waiters.isEmpty && fits(size)) {
+      inFlight += size
+      Future.Done
+    } else {
+      val waiter = new Promise[Unit]
+      waiters.enqueue((size, waiter))
+      waiter
+    }
+  }
+
+  private[this] def release(size: Int, update: Option[Int]): Unit = {
+    val ready = synchronized {
+      inFlight -= size
+      update.foreach(window = _)
+      val ready = mutable.ArrayBuffer.empty[Promise[Unit]]
+      while (waiters.nonEmpty && fits(waiters.head._1)) {
+        val (next, waiter) = waiters.dequeue()
+        inFlight += next
+        ready += waiter
+      }
+      ready
+    }
+    // outside of lock, waiters send their writes
+    ready.foreach(_.setDone())
+  }
+}
@@ -15,20 +15,78 @@ struct Filter {
   4: map<string, string> params
 }
 
+/**
+ * Acknowledgement of applied write
+ */
+struct WriteAck {
+  /**
+   * Number of elements that changed filter,
+   * element that is already set in bloom filter
+   * does not change it, but is not lost
+   */
+  1: i64 applied,
+  /**
+   * Number of elements client may send
+   * without waiting for acknowledgements
+   */
+  2: i32 window,
+  /**
+   * Number of elements that are not put,
+   * because filter is full (cuckoo filter only)
+   */
+  3: i64 rejected = 0
+}
+
 service BloomFilterStore {
 
   oneway void create(1:string name, 2:Filter filter)
 
   oneway void destroy(1:string name)
-  
+
+  /**
+   * Not acknowledged, use putAll
+   */
   oneway void put(1:string name, 2:set<string> elements)
 
+  /**
+   * Not acknowledged, use removeAll
+   */
   oneway void remove(1:string name, 2:set<string> elements)
   
   oneway void clear(1:string name)
 
+  /**
+   * Same as create, returns when filter is created
+   */
+  void createAck(1:string name, 2:Filter filter)
+
+  /**
+   * Same as destroy, returns when filter is destroyed
+   */
+  void destroyAck(1:string name)
+
+  /**
+   * Same as clear, returns when filter is cleared
+   */
+  void clearAck(1:string name)
+
   bool mightContain(1:string name, 2:string element)
 
+  /**
+   * Elements are raw bytes, string element is
+   * the same as its UTF-8 bytes. Empty element
+   * is ignored and never matches, like empty string
+   */
+  WriteAck putAll(1:string name, 2:list<binary> elements)
+
+  WriteAck removeAll(1:string name, 2:list<binary> elements)
+
+  /**
+   * Bit i of result (byte i / 8, least significant bit first)
+   * is set if element i might be inside filter
+   */
+  binary mightContainAll(1:string name, 2:list<binary> elements)
+
   string info(1:string name)
 
 }
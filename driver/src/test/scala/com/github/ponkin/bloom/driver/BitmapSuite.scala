@@ -0,0 +1,47 @@
+package com.github.ponkin.bloom.driver
+
+import java.nio.ByteBuffer
+
+import org.scalacheck.Arbitrary._
+import org.scalacheck.Prop._
+import org.scalatest.prop.Checkers
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class BitmapSuite extends FunSuite with Checkers {
+
+  test("Bitmap round trip") {
+    check {
+      forAll { bits: List[Boolean] =>
+        Bitmap.toSeq(Bitmap(bits.toArray, bits.size), bits.size) == bits
+      }
+    }
+  }
+
+  test("Bitmap round trip - sizes multiple and not multiple of 8") {
+    for (size <- Seq(0, 1, 7, 8, 9, 15, 16, 17, 64, 65)) {
+      val bits = Array.tabulate(size)(i => i % 3 == 0)
+      val bitmap = Bitmap(bits, size)
+      assert(bitmap.remaining() === (size + 7) / 8, s"size $size")
+      assert(Bitmap.toSeq(bitmap, size) === bits.toSeq, s"size $size")
+    }
+  }
+
+  test("Bitmap round trip - least significant bit first") {
+    val bitmap = Bitmap(Array(true, false, false, false, false, false, false, false, false, true), 10)
+    assert(bitmap.get(0) === 1)
+    assert(bitmap.get(1) === 2)
+  }
+
+  test("Bitmap read - buffer with non-zero position") {
+    check {
+      forAll { (prefix: List[Byte], bits: List[Boolean]) =>
+        val bitmap = Bitmap(bits.toArray, bits.size)
+        val buf = ByteBuffer.allocate(prefix.size + bitmap.remaining())
+        buf.put(prefix.toArray).mark()
+        buf.put(bitmap).reset()
+        Bitmap.toSeq(buf, bits.size) == bits
+      }
+    }
+  }
+}
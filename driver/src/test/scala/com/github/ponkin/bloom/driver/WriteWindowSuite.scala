@@ -0,0 +1,104 @@
+package com.github.ponkin.bloom.driver
+
+import com.twitter.util.{ Future, Promise }
+
+import scala.collection.mutable
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class WriteWindowSuite extends FunSuite {
+
+  /**
+   * Writes are completed by test,
+   * `sent` keeps order of sent writes
+   */
+  class Writes(window: Int) {
+    val writes = new WriteWindow(window)
+    val sent = mutable.ArrayBuffer.empty[String]
+    val pending = mutable.Map.empty[String, Promise[WriteAck]]
+
+    def apply(name: String, size: Int): Future[WriteAck] =
+      writes(size) {
+        sent += name
+        val p = new Promise[WriteAck]
+        pending(name) = p
+        p
+      }
+  }
+
+  test("WriteWindow - writes are limited by window") {
+    val w = new Writes(10)
+    w("a", 6)
+    w("b", 4)
+    val c = w("c", 1)
+    assert(w.sent === Seq("a", "b"))
+    w.pending("a").setValue(WriteAck(6, 10))
+    assert(w.sent === Seq("a", "b", "c"))
+    assert(!c.isDefined)
+    w.pending("c").setValue(WriteAck(1, 10))
+    assert(c.poll.map(_.get.applied) === Some(1))
+  }
+
+  test("WriteWindow - window is updated from acknowledgement") {
+    val w = new Writes(10)
+    w("a", 1)
+    w.pending("a").setValue(WriteAck(1, 3))
+    w("b", 3)
+    w("c", 1)
+    assert(w.sent === Seq("a", "b"))
+    w.pending("b").setValue(WriteAck(3, 10))
+    w("d", 5)
+    assert(w.sent === Seq("a", "b", "c", "d"))
+  }
+
+  test("WriteWindow - write is sent if nothing is in flight") {
+    val w = new Writes(1)
+    w("a", 5)
+    assert(w.sent === Seq("a"))
+    w.pending("a").setValue(WriteAck(5, 0))
+    w("b", 2)
+    assert(w.sent === Seq("a", "b"))
+    w("c", 1)
+    assert(w.sent === Seq("a", "b"))
+    w.pending("b").setValue(WriteAck(2, 0))
+    assert(w.sent === Seq("a", "b", "c"))
+  }
+
+  test("WriteWindow - waiters are sent in FIFO order") {
+    val w = new Writes(10)
+    w("a", 5)
+    w("b", 8)
+    // fits in window, but waits behind b
+    w("c", 1)
+    assert(w.sent === Seq("a"))
+    w.pending("a").setValue(WriteAck(5, 10))
+    assert(w.sent === Seq("a", "b", "c"))
+    w("d", 2)
+    w("e", 1)
+    assert(w.sent === Seq("a", "b", "c"))
+    w.pending("b").setValue(WriteAck(8, 10))
+    assert(w.sent === Seq("a", "b", "c", "d", "e"))
+  }
+
+  test("WriteWindow - window is released on failure") {
+    val w = new Writes(5)
+    val a = w("a", 5)
+    w("b", 5)
+    assert(w.sent === Seq("a"))
+    w.pending("a").setException(new RuntimeException("write failed"))
+    assert(a.poll.exists(_.isThrow))
+    assert(w.sent === Seq("a", "b"))
+    w.pending("b").setValue(WriteAck(5, 5))
+    w("c", 5)
+    assert(w.sent === Seq("a", "b", "c"))
+  }
+
+  test("WriteWindow - window is released if write throws") {
+    val writes = new WriteWindow(5)
+    val a = writes(5)(throw new RuntimeException("can not send"))
+    assert(a.poll.exists(_.isThrow))
+    var sent = false
+    writes(5) { sent = true; Future.value(WriteAck(5, 5)) }
+    assert(sent)
+  }
+}
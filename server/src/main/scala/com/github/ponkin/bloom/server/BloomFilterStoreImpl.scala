@@ -10,28 +10,39 @@ import collection.JavaConverters._
 
 import java.util.concurrent.Executors
 import java.io.File
+import java.nio.ByteBuffer
 import java.nio.file.{ Path, Files }
 
-import com.github.ponkin.bloom.driver.{ BloomFilterStore, Filter => TFilter, FilterType }
+import com.github.ponkin.bloom.driver.{ BloomFilterStore, Bitmap, Filter => TFilter, FilterType, WriteAck }
 import com.github.ponkin.bloom.{
   Filter,
+  Filters,
   BloomFilter,
   CuckooFilter,
+  CountingBloomFilter,
+  ScalableBloomFilter,
   StableBloomFilter
 }
 
 import org.log4s._
 
 /**
+ * @param maxPendingWrites - number of elements queued for write,
+ * clients are asked to wait when it is reached
  *
  * @author Alexey Ponkin
  */
-class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[Future] {
+class BloomFilterStoreImpl(
+    val storage: StoreManager,
+    maxPendingWrites: Int = BloomFilterStoreImpl.DefaultMaxPendingWrites
+) extends BloomFilterStore[Future] {
 
   private[this] val logger = getLogger
 
   private[this] val futurePool = FuturePool(Executors.newWorkStealingPool())
 
+  private[this] val pendingWrites = new PendingWrites(maxPendingWrites)
+
   private[this] val sharedMem = new File("/dev/shm")
 
   /**
@@ -60,7 +71,10 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
       case Some(entity) =>
         entity.filter.close()
         entity.descriptor.dataPath match {
-          case Some(path) => Try(Files.delete(dataFile(path).toPath))
+          case Some(path) =>
+            // scalable filters map every layer to its own file
+            layerFiles(path).foreach(layer => Try(Files.delete(layer.toPath)))
+            Try(Files.delete(dataFile(path).toPath))
           case None => Success(Unit)
         }
         storage.delete(entity.descriptor) match {
@@ -71,8 +85,14 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
     }
   }
 
+  def createAck(name: String, meta: TFilter): Future[Unit] = create(name, meta)
+
+  def destroyAck(name: String): Future[Unit] = destroy(name)
+
+  def clearAck(name: String): Future[Unit] = clear(name)
+
   def put(name: String, elements: Set[String]): Future[Unit] = filters.get(name) match {
-    case Some(entity) => futurePool(entity.filter.put(elements.asJava))
+    case Some(entity) => write(elements.size)(entity.filter.put(elements.asJava))
     case None => Future.exception(NoSuchFilterFound(name))
   }
 
@@ -87,7 +107,35 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
   }
 
   def remove(name: String, elements: Set[String]): Future[Unit] = filters.get(name) match {
-    case Some(entity) => futurePool(entity.filter.remove(elements.asJava))
+    case Some(entity) => write(elements.size)(entity.filter.remove(elements.asJava))
+    case None => Future.exception(NoSuchFilterFound(name))
+  }
+
+  def putAll(name: String, elements: Seq[ByteBuffer]): Future[WriteAck] = filters.get(name) match {
+    case Some(entity) =>
+      write(elements.size) {
+        val buffers = nonEmpty(elements)
+        val applied = entity.filter.putAll(buffers).toLong
+        (applied, rejected(entity.filter, buffers.length, applied))
+      }.map { case (applied, rejected) => ack(applied, rejected) }
+    case None => Future.exception(NoSuchFilterFound(name))
+  }
+
+  def removeAll(name: String, elements: Seq[ByteBuffer]): Future[WriteAck] = filters.get(name) match {
+    case Some(entity) =>
+      write(elements.size)(nonEmpty(elements).count(element => entity.filter.remove(element)).toLong)
+        .map(applied => ack(applied, 0L))
+    case None => Future.exception(NoSuchFilterFound(name))
+  }
+
+  def mightContainAll(name: String, elements: Seq[ByteBuffer]): Future[ByteBuffer] = filters.get(name) match {
+    case Some(entity) => futurePool {
+      val buffers = elements.toArray
+      val result = new Array[Boolean](buffers.length)
+      entity.filter.mightContainAll(buffers, result)
+      buffers.indices.foreach(i => result(i) &&= buffers(i).hasRemaining)
+      Bitmap(result, result.length)
+    }
     case None => Future.exception(NoSuchFilterFound(name))
   }
 
@@ -96,13 +144,70 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
     case None => Future.exception(NoSuchFilterFound(name))
   }
 
+  /**
+   * Empty element is never put, the same
+   * as empty string in string API
+   */
+  private[this] def nonEmpty(elements: Seq[ByteBuffer]): Array[ByteBuffer] =
+    elements.filter(_.hasRemaining).toArray
+
   def close(): Unit = {
     filters.values.foreach(_.filter.close())
   }
 
-  private def actualFilter(desc: FilterDescriptor): Filter = {
+  /**
+   * Apply write of `size` elements in future pool,
+   * elements are pending until write is applied
+   */
+  private[this] def write[T](size: Int)(apply: => T): Future[T] = {
+    pendingWrites.acquire(size)
+    futurePool {
+      // released before write is acknowledged
+      try apply finally pendingWrites.release(size)
+    }
+  }
+
+  /**
+   * Acknowledge applied write, window is
+   * the rest of pending writes limit
+   */
+  private[this] def ack(applied: Long, rejected: Long): WriteAck =
+    WriteAck(applied, pendingWrites.window, rejected)
+
+  /**
+   * Only cuckoo filter does not put element when
+   * it is full, other filters do not change on
+   * elements that are already set
+   */
+  private[this] def rejected(filter: Filter, size: Int, applied: Long): Long = filter match {
+    case _: CuckooFilter => size - applied
+    case _ => 0L
+  }
+
+  /**
+   * Mapped filter file keeps filter parameters,
+   * so existing filter is opened from it, descriptor
+   * is used for new filters and files of previous versions
+   */
+  private def actualFilter(desc: FilterDescriptor): Filter =
+    desc.dataPath.map(dataFile).filter(_.length > 0).flatMap { file =>
+      Try(Filters.open(file)) match {
+        case Success(filter) =>
+          logger.info(s"Filter '${desc.name}' is opened from $file")
+          Some(filter)
+        case Failure(err) =>
+          logger.warn(err)(s"Can not open filter '${desc.name}' from $file, it is created from descriptor")
+          None
+      }
+    }.getOrElse(buildFilter(desc))
+
+  private def buildFilter(desc: FilterDescriptor): Filter = {
     val useOffHeap = desc.options.get("useOffHeap").map(_.toBoolean).getOrElse(true)
     val bitsPerBucket = desc.options.get("bitsPerBucket").map(_.toInt).getOrElse(1)
+    val bitsPerCounter = desc.options.get("bitsPerCounter").map(_.toInt).getOrElse(4)
+    val tighteningRatio = desc.options.get("tighteningRatio").map(_.toDouble).getOrElse(0.9)
+    val fillRatio = desc.options.get("fillRatio").map(_.toDouble).getOrElse(0.5)
+    val growth = desc.options.get("growth").map(_.toInt).getOrElse(2)
     val bldr = desc.filterType match {
       case BloomType.Standart =>
         BloomFilter.builder()
@@ -110,6 +215,13 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
         StableBloomFilter.builder().withBitsPerBucket(bitsPerBucket)
       case BloomType.Cuckoo =>
         CuckooFilter.builder()
+      case BloomType.Counting =>
+        CountingBloomFilter.builder().withBitsPerCounter(bitsPerCounter)
+      case BloomType.Scalable =>
+        ScalableBloomFilter.builder()
+          .withTighteningRatio(tighteningRatio)
+          .withFillRatio(fillRatio)
+          .withGrowthFactor(growth)
     }
 
     val wfbldr = desc.dataPath match {
@@ -130,6 +242,8 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
       case FilterType.Stable => BloomType.Stable
       case FilterType.Standart => BloomType.Standart
       case FilterType.Cuckoo => BloomType.Cuckoo
+      case FilterType.Counting => BloomType.Counting
+      case FilterType.Scalable => BloomType.Scalable
     }
     val path = meta.params.get("persist").map(_.toBoolean) match {
       case Some(true) => Some(s"""$name.data""")
@@ -139,6 +253,21 @@ class BloomFilterStoreImpl(val storage: StoreManager) extends BloomFilterStore[F
   }
 
   private[this] def dataFile(name: String): File = new File(sharedMem, name)
+
+  /**
+   * Files of scalable filter layers,
+   * layer number is suffix of data file name
+   */
+  private[this] def layerFiles(name: String): Seq[File] =
+    Option(sharedMem.listFiles()).toSeq.flatten.filter { file =>
+      val suffix = file.getName.stripPrefix(s"$name.")
+      file.getName.startsWith(s"$name.") && suffix.nonEmpty && suffix.forall(_.isDigit)
+    }
+}
+
+object BloomFilterStoreImpl {
+
+  val DefaultMaxPendingWrites = 1000000
 }
 
 case class NoSuchFilterFound(filterName: String) extends Exception(s"There is no filter with name '$filterName'")
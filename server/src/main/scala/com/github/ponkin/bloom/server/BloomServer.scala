@@ -6,7 +6,7 @@ class BloomServer(val conf: BloomConfig) {
 
   import KryoSerializer._
 
-  val storeImpl = new BloomFilterStoreImpl(DiskStoreManager(conf.storage))
+  val storeImpl = new BloomFilterStoreImpl(DiskStoreManager(conf.storage), conf.server.maxPendingWrites)
 
   def run = Thrift
     .server
@@ -14,7 +14,8 @@ case class ServerConfig(
   port: Int,
   maxConcurrentRequests: Int,
   maxWaiters: Int,
-  threadPoolSize: Option[Int]
+  threadPoolSize: Option[Int],
+  maxPendingWrites: Int
 )
 case class StorageConfig(dataDir: Option[Path])
 
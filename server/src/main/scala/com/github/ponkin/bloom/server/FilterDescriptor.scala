@@ -3,7 +3,7 @@ package com.github.ponkin.bloom.server
 import scala.collection.Map
 
 object BloomType extends Enumeration {
-  val Standart, Stable, Cuckoo = Value
+  val Standart, Stable, Cuckoo, Counting, Scalable = Value
 }
 
 case class FilterDescriptor(
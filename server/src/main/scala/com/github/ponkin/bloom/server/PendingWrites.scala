@@ -0,0 +1,27 @@
+package com.github.ponkin.bloom.server
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Number of elements of write requests
+ * that are not applied yet
+ *
+ * @param limit - number of pending elements,
+ * clients are asked to wait when it is reached
+ *
+ * @author Alexey Ponkin
+ */
+private[server] class PendingWrites(limit: Int) {
+
+  private[this] val pending = new AtomicLong()
+
+  def acquire(size: Int): Unit = pending.addAndGet(size)
+
+  def release(size: Int): Unit = pending.addAndGet(-size)
+
+  /**
+   * Rest of the limit, number of elements
+   * client may send without waiting
+   */
+  def window: Int = math.max(0L, limit - pending.get).toInt
+}
@@ -0,0 +1,88 @@
+package com.github.ponkin.bloom.server
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import com.twitter.util.{ Await, Future }
+import com.github.ponkin.bloom.driver.{ Bitmap, Filter => TFilter, FilterType }
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class BloomFilterStoreImplSuite extends FunSuite {
+
+  import KryoSerializer._
+
+  def withStore(maxPendingWrites: Int)(test: BloomFilterStoreImpl => Unit): Unit = {
+    val tmpDir = Files.createTempDirectory("bloom_filter_store_tests")
+    val store = new BloomFilterStoreImpl(new DiskStoreManager(tmpDir.toFile), maxPendingWrites)
+    try test(store) finally store.close()
+  }
+
+  def elements(from: Int, until: Int): Seq[ByteBuffer] =
+    (from until until).map(i => ByteBuffer.wrap(s"element-$i".getBytes("UTF-8")))
+
+  test("WriteAck - window is the limit when writes are applied") {
+    withStore(100) { store =>
+      Await.result(store.createAck("filter", TFilter(1000, 0.01, FilterType.Counting)))
+      val ack = Await.result(store.putAll("filter", elements(0, 10)))
+      assert(ack.applied === 10)
+      assert(ack.window === 100)
+      assert(Await.result(store.removeAll("filter", elements(0, 10))).window === 100)
+    }
+  }
+
+  test("WriteAck - window stays in limit under concurrent writes") {
+    withStore(1000) { store =>
+      Await.result(store.createAck("filter", TFilter(100000, 0.01, FilterType.Standart)))
+      val acks = Await.result(Future.collect((0 until 200).map { i =>
+        store.putAll("filter", elements(i * 100, (i + 1) * 100))
+      }))
+      assert(acks.forall(ack => ack.window >= 0 && ack.window <= 1000))
+      // all writes are applied, nothing is pending
+      assert(Await.result(store.putAll("filter", elements(0, 1))).window === 1000)
+    }
+  }
+
+  test("WriteAck - window is zero over the limit") {
+    withStore(0) { store =>
+      Await.result(store.createAck("filter", TFilter(1000, 0.01, FilterType.Standart)))
+      assert(Await.result(store.putAll("filter", elements(0, 10))).window === 0)
+    }
+  }
+
+  test("WriteAck - elements already in bloom filter are not rejected") {
+    withStore(100) { store =>
+      Await.result(store.createAck("filter", TFilter(1000, 0.01, FilterType.Standart)))
+      assert(Await.result(store.putAll("filter", elements(0, 10))).applied === 10)
+      val ack = Await.result(store.putAll("filter", elements(0, 10)))
+      assert(ack.applied === 0)
+      assert(ack.rejected === 0)
+    }
+  }
+
+  test("WriteAck - elements are rejected by full cuckoo filter") {
+    withStore(100000) { store =>
+      Await.result(store.createAck("filter", TFilter(100, 0.01, FilterType.Cuckoo)))
+      val ack = Await.result(store.putAll("filter", elements(0, 10000)))
+      assert(ack.rejected > 0)
+      assert(ack.applied + ack.rejected === 10000)
+    }
+  }
+
+  test("persisted filter is opened from its file on restart") {
+    val tmpDir = Files.createTempDirectory("bloom_filter_store_tests")
+    val name = s"store-test-${System.nanoTime}"
+    val store = new BloomFilterStoreImpl(new DiskStoreManager(tmpDir.toFile))
+    Await.result(store.createAck(name, TFilter(1000, 0.01, FilterType.Standart, Map("persist" -> "true"))))
+    Await.result(store.putAll(name, elements(0, 100)))
+    store.close()
+    val reopened = new BloomFilterStoreImpl(new DiskStoreManager(tmpDir.toFile))
+    try {
+      val bitmap = Await.result(reopened.mightContainAll(name, elements(0, 100)))
+      assert((0 until 100).forall(i => Bitmap.get(bitmap, i)))
+    } finally {
+      Await.result(reopened.destroyAck(name))
+      reopened.close()
+    }
+  }
+}
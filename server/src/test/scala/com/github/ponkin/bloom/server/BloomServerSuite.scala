@@ -0,0 +1,95 @@
+package com.github.ponkin.bloom.server
+
+import java.net.InetSocketAddress
+import java.nio.file.Files
+
+import com.twitter.util.{ Await, Future }
+import com.github.ponkin.bloom.driver.{ Client, Filter => TFilter, FilterType }
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+/**
+ * Requests of driver client go through
+ * thrift to running server
+ */
+class BloomServerSuite extends FunSuite {
+
+  def withServer(
+    maxPendingWrites: Int,
+    writeWindow: Int = Client.DefaultWriteWindow
+  )(test: Client => Unit): Unit = {
+    val tmpDir = Files.createTempDirectory("bloom_server_tests")
+    val server = BloomServer(BloomConfig(
+      ServerConfig("localhost", 0, 100, 100, None, maxPendingWrites),
+      StorageConfig(Some(tmpDir))
+    ))
+    val listening = server.run
+    val port = listening.boundAddress.asInstanceOf[InetSocketAddress].getPort
+    try test(new Client(s"localhost:$port", writeWindow = writeWindow)) finally {
+      Await.ready(listening.close())
+      server.storeImpl.close()
+    }
+  }
+
+  def elements(from: Int, until: Int): Seq[Array[Byte]] =
+    (from until until).map(i => s"element-$i".getBytes("UTF-8"))
+
+  test("binary elements are put, checked and removed in batches") {
+    withServer(100000) { client =>
+      Await.result(client.create("filter", TFilter(1000, 0.0001, FilterType.Counting)))
+      // not valid UTF-8, sent as is
+      val raw = Seq(Array[Byte](-1, -2, -3), Array[Byte](0, -128, 127))
+      assert(Await.result(client.putAll("filter", elements(0, 100) ++ raw)).applied === 102)
+      assert(Await.result(client.mightContainAll("filter", elements(0, 100) ++ raw)).forall(identity))
+      assert(Await.result(client.removeAll("filter", elements(0, 50))).applied === 50)
+      val result = Await.result(client.mightContainAll("filter", elements(0, 100)))
+      assert(result.take(50).forall(!_))
+      assert(result.drop(50).forall(identity))
+      Await.result(client.destroy("filter"))
+    }
+  }
+
+  test("empty binary element is ignored") {
+    withServer(100000) { client =>
+      Await.result(client.create("filter", TFilter(1000, 0.01, FilterType.Standart)))
+      assert(Await.result(client.putAll("filter", Seq(Array.empty[Byte]))).applied === 0)
+      assert(Await.result(client.mightContainAll("filter", Seq(Array.empty[Byte]))) === Seq(false))
+      Await.result(client.destroy("filter"))
+    }
+  }
+
+  test("create, clear and destroy are acknowledged") {
+    withServer(100000) { client =>
+      Await.result(client.create("filter", TFilter(1000, 0.01, FilterType.Standart)))
+      // filter exists as soon as create is acknowledged
+      assert(Await.result(client.putAll("filter", elements(0, 100))).applied === 100)
+      Await.result(client.clear("filter"))
+      assert(Await.result(client.mightContainAll("filter", elements(0, 100))).forall(!_))
+      Await.result(client.destroy("filter"))
+      intercept[Exception](Await.result(client.putAll("filter", elements(0, 1))))
+    }
+  }
+
+  test("writes follow window of server") {
+    withServer(maxPendingWrites = 10, writeWindow = 1) { client =>
+      Await.result(client.create("filter", TFilter(100000, 0.0001, FilterType.Standart)))
+      val acks = Await.result(Future.collect((0 until 50).map { i =>
+        client.putAll("filter", elements(i * 100, (i + 1) * 100))
+      }))
+      assert(acks.forall(ack => ack.window >= 0 && ack.window <= 10))
+      assert(acks.map(_.rejected).sum === 0)
+      assert(Await.result(client.mightContainAll("filter", elements(0, 5000))).forall(identity))
+      Await.result(client.destroy("filter"))
+    }
+  }
+
+  test("elements rejected by full cuckoo filter are reported") {
+    withServer(100000) { client =>
+      Await.result(client.create("filter", TFilter(100, 0.01, FilterType.Cuckoo)))
+      val ack = Await.result(client.putAll("filter", elements(0, 10000)))
+      assert(ack.rejected > 0)
+      assert(ack.applied + ack.rejected === 10000)
+      Await.result(client.destroy("filter"))
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.ponkin.bloom.server
+
+import org.scalatest.FunSuite // scalastyle:ignore funsuite
+
+class PendingWritesSuite extends FunSuite {
+
+  test("PendingWrites - window is the rest of the limit") {
+    val pending = new PendingWrites(10)
+    assert(pending.window === 10)
+    pending.acquire(3)
+    pending.acquire(4)
+    assert(pending.window === 3)
+    pending.release(3)
+    assert(pending.window === 6)
+    pending.release(4)
+    assert(pending.window === 10)
+  }
+
+  test("PendingWrites - window is zero over the limit") {
+    val pending = new PendingWrites(10)
+    pending.acquire(25)
+    assert(pending.window === 0)
+    pending.release(20)
+    assert(pending.window === 5)
+  }
+
+  test("PendingWrites - window fits in Int") {
+    val pending = new PendingWrites(Int.MaxValue)
+    pending.acquire(Int.MaxValue)
+    pending.acquire(Int.MaxValue)
+    assert(pending.window === 0)
+    pending.release(Int.MaxValue)
+    pending.release(Int.MaxValue)
+    assert(pending.window === Int.MaxValue)
+  }
+}
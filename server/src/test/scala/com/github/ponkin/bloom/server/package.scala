@@ -12,7 +12,7 @@ package object server {
 
   val filterDescGen: Gen[FilterDescriptor] = for {
     name <- strOfLen(10)
-    filterType <- Gen.oneOf(BloomType.Standart, BloomType.Stable, BloomType.Cuckoo)
+    filterType <- Gen.oneOf(BloomType.Standart, BloomType.Stable, BloomType.Cuckoo, BloomType.Counting, BloomType.Scalable)
     maxElements <- Gen.posNum[Long]
     fpp <- Gen.posNum[Double]
     dataPath <- Gen.option(Gen.alphaStr)
@@ -12,7 +12,8 @@ case class BloomConnectorConf(
   port: Int,
   putBatchSize: Int,
   poolSize: Int,
-  reqTimeout: Int
+  reqTimeout: Int,
+  mightContainBatchSize: Int = BloomConnectorConf.MightContainBatchParam.default
 )
 
 object BloomConnectorConf {
@@ -44,6 +45,16 @@ object BloomConnectorConf {
     description = "Put elements in bloom filter batch size"
   )
 
+  /**
+   * Number of keys checked by
+   * one request to bloom server
+   */
+  val MightContainBatchParam = ConfigParameter[Int](
+    name = "bloom-server.mightcontain.batch.size",
+    default = 1000,
+    description = "Check elements in bloom filter batch size"
+  )
+
   val ConnPoolSize = ConfigParameter[Int](
     name = "bloom-server.connection.pool.size",
     default = 5,
@@ -62,6 +73,7 @@ object BloomConnectorConf {
     val host = conf.get(ConnectionHostParam.name, ConnectionHostParam.default)
     val poolSize = conf.getInt(ConnPoolSize.name, ConnPoolSize.default)
     val reqTimeout = conf.getInt(RequestTimeout.name, RequestTimeout.default)
-    BloomConnectorConf(host, port, putBatchSize, poolSize, reqTimeout)
+    val mightContainBatchSize = conf.getInt(MightContainBatchParam.name, MightContainBatchParam.default)
+    BloomConnectorConf(host, port, putBatchSize, poolSize, reqTimeout, mightContainBatchSize)
   }
 }
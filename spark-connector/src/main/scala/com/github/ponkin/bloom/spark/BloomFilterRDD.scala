@@ -1,5 +1,7 @@
 package com.github.ponkin.bloom.spark
 
+import java.nio.charset.StandardCharsets
+
 import scala.reflect.ClassTag
 import com.twitter.util.Await
 import org.apache.spark.rdd.RDD
@@ -21,15 +23,21 @@ class BloomFilterRDD[T](
     val connector: BloomConnector
 ) extends RDD[(String, (T, Boolean))](left) {
 
+  /**
+   * Keys are checked by batches,
+   * one request per batch
+   */
   override def compute(split: Partition, context: TaskContext): Iterator[(String, (T, Boolean))] = {
-    val requests = connector.withClientDo { client =>
-      left.iterator(split, context).map {
-        case (key, row) => client.mightContain(filterName, key)
+    val batchSize = math.max(connector.conf.mightContainBatchSize, 1)
+    connector.withClientDo { client =>
+      left.iterator(split, context).grouped(batchSize).flatMap { batch =>
+        val keys = batch.map(_._1.getBytes(StandardCharsets.UTF_8))
+        val result = Await.result(client.mightContainAll(filterName, keys))
+        batch.zip(result).map {
+          case ((key, row), contains) => (key, (row, contains))
+        }
       }
     }
-    left.iterator(split, context).zip(requests).map {
-      case ((key, row), future) => (key, (row, Await.result(future)))
-    }
   }
 
   override protected def getPartitions: Array[Partition] = left.partitions
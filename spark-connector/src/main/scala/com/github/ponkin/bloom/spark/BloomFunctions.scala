@@ -1,5 +1,7 @@
 package com.github.ponkin.bloom.spark
 
+import java.nio.charset.StandardCharsets
+
 import com.github.ponkin.bloom.driver.Client
 import com.twitter.util.{ Await, Future }
 import org.apache.spark.{ TaskContext, SparkContext }
@@ -15,15 +17,19 @@ class BloomFunctions[T](rdd: RDD[(String, T)]) {
 
   /**
    * Put all keys from RDD to
-   * remote bloom filter with `name`
+   * remote bloom filter with `name`,
+   * returns when all keys are in filter
+   *
+   * @return number of keys that changed filter
+   * and number of keys rejected by full filter
    */
   def putInBloomFilter(
     name: String
   )(
     implicit
     conn: BloomConnector = new BloomConnector(BloomConnectorConf(sparkContext.getConf))
-  ): Unit = {
-    sparkContext.runJob(rdd, put(name))
+  ): PutResult = {
+    sparkContext.runJob(rdd, put(name)).foldLeft(PutResult.Empty)(_ + _)
   }
 
   private[spark] def put(
@@ -31,26 +37,29 @@ class BloomFunctions[T](rdd: RDD[(String, T)]) {
   )(
     implicit
     conn: BloomConnector
-  ): (TaskContext, Iterator[(String, T)]) => Unit = { (ctx, partition) =>
+  ): (TaskContext, Iterator[(String, T)]) => PutResult = { (ctx, partition) =>
+    // keys are sent as UTF-8 bytes, the same as string keys
+    val keys = partition.map(_._1.getBytes(StandardCharsets.UTF_8))
     conn.withClientDo { client =>
-      Await.result(
-        conn.conf.putBatchSize match {
-          case 0 | 1 =>
-            Future.collect(
-              partition.map(row => client.put(filter, Set(row._1)))
-              .toSeq
-            ).unit
-          case n if n > 1 =>
-            Future.collect(
-              partition.map(_._1)
-              .sliding(n, n)
-              .map(seq => client.put(filter, seq.toSet))
-              .toSeq
-            ).unit
-          case _ =>
-            client.put(filter, partition.map(_._1).toSet)
-        }
-      )
+      // client holds writes back while server window is full
+      val acks = conn.conf.putBatchSize match {
+        case 0 | 1 =>
+          Future.collect(
+            keys.map(key => client.putAll(filter, Seq(key)))
+            .toSeq
+          )
+        case n if n > 1 =>
+          Future.collect(
+            keys.grouped(n)
+            .map(batch => client.putAll(filter, batch))
+            .toSeq
+          )
+        case _ =>
+          client.putAll(filter, keys.toVector).map(Seq(_))
+      }
+      Await.result(acks).foldLeft(PutResult.Empty) { (result, ack) =>
+        result + PutResult(ack.applied, ack.rejected)
+      }
     }
   }
 
@@ -0,0 +1,21 @@
+package com.github.ponkin.bloom.spark
+
+/**
+ * Result of putting RDD keys in remote filter
+ *
+ * @param applied - number of keys that changed filter
+ * @param rejected - number of keys that are not put,
+ * because filter is full (cuckoo filter only)
+ *
+ * @author Alexey Ponkin
+ */
+case class PutResult(applied: Long, rejected: Long) {
+
+  def +(other: PutResult): PutResult =
+    PutResult(applied + other.applied, rejected + other.rejected)
+}
+
+object PutResult {
+
+  val Empty = PutResult(0L, 0L)
+}